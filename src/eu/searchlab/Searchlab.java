@@ -30,11 +30,13 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import eu.searchlab.aaaaa.ACL;
 import eu.searchlab.aaaaa.AccountingTS;
 import eu.searchlab.aaaaa.AuthorizationTS;
+import eu.searchlab.aaaaa.Billing;
 import eu.searchlab.aaaaa.UserDB;
 import eu.searchlab.audit.UserAudit;
-import eu.searchlab.http.EventCount;
+import eu.searchlab.http.RateLimiter;
 import eu.searchlab.http.WebServer;
 import eu.searchlab.operation.AsynchronousScheduler;
 import eu.searchlab.operation.FrequencyScheduler;
@@ -46,6 +48,7 @@ import eu.searchlab.storage.queues.QueueStats;
 import eu.searchlab.storage.queues.RabbitQueueFactory;
 import eu.searchlab.tools.Logger;
 import net.yacy.grid.io.index.ElasticsearchClient;
+import net.yacy.grid.io.index.IndexDAO;
 import net.yacy.grid.io.index.WebMapping;
 
 public class Searchlab {
@@ -73,7 +76,7 @@ public class Searchlab {
 
     // Audit
     public static FrequencyScheduler AsynchronousScheduler;
-    public static EventCount searchRequestCount;
+    public static RateLimiter searchRequestCount;
 
     // AAAAA
     public static UserDB userDB;
@@ -280,7 +283,7 @@ public class Searchlab {
             userDB = new UserDB(io, io, aaaaaIOp);
             accounting = new AccountingTS(io, aaaaaIOp);
             authorization = new AuthorizationTS(io, aaaaaIOp);
-            searchRequestCount = new EventCount(60000 * 60); // 1h audit trail per IP to count number of requests
+            searchRequestCount = new RateLimiter(60000 * 60, ACL.get().maxSearchFrequencyCount() + 1); // 1h audit trail per IP to count number of requests; the capacity must exceed the search frequency counts in acl.json
             userAudit = new UserAudit(io, auditUserRequestsIOp, auditUserVisitorsIOp);
         } catch (final IOException e) {
             Logger.error("could not load data from IO", e);
@@ -292,6 +295,19 @@ public class Searchlab {
         frequencyScheduler = new FrequencyScheduler();
         asynchronousScheduler = new AsynchronousScheduler();
         frequencyScheduler.addJob(userAudit, 60000);
+        frequencyScheduler.addJob(userDB.getAuditLog(), 60000);
+        frequencyScheduler.addJob(authorization, 60000);
+        frequencyScheduler.addJob(() -> {
+            ACL.check();
+            searchRequestCount.ensureCapacity(ACL.get().maxSearchFrequencyCount() + 1);
+        }, 10000);
+        WebServer.ipBanned.attach(io, statusIOp.append("ipbans.json"));
+        frequencyScheduler.addJob(WebServer.ipBanned, 60000);
+        Billing.snapshot.attach(io, aaaaaIOp.append("billing.json"));
+        Billing.snapshot.addGithubAccount("orbiter");
+        frequencyScheduler.addJob(Billing.snapshot, 10000);
+        IndexDAO.histogram.attach(io, statusIOp);
+        frequencyScheduler.addJob(IndexDAO.histogram, 60000);
 
         // Start webserver
         final String port = System.getProperty("port", "8400");
@@ -337,15 +353,22 @@ public class Searchlab {
                 try {Thread.sleep(1000);} catch (final InterruptedException e) {}
             }
             Logger.info("server kill termination requested");
-            webserver.server.stop();
+            webserver.stop();
             asynchronousScheduler.shutdown();
             frequencyScheduler.shutdown();
+            userDB.getAuditLog().flush();
+            authorization.flush();
+            IndexDAO.histogram.write();
         } else {
             // something with the pid file creation did not work; fail-over to normal operation waiting for a kill command
             try {
                 webserver.server.getWorker().awaitTermination();
+                webserver.accessLog.close();
                 asynchronousScheduler.shutdown();
                 frequencyScheduler.shutdown();
+                userDB.getAuditLog().flush();
+                authorization.flush();
+                IndexDAO.histogram.write();
             } catch (final InterruptedException e) {
                 Logger.error(e);
             }
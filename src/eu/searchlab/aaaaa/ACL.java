@@ -0,0 +1,269 @@
+/**
+ *  ACL
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.aaaaa;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import eu.searchlab.aaaaa.Authorization.Grade;
+import eu.searchlab.tools.Logger;
+
+/**
+ * The access control list from conf/acl.json, compiled into a decision table.
+ * For each grade the table has an array of limits indexed by the Limit enum, a bit set of permissions and the
+ * search frequency limits. A level in acl.json which has no crawler, index or queries section inherits the
+ * section of the level below. The table is immutable; check() is called by the frequency scheduler and replaces
+ * the table if the file was changed. Only the first get() reads the file, later calls do not touch the file
+ * system, so authorization checks are array reads which can also be done on the IO thread.
+ */
+public final class ACL {
+
+    public static enum Limit {
+        CRAWLING_DEPTH("crawler", "crawlingDepth"),
+        DOCUMENTS("index", "documents"),
+        COLLECTIONS("index", "collections"),
+        WARC_MB("index", "warc_mb"),
+        INDEX_MB("index", "index_mb"),
+        GRAPH_MB("index", "graph_mb");
+
+        private final String section, key;
+        private Limit(final String section, final String key) {
+            this.section = section;
+            this.key = key;
+        }
+    }
+
+    /**
+     * permissions are crawler options which are not disabled
+     */
+    public static enum Permission {
+        FOR_USER("forUser"),
+        CRAWLING_DEPTH("crawlingDepth"),
+        COLLECTION("collection"),
+        RANGE("range"),
+        PRIORITY("priority"),
+        LOADER_HEADLESS("loaderHeadless"),
+        ARCHIVE_WARC("archiveWARC"),
+        ARCHIVE_INDEX("archiveIndex"),
+        ARCHIVE_GRAPH("archiveGraph");
+
+        private final String key;
+        private Permission(final String key) {
+            this.key = key;
+        }
+    }
+
+    private final static File ACL_FILE = new File(FileSystems.getDefault().getPath("conf").toFile(), "acl.json");
+    private static volatile ACL current = null;
+
+    private final JSONObject json;
+    private final long modified;
+    private final String[] levels;          // the level json by grade ordinal, serialized
+    private final long[][] limits;          // [grade][limit]
+    private final long[] permissions;       // [grade], bit set by permission ordinal
+    private final long[][] searchTime;      // [grade][window]
+    private final int[][] searchCount;      // [grade][window]
+    private final int maxSearchCount;       // the largest search frequency count of all grades
+    private final String[] collectionValue; // [grade], the crawler collection value
+    private final Map<String, Grade> patreonGrades;
+
+    private ACL(final JSONObject json, final long modified) {
+        final Grade[] grades = Grade.values();
+        this.json = json;
+        this.modified = modified;
+        this.levels = new String[grades.length];
+        this.limits = new long[grades.length][Limit.values().length];
+        this.permissions = new long[grades.length];
+        this.searchTime = new long[grades.length][];
+        this.searchCount = new int[grades.length][];
+        this.collectionValue = new String[grades.length];
+        this.patreonGrades = new HashMap<>();
+
+        // find the level of each grade
+        final JSONObject[] level = new JSONObject[grades.length];
+        final JSONArray a = json.optJSONArray("levels");
+        if (a != null) for (int i = 0; i < a.length(); i++) {
+            final JSONObject l = a.optJSONObject(i);
+            if (l == null) continue;
+            try {
+                final Grade grade = Grade.valueOf(l.optString("level"));
+                level[grade.ordinal()] = l;
+                final String patreonID = l.optString("patreonID", "");
+                if (patreonID.length() > 0 && !this.patreonGrades.containsKey(patreonID)) this.patreonGrades.put(patreonID, grade);
+            } catch (final IllegalArgumentException e) {
+                Logger.warn("unknown level in acl: " + l.optString("level"));
+            }
+        }
+
+        // compile the sections; missing sections are inherited from the level below
+        JSONObject crawler = new JSONObject(), index = new JSONObject(), search = new JSONObject();
+        int max = 0;
+        for (int g = 0; g < grades.length; g++) {
+            final JSONObject l = level[g] == null ? (g == 0 ? new JSONObject() : null) : level[g];
+            this.levels[g] = l == null ? this.levels[g - 1] : l.toString();
+            if (l != null) {
+                if (l.optJSONObject("crawler") != null) crawler = l.optJSONObject("crawler");
+                if (l.optJSONObject("index") != null) index = l.optJSONObject("index");
+                final JSONObject queries = l.optJSONObject("queries");
+                if (queries != null && queries.optJSONObject("search") != null) search = queries.optJSONObject("search");
+            }
+            for (final Limit limit: Limit.values()) {
+                final JSONObject section = "crawler".equals(limit.section) ? crawler : index;
+                final JSONObject entry = section.optJSONObject(limit.key);
+                this.limits[g][limit.ordinal()] = entry == null ? 0 : entry.optLong("max", 0);
+            }
+            long bits = 0;
+            for (final Permission permission: Permission.values()) {
+                final JSONObject entry = crawler.optJSONObject(permission.key);
+                if (entry != null && !entry.optBoolean("disabled", false)) bits |= 1L << permission.ordinal();
+            }
+            this.permissions[g] = bits;
+            final JSONObject collection = crawler.optJSONObject("collection");
+            this.collectionValue[g] = collection == null ? "domain" : collection.optString("value", "domain");
+            final JSONArray time = search.optJSONArray("frequency_time");
+            final JSONArray count = search.optJSONArray("frequency_count");
+            final int windows = time == null || count == null ? 0 : Math.min(time.length(), count.length());
+            this.searchTime[g] = new long[windows];
+            this.searchCount[g] = new int[windows];
+            for (int w = 0; w < windows; w++) {
+                this.searchTime[g][w] = time.optLong(w);
+                this.searchCount[g][w] = count.optInt(w);
+                max = Math.max(max, this.searchCount[g][w]);
+            }
+        }
+        this.maxSearchCount = max;
+    }
+
+    /**
+     * get the current decision table; the file is only read if no table was loaded yet
+     * @return the table; this is never null
+     */
+    public static ACL get() {
+        final ACL acl = current;
+        if (acl != null) return acl;
+        return reload();
+    }
+
+    /**
+     * reload the table if the file was changed; this shall be called periodically, not within requests
+     */
+    public static void check() {
+        reload();
+    }
+
+    private static synchronized ACL reload() {
+        final long modified = ACL_FILE.lastModified();
+        if (current != null && current.modified == modified) return current;
+        try (final Reader reader = new InputStreamReader(new FileInputStream(ACL_FILE), StandardCharsets.UTF_8)) {
+            current = new ACL(new JSONObject(new JSONTokener(reader)), modified);
+            Logger.info("loaded acl from " + ACL_FILE.getPath());
+        } catch (final IOException | JSONException e) {
+            Logger.error(e);
+            if (current == null) current = new ACL(new JSONObject(), 0);
+        }
+        return current;
+    }
+
+    /**
+     * @return the acl as json; this must not be modified
+     */
+    public JSONObject toJSON() {
+        return this.json;
+    }
+
+    /**
+     * get the acl level of a grade
+     * @param grade
+     * @return a copy of the level object from the acl
+     */
+    public JSONObject getLevel(final Grade grade) {
+        try {
+            return new JSONObject(this.levels[grade.ordinal()]);
+        } catch (final JSONException e) {
+            return new JSONObject(); // cannot happen because the string was produced by a JSONObject
+        }
+    }
+
+    public long limit(final Grade grade, final Limit limit) {
+        return this.limits[grade.ordinal()][limit.ordinal()];
+    }
+
+    public boolean permits(final Grade grade, final Permission permission) {
+        return (this.permissions[grade.ordinal()] & (1L << permission.ordinal())) != 0;
+    }
+
+    /**
+     * @param grade
+     * @return the collection which is used if the grade does not permit to choose a collection
+     */
+    public String collectionValue(final Grade grade) {
+        return this.collectionValue[grade.ordinal()];
+    }
+
+    /**
+     * @param grade
+     * @return the time windows of the search frequency limits in milliseconds; this must not be modified
+     */
+    public long[] searchFrequencyTime(final Grade grade) {
+        return this.searchTime[grade.ordinal()];
+    }
+
+    /**
+     * @param grade
+     * @return the maximum number of search requests within the time windows; this must not be modified
+     */
+    public int[] searchFrequencyCount(final Grade grade) {
+        return this.searchCount[grade.ordinal()];
+    }
+
+    /**
+     * @return the largest maximum number of search requests within a time window over all grades
+     */
+    public int maxSearchFrequencyCount() {
+        return this.maxSearchCount;
+    }
+
+    /**
+     * find the grade which is assigned to one of the given patreon reward ids
+     * @param rewardids
+     * @return the grade of the first level in the acl with a matching reward id, or null if none matches
+     */
+    public Grade patreonGrade(final Set<String> rewardids) {
+        Grade best = null;
+        for (final String rewardid: rewardids) {
+            final Grade grade = this.patreonGrades.get(rewardid);
+            if (grade != null && (best == null || grade.ordinal() < best.ordinal())) best = grade;
+        }
+        return best;
+    }
+}
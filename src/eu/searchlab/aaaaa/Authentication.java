@@ -27,7 +27,6 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -58,6 +57,9 @@ public class Authentication {
      *  "sponsor_patreon_approved"
      *  "anonymous_production"
      *  "login_github"
+     *  "id_github"
+     *  "id_patreon"
+     *  "id_twitter"
      *  "date_registration"
      *  "date_visit"
      * @param json
@@ -212,6 +214,17 @@ public class Authentication {
         return this.json.optString("login_github", "");
     }
 
+    public Authentication setGithubId(final String github_id) throws RuntimeException {
+        if (this.isAnonymous) throw new RuntimeException("anonmous accounts cannot set authentication providers");
+        this.json.put("id_github", github_id);
+        return this;
+    }
+
+    public String getGithubId() throws RuntimeException {
+        if (this.isAnonymous) throw new RuntimeException("anonmous accounts cannot set authentication providers");
+        return this.json.optString("id_github", "");
+    }
+
     public Authentication setGithubSponsor(final String github_sponsor) throws RuntimeException {
         if (this.isAnonymous) throw new RuntimeException("anonmous accounts cannot set authentication providers");
         this.json.put("sponsor_github", github_sponsor);
@@ -287,17 +300,11 @@ public class Authentication {
     public Authentication setPatreonSponsorRewardids(final Set<String> rewardids) throws RuntimeException {
         if (this.isAnonymous) throw new RuntimeException("anonmous accounts cannot set authentication providers");
         // find out if any of the acl-defined reward ids match with the given one
-        final JSONObject acl = Authorization.getACL();
-        final JSONArray levels = acl.optJSONArray("levels");
-        for (int i = 0; i < levels.length(); i++) {
-            final JSONObject level = levels.optJSONObject(i);
-            final String patreonID = level.optString("patreonID");
-            final String levelName = level.optString("level");
-            if (rewardids.contains(patreonID)) {
-                this.json.put("sponsor_patreon_approved", true);
-                this.json.put("sponsor_level", levelName);
-                return this;
-            }
+        final Grade grade = ACL.get().patreonGrade(rewardids);
+        if (grade != null) {
+            this.json.put("sponsor_patreon_approved", true);
+            this.json.put("sponsor_level", grade.name());
+            return this;
         }
         this.json.put("sponsor_patreon_approved", false);
         return this;
@@ -314,6 +321,17 @@ public class Authentication {
         return this;
     }
 
+    public Authentication setTwitterId(final String twitter_id) throws RuntimeException {
+        if (this.isAnonymous) throw new RuntimeException("anonmous accounts cannot set authentication providers");
+        this.json.put("id_twitter", twitter_id);
+        return this;
+    }
+
+    public String getTwitterId() throws RuntimeException {
+        if (this.isAnonymous) throw new RuntimeException("anonmous accounts cannot set authentication providers");
+        return this.json.optString("id_twitter", "");
+    }
+
     /**
      * set property name from https://schema.org/Person
      * This shall be considered as visible name that the person wants to be displayed
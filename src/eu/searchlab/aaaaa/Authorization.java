@@ -19,20 +19,11 @@
 
 package eu.searchlab.aaaaa;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.file.FileSystems;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
-import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
-
-import eu.searchlab.tools.Logger;
 
 public class Authorization {
 
@@ -46,7 +37,8 @@ public class Authorization {
         }
     }
 
-    public JSONObject json;
+    private JSONObject json;
+    private final String id, session;
 
     public static enum Grade {
         L00_Everyone(0),
@@ -66,26 +58,30 @@ public class Authorization {
         }
     }
 
-    private static JSONObject acl = null;
-
+    /**
+     * get the access control list
+     * @return the acl json; this must not be modified
+     */
     public static JSONObject getACL() {
-        if (acl != null) return acl;
-
-        // load acl
-        final File conf_dir = FileSystems.getDefault().getPath("conf").toFile();
-        final File f = new File(conf_dir, "acl.json");
-        try {
-            final Reader reader = new InputStreamReader(new FileInputStream(f));
-            acl = new JSONObject(new JSONTokener(reader));
-            return acl;
-        } catch (IOException | JSONException e) {
-            Logger.error(e);
-            return new JSONObject();
-        }
+        return ACL.get().toJSON();
     }
 
     public Authorization(final JSONObject json) {
         this.json = json;
+        final JSONObject a = json.optJSONObject("authorization");
+        this.id = a == null ? null : a.optString("id", null);
+        this.session = a == null ? null : a.optString("session", null);
+    }
+
+    /**
+     * create an authorization from the ids of a session token; the json is created when it is requested
+     * @param id the user id
+     * @param session the session id
+     */
+    public Authorization(final String id, final String session) {
+        this.json = null;
+        this.id = id;
+        this.session = session;
     }
 
     public Authorization(final String id) throws IOException {
@@ -96,46 +92,55 @@ public class Authorization {
         authorization.put("session", session);
         authorization.put("id", id);
         this.json.put("authorization", authorization);
-        this.json.put("signature", hashgen(authorization));
-    }
-
-    private static String hashgen(final JSONObject json) {
-        return Long.toHexString(Math.abs(json.toString().hashCode()));
+        this.json.put("signature", SessionToken.signature(authorization.toString()));
+        this.id = id;
+        this.session = session;
     }
 
     public boolean isValid() {
-        final JSONObject authorization = this.json.optJSONObject("authorization");
+        final JSONObject authorization = getJSON().optJSONObject("authorization");
         if (authorization == null) return false;
-        final String signature = this.json.optString("signature");
+        final String signature = getJSON().optString("signature");
         if (signature == null) return false;
-        return signature.equals(hashgen(authorization));
+        return SessionToken.verifySignature(authorization.toString(), signature);
     }
 
     public String getUserID() throws RuntimeException {
-        try {
-            final JSONObject a = this.json.optJSONObject("authorization");
-            return a.getString("id");
-        } catch (final JSONException e) {
-            throw new RuntimeException(e.getMessage());
-        }
+        if (this.id == null) throw new RuntimeException("no id in authorization");
+        return this.id;
     }
 
     public String getSessionID() throws RuntimeException {
-        try {
-            final JSONObject a = this.json.optJSONObject("authorization");
-            return a.getString("session");
-        } catch (final JSONException e) {
-            throw new RuntimeException(e.getMessage());
-        }
+        if (this.session == null) throw new RuntimeException("no session in authorization");
+        return this.session;
+    }
+
+    /**
+     * get the value for the session cookie
+     * @param grade the grade of the user, at least L02_Authenticated is assigned
+     * @return a session token or the json of the authorization if the ids do not fit into a token
+     */
+    public String getCookie(final Grade grade) {
+        final String token = SessionToken.issue(getUserID(), getSessionID(), grade.level > Grade.L02_Authenticated.level ? grade : Grade.L02_Authenticated);
+        return token == null ? toString() : token;
     }
 
     public JSONObject getJSON() {
+        if (this.json == null) {
+            final JSONObject json = new JSONObject(true);
+            final JSONObject authorization = new JSONObject(true);
+            authorization.put("session", this.session);
+            authorization.put("id", this.id);
+            json.put("authorization", authorization);
+            json.put("signature", SessionToken.signature(authorization.toString()));
+            this.json = json;
+        }
         return this.json;
     }
 
     @Override
     public String toString() {
-        return this.json.toString(2);
+        return getJSON().toString(2);
     }
 
 }
@@ -20,59 +20,79 @@
 package eu.searchlab.aaaaa;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.json.JSONObject;
+
+import eu.searchlab.operation.FrequencyTask;
 import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.GenericIO;
 import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.storage.json.SegmentedLog;
 import eu.searchlab.storage.table.MinuteSeriesTable;
-import eu.searchlab.storage.table.TableParser;
 
-public class AuthorizationTS {
+/**
+ * Time series of logins. Logins are appended to a segmented log which is written by check();
+ * the latest cookie id for each user is kept in memory. The log is read completely once; after that, only
+ * the logins of the last RELOAD_OVERLAP milliseconds are read once a minute to see logins of other processes. Logins from the former login.csv table are still used for users
+ * without a login in the log.
+ */
+public class AuthorizationTS implements FrequencyTask {
 
     private final static String[] authorizationViewColNames = new String[] {"view.user_id"};
     private final static String[] authorizationMetaColNames = new String[] {"meta.cookie_id"};
     private final static String[] authorizationDataColNames = new String[] {};
+    private final static long RELOAD_INTERVAL = 60000;
+    private final static long RELOAD_OVERLAP = 600000; // logins of other processes are written with a delay of up to some minutes
 
     private final ConcurrentIO cio;
     private final IOPath aaaaaIop, authorizationIop, loginIop;
-    private MinuteSeriesTable loginTable;
-    private long loginTableLoadTime = 0;
+    private final SegmentedLog loginLog;
+    private MinuteSeriesTable loginTable; // the legacy table, null if it does not exist
+    private final Map<String, String> cookieIds; // user id -> latest cookie id
+    private long loginLogLoadTime = 0;
 
     public AuthorizationTS(final GenericIO io, final IOPath aaaaaIop) throws IOException {
         this.cio = new ConcurrentIO(io, 10000);
         this.aaaaaIop = aaaaaIop;
         this.authorizationIop = this.aaaaaIop.append("authorization");
         this.loginIop = this.authorizationIop.append("login.csv");
-        loadLoginTable();
+        this.loginLog = new SegmentedLog(io, this.authorizationIop.append("login"));
+        this.loginTable = null;
+        if (this.cio.exists(this.loginIop)) {
+            final MinuteSeriesTable table = new MinuteSeriesTable(this.cio, this.loginIop, authorizationViewColNames.length, authorizationMetaColNames.length, authorizationDataColNames.length, false);
+            if (table.viewCols.length == authorizationViewColNames.length &&
+                table.metaCols.length == authorizationMetaColNames.length &&
+                table.dataCols.length == authorizationDataColNames.length) this.loginTable = table;
+        }
+        this.cookieIds = new ConcurrentHashMap<>();
+        loadLoginLog();
     }
 
-    private void loadLoginTable() throws IOException {
-        if (this.cio.exists(this.loginIop)) {
-            final long lastModified = this.cio.getIO().lastModified(this.loginIop);
-            if (lastModified < this.loginTableLoadTime) return;
-            this.loginTable = new MinuteSeriesTable(this.cio, this.loginIop, authorizationViewColNames.length, authorizationMetaColNames.length, authorizationDataColNames.length, false);
-            if (this.loginTable.viewCols.length != authorizationViewColNames.length ||
-                    this.loginTable.metaCols.length != authorizationMetaColNames.length ||
-                    this.loginTable.dataCols.length != authorizationDataColNames.length) {
-                this.loginTable = new MinuteSeriesTable(authorizationViewColNames, authorizationMetaColNames, authorizationDataColNames, false);
-            }
-        } else {
-            this.loginTable = new MinuteSeriesTable(authorizationViewColNames, authorizationMetaColNames, authorizationDataColNames, false);
+    private synchronized void loadLoginLog() throws IOException {
+        final long now = System.currentTimeMillis();
+        if (now - this.loginLogLoadTime < RELOAD_INTERVAL) return;
+        // the logins are ordered by time, so the latest login of each user within the range is put last
+        final long from = this.loginLogLoadTime == 0 ? 0 : this.loginLogLoadTime - RELOAD_OVERLAP;
+        for (final JSONObject login: this.loginLog.read(from, Long.MAX_VALUE)) {
+            this.cookieIds.put(login.optString("user_id"), login.optString("cookie_id"));
         }
-        this.loginTableLoadTime = System.currentTimeMillis();
+        this.loginLogLoadTime = now;
     }
 
-    public void announceAuthorization(final String user_id, final String cookie_id) throws IOException {
-        loadLoginTable();
-        this.loginTable.addValues(System.currentTimeMillis(),
-                new String[] {user_id},
-                new String[] {cookie_id},
-                new long[] {});
-        TableParser.storeCSV(this.cio, this.loginIop, this.loginTable.table.table());
+    public void announceAuthorization(final String user_id, final String cookie_id) {
+        final JSONObject login = new JSONObject(true);
+        login.put("user_id", user_id);
+        login.put("cookie_id", cookie_id);
+        this.loginLog.append(login);
+        this.cookieIds.put(user_id, cookie_id);
     }
 
     public String getCookieId(final String user_id) throws IOException {
-        loadLoginTable();
+        loadLoginLog();
+        final String cookie_id = this.cookieIds.get(user_id);
+        if (cookie_id != null || this.loginTable == null) return cookie_id;
         final String[] meta = this.loginTable.getMetaWhere(new String[]{user_id});
         if (meta == null) return null;
         return meta[0];
@@ -84,4 +104,19 @@ public class AuthorizationTS {
         return stored_cookie_id.equals(cookie_id);
     }
 
+    /**
+     * write the logins of this process
+     */
+    @Override
+    public void check() {
+        this.loginLog.check();
+    }
+
+    /**
+     * write the logins of this process immediately, i.e. before shutdown
+     */
+    public void flush() {
+        this.loginLog.flush();
+    }
+
 }
@@ -54,21 +54,51 @@ import eu.searchlab.tools.Logger;
 
 public class Billing {
 
+    private final static RequestConfig requestConfig = RequestConfig.custom()
+            .setCookieSpec(CookieSpecs.STANDARD)
+            .setConnectTimeout(10000)
+            .setSocketTimeout(30000)
+            .build();
+
+    public final static BillingSnapshot snapshot = new BillingSnapshot(
+            System.getProperty("billing.github.url", "https://github.com"),
+            System.getProperty("billing.patreon.url", "https://www.patreon.com"),
+            Long.parseLong(System.getProperty("billing.sponsors.ttl", "3600000")),
+            Long.parseLong(System.getProperty("billing.campaign.ttl", "86400000")));
+
+    /**
+     * get the github sponsors of an account from the snapshot
+     * @param forAccount
+     * @return the lowercase nicknames of the sponsors
+     */
     public static Set<String> getGithubSponsorNicknames(String forAccount) {
+        return snapshot.getGithubSponsorNicknames(forAccount);
+    }
+
+    /**
+     * read the github sponsors of an account from github; this takes one request for each page of sponsors
+     * @param baseURL the github url
+     * @param forAccount the sponsored account
+     * @return the lowercase nicknames of the sponsors
+     * @throws IOException if the first page cannot be loaded
+     */
+    public static Set<String> fetchGithubSponsorNicknames(final String baseURL, final String forAccount) throws IOException {
         final Set<String> names = new HashSet<>();
-        //final HttpClient httpclient = HttpClients.createDefault();
-        final HttpClient httpclient = HttpClients.custom().setDefaultRequestConfig(RequestConfig.custom().setCookieSpec(CookieSpecs.STANDARD).build()).build();
+        final HttpClient httpclient = HttpClients.custom().setDefaultRequestConfig(requestConfig).build();
         collector: for (int i = 1; i < 1000; i++) {
             try {
                 final HttpUriRequest request = RequestBuilder.get()
-                        .setUri("https://github.com/sponsors/" + forAccount + "/sponsors_partial?page=" + i)
+                        .setUri(baseURL + "/sponsors/" + forAccount + "/sponsors_partial?page=" + i)
                         //.setHeader(HttpHeaders.ACCEPT, "application/vnd.github.v3+json")
                         .build();
                 final HttpResponse response = httpclient.execute(request);
                 final int statusCode = response.getStatusLine().getStatusCode();
-                if (statusCode != 200) break collector;
+                if (statusCode != 200) {
+                    if (i == 1) throw new IOException("status " + statusCode);
+                    break collector;
+                }
                 final HttpEntity entity = response.getEntity();
-                String t = new BufferedReader(new InputStreamReader(entity.getContent())).lines().collect(Collectors.joining("\n"));
+                String t = entity == null ? "" : new BufferedReader(new InputStreamReader(entity.getContent())).lines().collect(Collectors.joining("\n"));
                 t = t.trim();
                 if (t.length() == 0) break collector;
                 for (String s: t.split("\n")) {
@@ -82,35 +112,67 @@ public class Billing {
                     }
                 }
             } catch (final IOException e) {
+                if (i == 1) throw e;
                 break collector;
             }
         }
         return names;
     }
 
+    /**
+     * check if the snapshot has the sponsors of an account
+     * @param forAccount
+     * @return true if the sponsors were loaded; if false, isAGithubSponsor does not know if a user is a sponsor
+     */
+    public static boolean hasGithubSponsors(String forAccount) {
+        return snapshot.hasGithubSponsors(forAccount);
+    }
+
+    /**
+     * check if a github user is a sponsor of an account; this reads only the snapshot
+     * @param forAccount
+     * @param fromNick lowercase nickname
+     * @return true if the snapshot contains the sponsor
+     */
     public static boolean isAGithubSponsor(String forAccount, String fromNick) {
-        final Set<String> set = getGithubSponsorNicknames(forAccount);
-        return set.contains(fromNick);
+        return snapshot.isAGithubSponsor(forAccount, fromNick);
     }
 
+    /**
+     * get the patreon campaign from the snapshot
+     * @return the campaign
+     * @throws IOException if the campaign was not loaded yet
+     */
     public static PatreonCampaign getPatreonCampaign() throws IOException {
+        final PatreonCampaign pc = snapshot.getPatreonCampaign();
+        if (pc == null) throw new IOException("patreon campaign not loaded");
+        return pc;
+    }
+
+    /**
+     * read the patreon campaign from patreon
+     * @param baseURL the patreon url
+     * @return the campaign json
+     * @throws IOException
+     */
+    public static String fetchPatreonCampaign(final String baseURL) throws IOException {
     	// /api/oauth2/v2/campaigns
 
     	final String access_token = System.getProperty("patreon.access.token", "");
-    	final HttpClient httpclient = HttpClients.custom().setDefaultRequestConfig(RequestConfig.custom().setCookieSpec(CookieSpecs.STANDARD).build()).build();
-        
+    	final HttpClient httpclient = HttpClients.custom().setDefaultRequestConfig(requestConfig).build();
+
     	final HttpUriRequest request = RequestBuilder.get()
                 //.setUri("https://www.patreon.com/api/oauth2/api/current_user")
-                .setUri("https://www.patreon.com/api/oauth2/api/current_user/campaigns")
+                .setUri(baseURL + "/api/oauth2/api/current_user/campaigns")
                 .setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + access_token)
                 .build();
     	HttpResponse response = httpclient.execute(request);
+    	final int statusCode = response.getStatusLine().getStatusCode();
+    	if (statusCode != 200) throw new IOException("status " + statusCode);
     	HttpEntity entity = response.getEntity();
-        final String t = new BufferedReader(new InputStreamReader(entity.getContent())).lines().collect(Collectors.joining("\n"));
-        PatreonCampaign pc = new PatreonCampaign(t);
-        return pc;
+        return new BufferedReader(new InputStreamReader(entity.getContent())).lines().collect(Collectors.joining("\n"));
     }
-    
+
     public static class PatreonCampaign {
     	Map<String, PatreonReward> rewards;
     	String campaignId;
@@ -170,13 +232,13 @@ public class Billing {
 
     public static void main(String[] args) {
     	try {
-			getPatreonCampaign();
+			new PatreonCampaign(fetchPatreonCampaign("https://www.patreon.com"));
 		} catch (IOException e) {
 			Logger.warn(e);
 		}
     	/*
         Logger.info("reading github sponsors"); // real reason to print this out: initialize the logger
-        final Set<String> nicknames = getGithubSponsorNicknames("orbiter");
+        final Set<String> nicknames = fetchGithubSponsorNicknames("https://github.com", "orbiter");
         System.out.println(nicknames);
         */
         System.exit(0);
@@ -0,0 +1,338 @@
+/**
+ *  BillingSnapshot
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.aaaaa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpServer;
+
+import eu.searchlab.aaaaa.Billing.PatreonCampaign;
+import eu.searchlab.operation.FrequencyTask;
+import eu.searchlab.storage.io.FileIO;
+import eu.searchlab.storage.io.GenericIO;
+import eu.searchlab.storage.io.IOObject;
+import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.tools.Logger;
+
+/**
+ * In-memory snapshot of the github sponsors and the patreon campaign.
+ * Reading the sponsors from github takes one request for each page of sponsors, which must not happen during
+ * a login. The snapshot is refreshed by check() when its time-to-live is over, and lookups only read the
+ * snapshot. An account which is not in the snapshot yet or a sponsor which is not found in an older snapshot
+ * cause a refresh with the next check. The snapshot is written with GenericIO after each refresh and loaded
+ * on start, so that a restart does not start with an empty sponsor list.
+ */
+public class BillingSnapshot implements FrequencyTask {
+
+    private final static long RETRY_DELAY = 60000; // time after a failed refresh until the next attempt
+    private final static long MIN_AGE = 300000;    // minimum age of a snapshot before an unknown sponsor causes a refresh
+
+    private final static class Sponsors {
+        private final Set<String> names;
+        private final long loaded;
+        private Sponsors(final Set<String> names, final long loaded) {
+            this.names = names;
+            this.loaded = loaded;
+        }
+    }
+
+    private final String githubURL, patreonURL;
+    private final long sponsorsTTL, campaignTTL;
+    private final Map<String, Sponsors> sponsors; // sponsors by sponsored github account
+    private final Set<String> refreshRequests;    // accounts which shall be refreshed with the next check
+    private volatile PatreonCampaign campaign;
+    private volatile String campaignJSON;
+    private volatile long campaignLoaded;
+    private volatile long nextAttempt;
+    private final AtomicBoolean running;
+    private GenericIO io;
+    private IOPath iop;
+
+    /**
+     * @param githubURL the base url of github, i.e. https://github.com
+     * @param patreonURL the base url of patreon, i.e. https://www.patreon.com
+     * @param sponsorsTTL the time in milliseconds after which the sponsor lists are refreshed
+     * @param campaignTTL the time in milliseconds after which the patreon campaign is refreshed
+     */
+    public BillingSnapshot(final String githubURL, final String patreonURL, final long sponsorsTTL, final long campaignTTL) {
+        this.githubURL = githubURL;
+        this.patreonURL = patreonURL;
+        this.sponsorsTTL = sponsorsTTL;
+        this.campaignTTL = campaignTTL;
+        this.sponsors = new ConcurrentHashMap<>();
+        this.refreshRequests = ConcurrentHashMap.newKeySet();
+        this.campaign = null;
+        this.campaignJSON = null;
+        this.campaignLoaded = 0;
+        this.nextAttempt = 0;
+        this.running = new AtomicBoolean(false);
+        this.io = null;
+        this.iop = null;
+    }
+
+    /**
+     * check if the snapshot has the sponsors of an account. If not, the account is refreshed with the next check.
+     * @param forAccount the sponsored account
+     * @return true if the sponsors of the account were loaded; false means that nothing is known about the sponsors yet
+     */
+    public boolean hasGithubSponsors(final String forAccount) {
+        if (this.sponsors.containsKey(forAccount)) return true;
+        this.refreshRequests.add(forAccount);
+        return false;
+    }
+
+    /**
+     * check if a github user is a sponsor of an account, using the snapshot only
+     * @param forAccount the sponsored account
+     * @param fromNick the nickname of the sponsor, lowercase
+     * @return true if the sponsor is in the snapshot; also false if the account was not loaded yet, see hasGithubSponsors
+     */
+    public boolean isAGithubSponsor(final String forAccount, final String fromNick) {
+        final Sponsors s = this.sponsors.get(forAccount);
+        if (s == null) {
+            this.refreshRequests.add(forAccount);
+            return false;
+        }
+        if (s.names.contains(fromNick)) return true;
+        if (System.currentTimeMillis() - s.loaded > MIN_AGE) this.refreshRequests.add(forAccount); // may be a new sponsor
+        return false;
+    }
+
+    /**
+     * @param forAccount the sponsored account
+     * @return the sponsor nicknames in the snapshot; this must not be modified
+     */
+    public Set<String> getGithubSponsorNicknames(final String forAccount) {
+        final Sponsors s = this.sponsors.get(forAccount);
+        if (s == null) {
+            this.refreshRequests.add(forAccount);
+            return Collections.emptySet();
+        }
+        return s.names;
+    }
+
+    /**
+     * @return the patreon campaign from the snapshot or null if it was not loaded yet
+     */
+    public PatreonCampaign getPatreonCampaign() {
+        return this.campaign;
+    }
+
+    /**
+     * register an account which shall be kept in the snapshot
+     * @param forAccount
+     */
+    public void addGithubAccount(final String forAccount) {
+        if (!this.sponsors.containsKey(forAccount)) this.refreshRequests.add(forAccount);
+    }
+
+    /**
+     * attach a snapshot location and load the snapshot from there
+     * @param io
+     * @param iop
+     */
+    public void attach(final GenericIO io, final IOPath iop) {
+        this.io = io;
+        this.iop = iop;
+        if (!this.io.exists(this.iop)) return;
+        try {
+            final JSONObject json = IOObject.readJSONObject(this.io.readAll(this.iop).get());
+            final JSONObject github = json.optJSONObject("github");
+            if (github != null) for (final String account: github.keySet()) {
+                final JSONObject a = github.optJSONObject(account);
+                final JSONArray names = a == null ? null : a.optJSONArray("sponsors");
+                if (names == null) continue;
+                final Set<String> set = new HashSet<>();
+                for (int i = 0; i < names.length(); i++) set.add(names.optString(i));
+                this.sponsors.put(account, new Sponsors(Collections.unmodifiableSet(set), a.optLong("loaded", 0)));
+                this.refreshRequests.remove(account);
+            }
+            final JSONObject patreon = json.optJSONObject("patreon");
+            if (patreon != null && patreon.optString("campaign", "").length() > 0) {
+                this.campaignJSON = patreon.optString("campaign");
+                this.campaign = new PatreonCampaign(this.campaignJSON);
+                this.campaignLoaded = patreon.optLong("loaded", 0);
+            }
+            Logger.info("loaded billing snapshot with " + this.sponsors.size() + " github accounts from " + this.iop.toString());
+        } catch (final IOException | InterruptedException | ExecutionException e) {
+            Logger.warn("cannot load billing snapshot from " + this.iop.toString(), e);
+        }
+    }
+
+    /**
+     * refresh outdated or requested parts of the snapshot and write the snapshot if it was changed.
+     * Only one refresh runs at a time; if the remote services fail, the old snapshot is kept.
+     */
+    @Override
+    public void check() {
+        final long now = System.currentTimeMillis();
+        if (now < this.nextAttempt) return;
+        if (!this.running.compareAndSet(false, true)) return;
+        try {
+            boolean changed = false, failed = false;
+            final Set<String> accounts = new HashSet<>(this.refreshRequests);
+            this.sponsors.forEach((account, s) -> {if (now - s.loaded > this.sponsorsTTL) accounts.add(account);});
+            for (final String account: accounts) {
+                this.refreshRequests.remove(account);
+                try {
+                    final Set<String> names = Billing.fetchGithubSponsorNicknames(this.githubURL, account);
+                    this.sponsors.put(account, new Sponsors(Collections.unmodifiableSet(names), System.currentTimeMillis()));
+                    changed = true;
+                } catch (final IOException e) {
+                    Logger.warn("cannot refresh github sponsors of " + account + ": " + e.getMessage());
+                    failed = true;
+                }
+            }
+            if (now - this.campaignLoaded > this.campaignTTL && System.getProperty("patreon.access.token", "").length() > 0) {
+                try {
+                    final String json = Billing.fetchPatreonCampaign(this.patreonURL);
+                    this.campaign = new PatreonCampaign(json);
+                    this.campaignJSON = json;
+                    this.campaignLoaded = System.currentTimeMillis();
+                    changed = true;
+                } catch (final IOException e) {
+                    Logger.warn("cannot refresh patreon campaign: " + e.getMessage());
+                    failed = true;
+                }
+            }
+            if (failed) this.nextAttempt = System.currentTimeMillis() + RETRY_DELAY;
+            if (changed) write();
+        } finally {
+            this.running.set(false);
+        }
+    }
+
+    private void write() {
+        if (this.io == null) return;
+        final JSONObject json = new JSONObject(true);
+        final JSONObject github = new JSONObject(true);
+        this.sponsors.forEach((account, s) -> {
+            final JSONObject a = new JSONObject(true);
+            a.put("loaded", s.loaded);
+            a.put("sponsors", new JSONArray(s.names));
+            github.put(account, a);
+        });
+        json.put("github", github);
+        if (this.campaignJSON != null) {
+            final JSONObject patreon = new JSONObject(true);
+            patreon.put("loaded", this.campaignLoaded);
+            patreon.put("campaign", this.campaignJSON);
+            json.put("patreon", patreon);
+        }
+        try {
+            this.io.write(this.iop, json.toString(2).getBytes(StandardCharsets.UTF_8));
+        } catch (final IOException e) {
+            Logger.warn("cannot write billing snapshot to " + this.iop.toString(), e);
+        }
+    }
+
+    /**
+     * Test with a local stub server in place of github and patreon.
+     * The stub answers slowly; lookups must not wait for it. After a refresh the sponsors must be found, and a
+     * second snapshot which is attached to the same file must know the sponsors before any refresh.
+     */
+    public static void main(final String[] args) {
+        HttpServer server = null;
+        try {
+            final AtomicInteger requests = new AtomicInteger(0);
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/sponsors/orbiter/sponsors_partial", exchange -> {
+                requests.incrementAndGet();
+                try {Thread.sleep(200);} catch (final InterruptedException e) {}
+                final String query = exchange.getRequestURI().getQuery();
+                final int page = Integer.parseInt(query.substring(query.indexOf("page=") + 5));
+                final StringBuilder sb = new StringBuilder();
+                if (page <= 3) for (int i = 0; i < 10; i++) sb.append("<img alt=\"@Sponsor").append(page * 10 + i).append("\" src=\"x\">\n");
+                final byte[] b = sb.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, b.length == 0 ? -1 : b.length);
+                try (OutputStream os = exchange.getResponseBody()) {os.write(b);}
+            });
+            server.createContext("/api/oauth2/api/current_user/campaigns", exchange -> {
+                requests.incrementAndGet();
+                final String json = "{\"data\":[{\"relationships\":{\"rewards\":{\"data\":[{\"id\":\"4022322\"}]}}}]," +
+                        "\"included\":[{\"type\":\"reward\",\"id\":\"4022322\",\"attributes\":{\"amount_cents\":100,\"title\":\"One\"}}]}";
+                final byte[] b = json.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, b.length);
+                try (OutputStream os = exchange.getResponseBody()) {os.write(b);}
+            });
+            server.start();
+            final String url = "http://127.0.0.1:" + server.getAddress().getPort();
+            System.setProperty("patreon.access.token", "test");
+
+            final File dir = Files.createTempDirectory("billing").toFile();
+            final FileIO io = new FileIO(dir);
+            io.makeBucket("test");
+            final IOPath iop = new IOPath("test", "billing.json");
+            final BillingSnapshot snapshot = new BillingSnapshot(url, url, 3600000, 86400000);
+            snapshot.attach(io, iop);
+
+            long start = System.nanoTime();
+            final boolean before = snapshot.isAGithubSponsor("orbiter", "sponsor15");
+            System.out.println("lookup before refresh: " + before + ", loaded " + snapshot.hasGithubSponsors("orbiter") + " in " + ((System.nanoTime() - start) / 1000) + " us, " + requests.get() + " remote requests");
+
+            start = System.nanoTime();
+            snapshot.check();
+            System.out.println("refresh: " + ((System.nanoTime() - start) / 1000000) + " ms, " + requests.get() + " remote requests, " +
+                    snapshot.getGithubSponsorNicknames("orbiter").size() + " sponsors, loaded " + snapshot.hasGithubSponsors("orbiter") + ", campaign rewards: " + snapshot.getPatreonCampaign().rewards.keySet());
+
+            start = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < 1000000; i++) if (snapshot.isAGithubSponsor("orbiter", "sponsor" + (10 + i % 30))) found++;
+            System.out.println("1000000 lookups after refresh: " + found + " found, " + ((System.nanoTime() - start) / 1000000) + " ms");
+
+            final int r = requests.get();
+            snapshot.check();
+            System.out.println("check within ttl: " + (requests.get() - r) + " remote requests");
+
+            final BillingSnapshot restarted = new BillingSnapshot(url, url, 3600000, 86400000);
+            restarted.attach(io, iop);
+            System.out.println("after restart: sponsor15 " + restarted.isAGithubSponsor("orbiter", "sponsor15") +
+                    ", campaign " + (restarted.getPatreonCampaign() != null) + ", " + (requests.get() - r) + " remote requests");
+
+            server.stop(0);
+            server = null;
+            final BillingSnapshot offline = new BillingSnapshot(url, url, 0, 0);
+            offline.attach(io, iop);
+            offline.check();
+            System.out.println("remote down: sponsor15 " + offline.isAGithubSponsor("orbiter", "sponsor15") + " from the old snapshot");
+        } catch (final IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (server != null) server.stop(0);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ *  SessionCache
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.aaaaa;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import eu.searchlab.tools.ConcurrentARC;
+
+/**
+ * Cache for decoded authorizations, keyed by session id.
+ * The authorization tray is guarded by one mutex and loads the tray from the backend for every unknown
+ * session id. This cache answers a session check with one hash lookup. Unknown session ids are also cached
+ * for a short time, so that requests with forged or outdated cookies do not cause a reload of the tray.
+ * Logins and logouts in this process update the cache immediately; logouts in other processes become
+ * visible once the entry expires.
+ */
+public class SessionCache {
+
+    private final static class Entry {
+        private final Authorization authorization; // null if the session does not exist
+        private final long expires;
+        private Entry(final Authorization authorization, final long expires) {
+            this.authorization = authorization;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * marker for a session id which is not in the authorization tray
+     */
+    public final static Authorization UNKNOWN = new Authorization(new JSONObject());
+
+    private final ConcurrentARC<String, Entry> cache;
+    private final long lifetime, negativeLifetime;
+    private final AtomicLong hits, misses;
+
+    /**
+     * @param size the maximum number of cached sessions
+     * @param lifetime the time in milliseconds how long a session is trusted without a check of the tray
+     * @param negativeLifetime the time in milliseconds how long an unknown session id is remembered
+     */
+    public SessionCache(final int size, final long lifetime, final long negativeLifetime) {
+        this.cache = new ConcurrentARC<>(size, Math.max(1, Runtime.getRuntime().availableProcessors()));
+        this.lifetime = lifetime;
+        this.negativeLifetime = negativeLifetime;
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+    }
+
+    /**
+     * get a cached authorization
+     * @param sessionID
+     * @return the authorization, UNKNOWN if the session is known not to exist or null if the session is not cached
+     */
+    public Authorization get(final String sessionID) {
+        final Entry entry = this.cache.get(sessionID);
+        if (entry == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        if (System.currentTimeMillis() > entry.expires) {
+            this.cache.remove(sessionID);
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        return entry.authorization == null ? UNKNOWN : entry.authorization;
+    }
+
+    /**
+     * put an authorization into the cache, i.e. after a login
+     * @param sessionID
+     * @param authorization the authorization or null to remember that the session does not exist
+     */
+    public void put(final String sessionID, final Authorization authorization) {
+        final long now = System.currentTimeMillis();
+        this.cache.put(sessionID, new Entry(authorization, now + (authorization == null ? this.negativeLifetime : this.lifetime)));
+    }
+
+    /**
+     * put an authorization which was read from the tray. An existing entry is not replaced, because a logout or
+     * a login in this process may have changed the session after the tray was read; a logout must not be undone.
+     * @param sessionID
+     * @param authorization the authorization or null if the session does not exist in the tray
+     * @return the cached authorization, UNKNOWN if the session does not exist
+     */
+    public Authorization putLoaded(final String sessionID, final Authorization authorization) {
+        final long now = System.currentTimeMillis();
+        final Entry entry = new Entry(authorization, now + (authorization == null ? this.negativeLifetime : this.lifetime));
+        final Entry old = this.cache.putIfAbsent(sessionID, entry);
+        if (old != null && now <= old.expires) return old.authorization == null ? UNKNOWN : old.authorization;
+        if (old != null) this.cache.put(sessionID, entry); // the old entry expired
+        return authorization == null ? UNKNOWN : authorization;
+    }
+
+    /**
+     * invalidate a session, i.e. after a logout. The session is remembered as unknown for the session
+     * lifetime because the cookie of a logged out session may still be sent by other browser tabs.
+     * @param sessionID
+     */
+    public void invalidate(final String sessionID) {
+        this.cache.put(sessionID, new Entry(null, System.currentTimeMillis() + this.lifetime));
+    }
+
+    public void clear() {
+        this.cache.clear();
+    }
+
+    public int size() {
+        return this.cache.size();
+    }
+
+    public double hitRatio() {
+        final long h = this.hits.get(), m = this.misses.get();
+        return h + m == 0 ? 0.0d : ((double) h) / ((double) (h + m));
+    }
+
+    public JSONObject toJSON() {
+        final JSONObject json = new JSONObject(true);
+        json.put("size", this.cache.size());
+        json.put("hits", this.hits.get());
+        json.put("misses", this.misses.get());
+        json.put("hitratio", Math.round(this.hitRatio() * 10000.0d) / 10000.0d);
+        return json;
+    }
+}
@@ -0,0 +1,387 @@
+/**
+ *  SessionToken
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.aaaaa;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import eu.searchlab.aaaaa.Authorization.Grade;
+import eu.searchlab.tools.Logger;
+
+/**
+ * Compact session token for the authorization cookie.
+ * The token is the base64url encoding of a fixed binary layout:
+ * <pre>
+ *  0      version
+ *  1      key id
+ *  2      grade ordinal
+ *  3..6   expiry time, unsigned seconds since the epoch
+ *  7..15  user id, ASCII
+ *  16..33 session id, ASCII
+ *  34     reserved
+ *  35..50 the first 16 bytes of HMAC-SHA256(key, bytes 0..34)
+ * </pre>
+ * A token with a valid signature which is not expired is trusted without a lookup of the session in the user
+ * database, including the grade. Expired tokens and tokens which are signed with an unknown key are not trusted,
+ * but their session can be checked in the user database as it is done for the JSON cookies, and then a new token
+ * is issued. Therefore the token lifetime limits the time until a changed grade is applied.
+ *
+ * The keys are configured in session.token.keys as a comma-separated list of id:base64-secret pairs.
+ * The first key signs new tokens, all keys are accepted. To rotate, put a new key in front and remove the old
+ * key after one token lifetime. If no key is configured, a random key is generated; tokens are then re-issued
+ * after a restart.
+ */
+public final class SessionToken {
+
+    private final static byte VERSION = 1;
+    private final static int ID_LENGTH = 9, SESSION_LENGTH = 18;
+    private final static int ID_OFFSET = 7, SESSION_OFFSET = ID_OFFSET + ID_LENGTH;
+    private final static int PAYLOAD_LENGTH = SESSION_OFFSET + SESSION_LENGTH + 1;
+    private final static int TAG_LENGTH = 16;
+    private final static int TOKEN_LENGTH = PAYLOAD_LENGTH + TAG_LENGTH;
+    private final static String ALGORITHM = "HmacSHA256";
+
+    public final static long LIFETIME = Long.parseLong(System.getProperty("session.token.lifetime", "600000"));
+
+    private final static class Keys {
+        private final byte[] ids;
+        private final SecretKeySpec[] specs;
+        private Keys(final byte[] ids, final SecretKeySpec[] specs) {
+            this.ids = ids;
+            this.specs = specs;
+        }
+        private int indexOf(final byte id) {
+            for (int i = 0; i < this.ids.length; i++) if (this.ids[i] == id) return i;
+            return -1;
+        }
+    }
+
+    /**
+     * the Mac instances of one thread, one for each key; they are created again if the keys are changed
+     */
+    private final static class Macs {
+        private final Keys keys;
+        private final Mac[] macs;
+        private final byte[] tag;
+        private Macs(final Keys keys) {
+            this.keys = keys;
+            this.macs = new Mac[keys.specs.length];
+            this.tag = new byte[32];
+        }
+        private Mac get(final int i) throws GeneralSecurityException {
+            if (this.macs[i] == null) {
+                final Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(this.keys.specs[i]);
+                this.macs[i] = mac;
+            }
+            return this.macs[i];
+        }
+    }
+
+    private static volatile Keys keys = parseKeys(System.getProperty("session.token.keys", ""));
+    private final static ThreadLocal<Macs> macs = new ThreadLocal<>();
+
+    public final String id, session;
+    public final Grade grade;
+    public final long expires;
+    private final boolean signed; // the signature is valid and the key is the current signing key
+    private final boolean known;  // the signature is valid
+
+    private SessionToken(final String id, final String session, final Grade grade, final long expires, final boolean known, final boolean signed) {
+        this.id = id;
+        this.session = session;
+        this.grade = grade;
+        this.expires = expires;
+        this.known = known;
+        this.signed = signed;
+    }
+
+    private static Keys parseKeys(final String config) {
+        final Map<Byte, SecretKeySpec> specs = new HashMap<>();
+        final StringBuilder order = new StringBuilder();
+        for (final String s: config.split(",")) {
+            final String k = s.trim();
+            if (k.length() == 0) continue;
+            final int p = k.indexOf(':');
+            try {
+                final byte id = (byte) Integer.parseInt(k.substring(0, p));
+                final byte[] secret = Base64.getDecoder().decode(k.substring(p + 1));
+                if (secret.length < 16) throw new IllegalArgumentException("secret too short");
+                if (specs.put(id, new SecretKeySpec(secret, ALGORITHM)) == null) order.append((char) (id & 0xff));
+            } catch (final RuntimeException e) {
+                Logger.warn("ignoring bad session token key " + k.substring(0, Math.max(0, p)) + ": " + e.getMessage());
+            }
+        }
+        if (specs.isEmpty()) {
+            Logger.warn("no session.token.keys configured; using a random key, sessions are checked in the user database after a restart");
+            final byte[] secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+            specs.put((byte) 0, new SecretKeySpec(secret, ALGORITHM));
+            order.append((char) 0);
+        }
+        final byte[] ids = new byte[order.length()];
+        final SecretKeySpec[] s = new SecretKeySpec[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (byte) order.charAt(i);
+            s[i] = specs.get(ids[i]);
+        }
+        return new Keys(ids, s);
+    }
+
+    /**
+     * replace the signing keys
+     * @param config a comma-separated list of id:base64-secret pairs, the first key is used for signing
+     */
+    public static void setKeys(final String config) {
+        keys = parseKeys(config);
+    }
+
+    private static Macs macs() {
+        final Keys k = keys;
+        Macs m = macs.get();
+        if (m == null || m.keys != k) {
+            m = new Macs(k);
+            macs.set(m);
+        }
+        return m;
+    }
+
+    /**
+     * compute the signature of the payload into m.tag
+     */
+    private static void sign(final Macs m, final int key, final byte[] token) throws GeneralSecurityException {
+        final Mac mac = m.get(key);
+        mac.update(token, 0, PAYLOAD_LENGTH);
+        mac.doFinal(m.tag, 0);
+    }
+
+    /**
+     * create a token
+     * @param id the user id
+     * @param session the session id
+     * @param grade the grade of the user
+     * @return the token or null if the ids do not fit into the token
+     */
+    public static String issue(final String id, final String session, final Grade grade) {
+        final byte[] bid = id.getBytes(StandardCharsets.US_ASCII);
+        final byte[] bsession = session.getBytes(StandardCharsets.US_ASCII);
+        if (bid.length > ID_LENGTH || bsession.length > SESSION_LENGTH) return null;
+        final byte[] token = new byte[TOKEN_LENGTH];
+        final Macs m = macs();
+        final long expires = (System.currentTimeMillis() + LIFETIME) / 1000;
+        token[0] = VERSION;
+        token[1] = m.keys.ids[0];
+        token[2] = (byte) grade.ordinal();
+        token[3] = (byte) (expires >>> 24);
+        token[4] = (byte) (expires >>> 16);
+        token[5] = (byte) (expires >>> 8);
+        token[6] = (byte) expires;
+        System.arraycopy(bid, 0, token, ID_OFFSET, bid.length);
+        System.arraycopy(bsession, 0, token, SESSION_OFFSET, bsession.length);
+        try {
+            sign(m, 0, token);
+        } catch (final GeneralSecurityException e) {
+            Logger.error(e);
+            return null;
+        }
+        System.arraycopy(m.tag, 0, token, PAYLOAD_LENGTH, TAG_LENGTH);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
+    /**
+     * sign a string with the current key
+     * @param s
+     * @return the key id and the hex encoded HMAC-SHA256 of the string, separated by a colon
+     */
+    public static String signature(final String s) {
+        final Macs m = macs();
+        try {
+            final byte[] tag = m.get(0).doFinal(s.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder(68);
+            sb.append(m.keys.ids[0] & 0xff).append(':');
+            for (final byte b: tag) sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return sb.toString();
+        } catch (final GeneralSecurityException e) {
+            Logger.error(e);
+            return "";
+        }
+    }
+
+    /**
+     * verify a signature which was created with signature(s)
+     * @param s the signed string
+     * @param signature the signature
+     * @return true if the signature was created with one of the configured keys
+     */
+    public static boolean verifySignature(final String s, final String signature) {
+        final int p = signature.indexOf(':');
+        if (p <= 0) return false;
+        final Macs m = macs();
+        try {
+            final int key = m.keys.indexOf((byte) Integer.parseInt(signature.substring(0, p)));
+            if (key < 0) return false;
+            final byte[] tag = m.get(key).doFinal(s.getBytes(StandardCharsets.UTF_8));
+            if (signature.length() != p + 1 + 2 * tag.length) return false;
+            int diff = 0;
+            for (int i = 0; i < tag.length; i++) diff |= (tag[i] & 0xff) ^ Integer.parseInt(signature.substring(p + 1 + 2 * i, p + 3 + 2 * i), 16);
+            return diff == 0;
+        } catch (final NumberFormatException | GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * decode a token
+     * @param s the token string
+     * @return the token or null if the string is not a token; the token must be checked with isTrusted()
+     */
+    public static SessionToken decode(final String s) {
+        if (s.length() != (TOKEN_LENGTH * 4 + 2) / 3) return null;
+        final byte[] token;
+        try {
+            token = Base64.getUrlDecoder().decode(s);
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+        if (token.length != TOKEN_LENGTH || token[0] != VERSION) return null;
+        final Grade[] grades = Grade.values();
+        final int g = token[2] & 0xff;
+        if (g >= grades.length) return null;
+        final long expires = ((token[3] & 0xffL) << 24 | (token[4] & 0xffL) << 16 | (token[5] & 0xffL) << 8 | (token[6] & 0xffL)) * 1000;
+        final String id = ascii(token, ID_OFFSET, ID_LENGTH);
+        final String session = ascii(token, SESSION_OFFSET, SESSION_LENGTH);
+        if (id == null || session == null) return null;
+
+        // verify the signature; the comparison takes the same time for all tags
+        final Macs m = macs();
+        final int key = m.keys.indexOf(token[1]);
+        boolean known = false;
+        if (key >= 0) try {
+            sign(m, key, token);
+            int diff = 0;
+            for (int i = 0; i < TAG_LENGTH; i++) diff |= m.tag[i] ^ token[PAYLOAD_LENGTH + i];
+            known = diff == 0;
+        } catch (final GeneralSecurityException e) {
+            Logger.error(e);
+        }
+        return new SessionToken(id, session, grades[g], expires, known, known && key == 0);
+    }
+
+    private static String ascii(final byte[] b, final int offset, final int length) {
+        int end = offset;
+        while (end < offset + length && b[end] != 0) end++;
+        if (end == offset) return null;
+        for (int i = offset; i < end; i++) if (b[i] < '0' || b[i] > 'z') return null;
+        return new String(b, offset, end - offset, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return true if the signature is valid and the token is not expired; then the token can be used without a check of the session
+     */
+    public boolean isTrusted() {
+        return this.known && System.currentTimeMillis() < this.expires;
+    }
+
+    /**
+     * @return true if the token should be replaced by a new one because it is not trusted or was signed with an old key
+     */
+    public boolean isRenewable() {
+        return !this.signed || System.currentTimeMillis() >= this.expires;
+    }
+
+    /**
+     * Benchmark of the authorization cost per request.
+     * The JSON cookie path parses the cookie and looks up the session in a map, which is what a request costs
+     * when the session is in the session cache; on a cache miss the user database is loaded in addition.
+     * The token path decodes and verifies a session token. Also checks that forged and rotated tokens are detected.
+     * Usage: SessionToken [iterations]
+     */
+    public static void main(final String[] args) {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final String id = "123456789";
+        final String session = "987654321123456789";
+        final Map<String, Authorization> store = new ConcurrentHashMap<>();
+        final JSONObject cookieJSON = new JSONObject(true);
+        final JSONObject a = new JSONObject(true);
+        a.put("session", session);
+        a.put("id", id);
+        cookieJSON.put("authorization", a);
+        cookieJSON.put("signature", "1234abcd");
+        store.put(session, new Authorization(cookieJSON));
+        final String cookie = cookieJSON.toString(2);
+        final String token = issue(id, session, Grade.L03_Level_One);
+        System.out.println("json cookie " + cookie.length() + " chars, token " + token.length() + " chars: " + token);
+
+        // correctness
+        final SessionToken t = decode(token);
+        System.out.println("decoded: id=" + t.id + ", session=" + t.session + ", grade=" + t.grade + ", trusted=" + t.isTrusted() + ", renewable=" + t.isRenewable());
+        final char[] forged = token.toCharArray();
+        forged[12] = forged[12] == 'A' ? 'B' : 'A';
+        final SessionToken f = decode(new String(forged));
+        System.out.println("forged token trusted: " + (f != null && f.isTrusted()));
+        final SecureRandom random = new SecureRandom();
+        final byte[] oldSecret = new byte[32], newSecret = new byte[32];
+        random.nextBytes(oldSecret);
+        random.nextBytes(newSecret);
+        final String oldKey = "1:" + Base64.getEncoder().encodeToString(oldSecret);
+        final String newKey = "7:" + Base64.getEncoder().encodeToString(newSecret);
+        setKeys(oldKey);
+        final String before = issue(id, session, Grade.L03_Level_One);
+        setKeys(newKey + "," + oldKey);
+        final SessionToken rotated = decode(before);
+        System.out.println("token of the old key after rotation: trusted=" + rotated.isTrusted() + ", renewable=" + rotated.isRenewable());
+        setKeys(newKey);
+        System.out.println("token of a removed key trusted: " + decode(before).isTrusted());
+
+        // benchmark
+        final String current = issue(id, session, Grade.L03_Level_One);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int ok = 0;
+            for (int i = 0; i < iterations; i++) {
+                try {
+                    final Authorization authorization = new Authorization(new JSONObject(new JSONTokener(cookie)));
+                    final Authorization stored = store.get(authorization.getSessionID());
+                    if (stored != null && authorization.getUserID().equals(stored.getUserID())) ok++;
+                } catch (final JSONException e) {}
+            }
+            final long jsonTime = (System.nanoTime() - start) / iterations;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                final SessionToken s = decode(current);
+                if (s != null && s.isTrusted()) ok++;
+            }
+            final long tokenTime = (System.nanoTime() - start) / iterations;
+            System.out.println("round " + round + ": json cookie " + jsonTime + " ns, session token " + tokenTime + " ns per request (" + ok + ")");
+        }
+    }
+}
@@ -28,7 +28,9 @@ import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.GenericIO;
 import eu.searchlab.storage.io.IOPath;
 import eu.searchlab.storage.json.ImmutableTray;
+import eu.searchlab.storage.json.IndexedTray;
 import eu.searchlab.storage.json.PersistentTray;
+import eu.searchlab.storage.json.SegmentedLog;
 import eu.searchlab.storage.json.Tray;
 import eu.searchlab.tools.Logger;
 import io.findify.s3mock.S3Mock;
@@ -38,13 +40,16 @@ public class UserDB {
     private final static String AUTHENTICATION_PATH = "authn.json"; // who is the user & identification
     private final static String AUTHORIZATION_PATH  = "authr.json"; // what is the user allowed to do
     private final static String ACCOUNTING_PATH     = "acctg.json"; // what has the user done / statistics
-    private final static String AUDIT_PATH          = "audit.json"; // what has the user done / timeline
+    private final static String AUDIT_PATH          = "audit";      // what has the user done / timeline, a segmented log
     private final static String ASSIGNMENT_PATH     = "asgmt.json"; // what is due to be done (technical)
 
     private final GenericIO aaaIO, assignmentIO;
     private final ConcurrentIO aaaCIO, assignmentCIO;
     private final IOPath authnPath, authrPath, acctgPath, asgmtPath, auditPath;
-    private final Tray authnDB, authrDB, acctgDB, asgmtDB, auditDB;
+    private final IndexedTray authnDB;
+    private final Tray authrDB, acctgDB, asgmtDB;
+    private final SegmentedLog auditLog;
+    private final SessionCache sessionCache;
 
 
     public UserDB(final GenericIO aaaIO, final GenericIO assignmentIO, final IOPath basePath) {
@@ -57,11 +62,15 @@ public class UserDB {
         this.acctgPath = basePath.append(ACCOUNTING_PATH);
         this.auditPath = basePath.append(AUDIT_PATH);
         this.asgmtPath = basePath.append(ASSIGNMENT_PATH);
-        this.authnDB = new PersistentTray(this.aaaCIO, this.authnPath);
+        this.authnDB = new IndexedTray(this.aaaCIO, this.authnPath, "email", "id_github", "id_patreon", "id_twitter");
         this.authrDB = new ImmutableTray(this.aaaCIO, this.authrPath);
         this.acctgDB = new PersistentTray(this.aaaCIO, this.acctgPath);
-        this.auditDB = new PersistentTray(this.aaaCIO, this.auditPath);
+        this.auditLog = new SegmentedLog(this.aaaIO, this.auditPath);
         this.asgmtDB = new PersistentTray(this.assignmentCIO, this.asgmtPath);
+        this.sessionCache = new SessionCache(
+                Integer.parseInt(System.getProperty("session.cache.size", "10000")),
+                Long.parseLong(System.getProperty("session.cache.lifetime", "3600000")),
+                Long.parseLong(System.getProperty("session.cache.unknown", "10000")));
     }
 
     public GenericIO getAuthenticationIO() {
@@ -133,40 +142,92 @@ public class UserDB {
      */
     public Authentication getAuthentiationByEmail(final String email) throws IOException {
         try {
-            for (final String id: this.authnDB.keys()) {
-                final Authentication a = new Authentication(this.authnDB.getObject(id));
-                if (a.getEmail().equals(email)) {
-                    return a;
-                }
-            }
+            final JSONObject json = this.authnDB.getObject("email", email);
+            return json == null ? null : new Authentication(json);
+        } catch (final JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * get the authentication object by the user id of an authentication provider.
+     * Only ids which the provider never changes are used here, not the login names which can be renamed
+     * and then taken by another user.
+     * @param provider the provider name, one of github, patreon or twitter
+     * @param id the numeric user id at the provider
+     * @return the authentication object if one exist or NULL otherwise
+     * @throws IOException
+     */
+    public Authentication getAuthentiationByProviderID(final String provider, final String id) throws IOException {
+        if (id == null || id.length() == 0 || "null".equals(id)) return null;
+        try {
+            final JSONObject json = this.authnDB.getObject("id_" + provider, id);
+            return json == null ? null : new Authentication(json);
         } catch (final JSONException e) {
             throw new IOException(e.getMessage());
         }
-        return null;
     }
 
     public void setAuthorization(final Authorization authr) throws IOException {
         this.authrDB.put(authr.getSessionID(), authr.getJSON());
+        this.sessionCache.put(authr.getSessionID(), authr);
+        audit("login", authr.getUserID());
     }
 
+    /**
+     * get the authorization of a session. Sessions are answered from the session cache;
+     * the authorization tray is only read if the session is not cached.
+     * @param sessionID
+     * @return the authorization or null if the session does not exist
+     * @throws IOException
+     */
     public Authorization getAuthorization(final String sessionID) throws IOException {
         if (sessionID == null) return null;
+        final Authorization cached = this.sessionCache.get(sessionID);
+        if (cached != null) return cached == SessionCache.UNKNOWN ? null : cached;
         try {
             final JSONObject json = this.authrDB.getObject(sessionID);
-            if (json == null) return null;
-            return new Authorization(json);
+            final Authorization authr = this.sessionCache.putLoaded(sessionID, json == null ? null : new Authorization(json));
+            return authr == SessionCache.UNKNOWN ? null : authr;
         } catch (final JSONException e) {
             Logger.error(e);
             return null;
         }
     }
 
+    /**
+     * record an event in the audit log; the log is written by the frequency scheduler
+     * @param event the name of the event
+     * @param userID
+     */
+    public void audit(final String event, final String userID) {
+        final JSONObject json = new JSONObject(true);
+        json.put("event", event);
+        json.put("id", userID);
+        this.auditLog.append(json);
+    }
+
+    public SegmentedLog getAuditLog() {
+        return this.auditLog;
+    }
+
+    public SessionCache getSessionCache() {
+        return this.sessionCache;
+    }
+
     /**
      * delete authorization to log out the user
      * @param sessionID
      */
     public void deleteAuthorization(final String sessionID) {
         if (sessionID == null) return;
+        try {
+            final Authorization authr = getAuthorization(sessionID);
+            if (authr != null) audit("logout", authr.getUserID());
+        } catch (final IOException e) {
+            Logger.warn("cannot audit logout", e);
+        }
+        this.sessionCache.invalidate(sessionID);
         try {
             this.authrDB.remove(sessionID);
         } catch (final IOException e) {
@@ -28,6 +28,11 @@ public abstract class AbstractService implements Service {
         return new String[] {};
     }
 
+    @Override
+    public boolean isNonBlocking() {
+        return false;
+    }
+
     @Override
     public boolean supportsPath(String path) {
         path = IOPath.canonicalPath(path);
@@ -0,0 +1,307 @@
+/**
+ *  AccessLog
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import eu.searchlab.tools.Logger;
+
+/**
+ * Asynchronous access log.
+ * Request threads append records to a bounded lock-free ring buffer with multiple producers and a
+ * single consumer. A writer thread drains the buffer periodically, formats the records in the
+ * common or combined log format and writes them in batches to a rotating file. Without a file, the
+ * records are written line by line to the Logger, so they are also available in the log service.
+ * Requests are never blocked by logging: if the buffer is full, the record is dropped and counted.
+ */
+public class AccessLog {
+
+    public enum Format {
+        COMMON, COMBINED;
+    }
+
+    private final static int BATCH_SIZE = 65536; // maximum number of chars in one write
+    private final static DateTimeFormatter CLF_DATE = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneId.systemDefault());
+
+    private final static class Record {
+        private final long time;
+        private final String ip, user, method, path, protocol, referer, userAgent;
+        private final int status;
+        private final long size;
+        private Record(final String ip, final String user, final String method, final String path, final String protocol,
+                final int status, final long size, final String referer, final String userAgent) {
+            this.time = System.currentTimeMillis();
+            this.ip = ip;
+            this.user = user;
+            this.method = method;
+            this.path = path;
+            this.protocol = protocol;
+            this.status = status;
+            this.size = size;
+            this.referer = referer;
+            this.userAgent = userAgent;
+        }
+    }
+
+    private final AtomicReferenceArray<Record> ring;
+    private final int mask;
+    private final AtomicLong tail; // next slot to be claimed by a producer
+    private volatile long head;    // next slot to be read by the consumer; written only by the writer thread
+    private final AtomicLong dropped;
+    private final Format format;
+    private final File file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final long flushInterval;
+    private final Thread writer;
+    private volatile boolean running;
+    private OutputStream os;
+    private long fileSize;
+    private long dateSecond;  // the second of the last formatted date; used only by the writer thread
+    private String dateString;
+
+    /**
+     * create and start an access log
+     * @param format the log format
+     * @param file the log file or null to write to the Logger
+     * @param maxFileSize the size of the log file which causes a rotation
+     * @param maxFiles the number of rotated log files which are kept
+     * @param capacity the size of the ring buffer, rounded up to a power of two
+     * @param flushInterval the time in milliseconds between two writes
+     */
+    public AccessLog(final Format format, final File file, final long maxFileSize, final int maxFiles, final int capacity, final long flushInterval) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.tail = new AtomicLong(0);
+        this.head = 0;
+        this.dropped = new AtomicLong(0);
+        this.format = format;
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = Math.max(1, maxFiles);
+        this.flushInterval = flushInterval;
+        this.os = null;
+        this.fileSize = 0;
+        this.dateSecond = -1;
+        this.dateString = null;
+        this.running = true;
+        this.writer = new Thread(() -> {
+            long reportedDrops = 0;
+            while (this.running) {
+                // wait for the next flush unless the buffer fills up faster than it is written
+                try {
+                    if (drain() < (this.mask + 1) / 4) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(this.flushInterval));
+                } catch (final RuntimeException e) {
+                    // the writer must survive any failure, otherwise all further records are dropped
+                    Logger.warn("access log writer failure", e);
+                    closeFile();
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(this.flushInterval));
+                }
+                final long drops = this.dropped.get();
+                if (drops != reportedDrops) {
+                    Logger.warn("access log buffer overflow, dropped " + (drops - reportedDrops) + " records, " + drops + " total");
+                    reportedDrops = drops;
+                }
+            }
+            drain();
+            closeFile();
+        });
+        this.writer.setName("AccessLog Writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * append a record to the log. This never blocks; if the buffer is full the record is dropped.
+     * @return true if the record was accepted
+     */
+    public boolean log(final String ip, final String user, final String method, final String path, final String protocol,
+            final int status, final long size, final String referer, final String userAgent) {
+        final Record record = new Record(ip, user, method, path, protocol, status, size, referer, userAgent);
+        while (true) {
+            final long t = this.tail.get();
+            if (t - this.head > this.mask) {
+                this.dropped.incrementAndGet();
+                return false;
+            }
+            if (this.tail.compareAndSet(t, t + 1)) {
+                this.ring.lazySet((int) (t & this.mask), record);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * write all published records; called only from the writer thread
+     * @return the number of written records
+     */
+    private long drain() {
+        final StringBuilder batch = new StringBuilder(BATCH_SIZE + 1024);
+        final long start = this.head;
+        long h = start;
+        final long t = this.tail.get();
+        while (h < t) {
+            final int slot = (int) (h & this.mask);
+            final Record record = this.ring.get(slot);
+            if (record == null) break; // claimed but not yet published; continue with the next drain
+            this.ring.lazySet(slot, null);
+            this.head = ++h;
+            format(batch, record);
+            if (batch.length() >= BATCH_SIZE) {
+                write(batch);
+                batch.setLength(0);
+            }
+        }
+        if (batch.length() > 0) write(batch);
+        return h - start;
+    }
+
+    private void format(final StringBuilder sb, final Record record) {
+        sb.append(dash(record.ip)).append(" - ").append(dash(record.user))
+          .append(" [").append(date(record.time)).append("] \"")
+          .append(record.method).append(' ').append(record.path).append(' ').append(record.protocol).append("\" ")
+          .append(record.status).append(' ').append(record.size <= 0 ? "-" : Long.toString(record.size));
+        if (this.format == Format.COMBINED) {
+            sb.append(" \"").append(dash(record.referer)).append("\" \"").append(dash(record.userAgent)).append('"');
+        }
+        sb.append('\n');
+    }
+
+    private String date(final long time) {
+        final long second = time / 1000;
+        if (second != this.dateSecond) {
+            this.dateString = CLF_DATE.format(Instant.ofEpochMilli(time));
+            this.dateSecond = second;
+        }
+        return this.dateString;
+    }
+
+    private static String dash(final String s) {
+        return s == null || s.length() == 0 ? "-" : s.replace('"', '\'');
+    }
+
+    private void write(final StringBuilder batch) {
+        if (this.file == null) {
+            int p = 0;
+            while (p < batch.length()) {
+                final int q = batch.indexOf("\n", p);
+                Logger.info(batch.substring(p, q));
+                p = q + 1;
+            }
+            return;
+        }
+        final byte[] b = batch.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (this.os == null) {
+                final File parent = this.file.getParentFile(); // null for a file name without a path
+                if (parent != null) parent.mkdirs();
+                this.fileSize = this.file.length();
+                this.os = new FileOutputStream(this.file, true);
+            }
+            this.os.write(b);
+            this.os.flush();
+            this.fileSize += b.length;
+            if (this.fileSize >= this.maxFileSize) rotate();
+        } catch (final IOException e) {
+            Logger.warn("cannot write access log " + this.file, e);
+            closeFile();
+        }
+    }
+
+    /**
+     * rotate the log files: access.log becomes access.log.1, access.log.1 becomes access.log.2 and so on
+     */
+    private void rotate() throws IOException {
+        closeFile();
+        final File last = new File(this.file.getPath() + "." + this.maxFiles);
+        if (last.exists()) last.delete();
+        for (int i = this.maxFiles - 1; i >= 1; i--) {
+            final File f = new File(this.file.getPath() + "." + i);
+            if (f.exists()) f.renameTo(new File(this.file.getPath() + "." + (i + 1)));
+        }
+        this.file.renameTo(new File(this.file.getPath() + ".1"));
+    }
+
+    private void closeFile() {
+        if (this.os == null) return;
+        try {
+            this.os.close();
+        } catch (final IOException e) {}
+        this.os = null;
+        this.fileSize = 0;
+    }
+
+    /**
+     * @return the number of records which were dropped because the buffer was full
+     */
+    public long dropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * @return the number of records waiting to be written
+     */
+    public long pending() {
+        return this.tail.get() - this.head;
+    }
+
+    /**
+     * write all pending records and stop the writer thread
+     */
+    public void close() {
+        this.running = false;
+        LockSupport.unpark(this.writer);
+        try {
+            this.writer.join(10000);
+        } catch (final InterruptedException e) {}
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final File f = File.createTempFile("access", ".log");
+        final AccessLog log = new AccessLog(Format.COMBINED, f, 16 * 1024 * 1024, 3, 65536, 100);
+        final int threads = 8, count = 10000;
+        final Thread[] t = new Thread[threads];
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            t[i] = new Thread(() -> {
+                for (int j = 0; j < count; j++) log.log("127.0.0." + n, "en", "GET", "/en/index.html?n=" + j, "HTTP/1.1", 200, j, "-", "test");
+            });
+            t[i].start();
+        }
+        for (int i = 0; i < threads; i++) try {t[i].join();} catch (final InterruptedException e) {}
+        final long time = System.currentTimeMillis() - start;
+        log.close();
+        System.out.println((threads * count) + " records appended in " + time + " ms, dropped " + log.dropped() + ", pending " + log.pending() + ", log file " + f);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ *  AssetResource
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.xnio.channels.Channels;
+import org.xnio.channels.StreamSinkChannel;
+
+import eu.searchlab.storage.io.FileIO;
+import eu.searchlab.storage.io.GenericIO;
+import eu.searchlab.storage.io.IOPath;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ETag;
+
+/**
+ * An asset is an object in a GenericIO which is streamed to the client instead of being loaded into
+ * memory. The WebServer uses the size and the modification date of the asset to answer
+ * range requests; objects in a FileIO are transferred with zero-copy from the file channel
+ * into the response channel.
+ */
+public class AssetResource {
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final GenericIO io;
+    private final IOPath iop;
+    private final long size;
+    private final long lastModified;
+    private final ETag etag;
+
+    /**
+     * create an asset resource; this reads the size and the modification date of the object
+     * @param io the storage which contains the object
+     * @param iop the object path
+     * @throws IOException if the object does not exist
+     */
+    public AssetResource(final GenericIO io, final IOPath iop) throws IOException {
+        this.io = io;
+        this.iop = iop;
+        this.size = io.size(iop);
+        this.lastModified = io.lastModified(iop);
+        this.etag = new ETag(false, Long.toHexString(this.lastModified) + "-" + Long.toHexString(this.size));
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public long getLastModified() {
+        return this.lastModified;
+    }
+
+    public ETag getETag() {
+        return this.etag;
+    }
+
+    /**
+     * transfer a part of the asset into the response of the exchange. This must be called from a worker thread.
+     * @param exchange the exchange
+     * @param offset the first byte of the asset that shall be sent
+     * @param len the number of bytes to send
+     * @throws IOException
+     */
+    public void transfer(final HttpServerExchange exchange, final long offset, final long len) throws IOException {
+        if (this.io instanceof FileIO) {
+            final FileChannel fc = FileChannel.open(((FileIO) this.io).getObjectFile(this.iop).toPath(), StandardOpenOption.READ);
+            try {
+                final StreamSinkChannel channel = exchange.getResponseChannel();
+                Channels.transferBlocking(channel, fc, offset, len);
+                channel.shutdownWrites();
+                Channels.flushBlocking(channel);
+            } finally {
+                fc.close();
+            }
+            return;
+        }
+        exchange.startBlocking();
+        final InputStream is = this.io.read(this.iop, offset, len);
+        final OutputStream os = exchange.getOutputStream();
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = len;
+            int l;
+            while (remaining > 0 && (l = is.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                os.write(buffer, 0, l);
+                remaining -= l;
+            }
+        } finally {
+            is.close();
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ *  Dispatcher
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.searchlab.tools.Logger;
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+
+/**
+ * The dispatcher decides where a request is processed.
+ * Requests which can be answered from memory are processed directly on the IO thread. All other requests
+ * are handed over either to the XNIO worker pool or to an executor with virtual threads if the JDK
+ * supports them. Virtual threads are created with reflection because the source level is below Java 21.
+ */
+public class Dispatcher {
+
+    public enum Mode {
+        IO,      // process on the IO thread, only for requests that do not block
+        WORKER,  // hand over to the XNIO worker pool
+        VIRTUAL; // hand over to a virtual thread
+    }
+
+    private final Mode mode;
+    private final ExecutorService executor; // null for the worker pool
+
+    /**
+     * create a dispatcher for blocking requests
+     * @param mode the dispatch mode for blocking requests, either WORKER or VIRTUAL. If VIRTUAL is
+     *        not supported by the JDK, the worker pool is used.
+     */
+    public Dispatcher(final Mode mode) {
+        final ExecutorService executor = mode == Mode.VIRTUAL ? virtualThreadExecutor() : null;
+        if (mode == Mode.VIRTUAL && executor == null) Logger.warn("virtual threads are not supported by this JDK, using the worker pool");
+        this.executor = executor;
+        this.mode = executor == null ? Mode.WORKER : Mode.VIRTUAL;
+    }
+
+    /**
+     * @return the effective mode for blocking requests
+     */
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * dispatch a blocking request
+     * @param exchange the exchange, must be in the IO thread
+     * @param handler the handler which is called again in the target thread
+     */
+    public void dispatch(final HttpServerExchange exchange, final HttpHandler handler) {
+        if (this.executor == null) {
+            exchange.dispatch(handler);
+        } else {
+            exchange.dispatch(this.executor, handler);
+        }
+    }
+
+    public void close() {
+        if (this.executor != null) this.executor.shutdown();
+    }
+
+    /**
+     * get an executor which starts a new virtual thread for each task
+     * @return the executor or null if the JDK does not support virtual threads
+     */
+    public static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Load test of the dispatch modes.
+     * For each mode an undertow server is started which answers with a small in-memory document, like
+     * the ready service, and the server is loaded with concurrent clients. This measures the cost of the
+     * dispatch itself; a run against the full server can be done with a given url as first argument.
+     * Usage: Dispatcher [url] [clients] [requests per client]
+     */
+    public static void main(final String[] args) {
+        final String url = args.length > 0 ? args[0] : null;
+        final int clients = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        final int requests = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        final byte[] body = "{\"ready\":true}".getBytes(StandardCharsets.UTF_8);
+        int port = 8500;
+        for (final Mode mode: Mode.values()) {
+            Undertow server = null;
+            Dispatcher dispatcher = null;
+            if (url == null) {
+                final Dispatcher d = new Dispatcher(mode == Mode.IO ? Mode.WORKER : mode);
+                if (mode == Mode.VIRTUAL && d.getMode() != Mode.VIRTUAL) {d.close(); continue;}
+                dispatcher = d;
+                final HttpHandler handler = new HttpHandler() {
+                    @Override
+                    public void handleRequest(final HttpServerExchange exchange) {
+                        if (exchange.isInIoThread() && mode != Mode.IO) {
+                            d.dispatch(exchange, this);
+                            return;
+                        }
+                        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+                        exchange.getResponseSender().send(ByteBuffer.wrap(body));
+                    }
+                };
+                server = Undertow.builder().addHttpListener(++port, "127.0.0.1").setHandler(handler).build();
+                server.start();
+            }
+            final URI uri = URI.create(url == null ? "http://127.0.0.1:" + port + "/api/ready.json" : url);
+            final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            final HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+            final long[] latency = new long[clients * requests];
+            final AtomicInteger next = new AtomicInteger(0), errors = new AtomicInteger(0);
+            final ExecutorService load = Executors.newFixedThreadPool(clients);
+            final long start = System.nanoTime();
+            for (int c = 0; c < clients; c++) load.execute(() -> {
+                for (int r = 0; r < requests; r++) {
+                    final long t = System.nanoTime();
+                    try {
+                        if (client.send(request, HttpResponse.BodyHandlers.ofByteArray()).statusCode() != 200) errors.incrementAndGet();
+                    } catch (final Exception e) {
+                        errors.incrementAndGet();
+                    }
+                    latency[next.getAndIncrement()] = System.nanoTime() - t;
+                }
+            });
+            load.shutdown();
+            try {load.awaitTermination(10, TimeUnit.MINUTES);} catch (final InterruptedException e) {}
+            final long time = System.nanoTime() - start;
+            Arrays.sort(latency);
+            System.out.println(String.format("%-8s %8d req/s, p50 %6d us, p99 %6d us, errors %d",
+                    url == null ? mode.name() : url,
+                    latency.length * 1000000000L / time,
+                    latency[latency.length / 2] / 1000, latency[latency.length * 99 / 100] / 1000,
+                    errors.get()));
+            if (server != null) server.stop();
+            if (dispatcher != null) dispatcher.close();
+            if (url != null) break;
+        }
+    }
+}
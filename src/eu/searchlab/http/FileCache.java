@@ -0,0 +1,586 @@
+/**
+ *  FileCache
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import eu.searchlab.tools.DateParser;
+import eu.searchlab.tools.Digest;
+import eu.searchlab.tools.Logger;
+import io.undertow.util.ETag;
+
+/**
+ * A bounded in-memory cache for static files which are served by the WebServer.
+ * Entries are stored with the resolved file, the file content, a strong ETag and
+ * the Last-Modified date, so a cache hit needs neither a file system lookup nor a read.
+ * The cache is limited by the sum of the content sizes, including the sizes of the compressed
+ * variants, and evicts the least recently used entries first. Files in the cache are watched with
+ * a WatchService; a change of a cached file removes that file from the cache. Entries of files in
+ * directories which cannot be watched are validated with the file date.
+ * Compressible files are also provided as precompressed variants: a gzip or brotli file
+ * which exists next to the original file (i.e. 'main.css.gz' or 'main.css.br') is preferred,
+ * otherwise a gzip variant is computed once in memory.
+ */
+public class FileCache {
+
+    public final static String GZIP = "gzip";
+    public final static String BROTLI = "br";
+
+    private final static Set<String> compressibleExtensions = Set.of(
+            "html", "htm", "shtml", "css", "js", "mjs", "json", "map", "txt", "csv", "xml", "svg", "md", "ttf", "otf", "eot");
+
+    /**
+     * A representation of a file, either the identity (encoding == null) or a compressed variant.
+     * Each variant has its own strong ETag, see https://datatracker.ietf.org/doc/html/rfc7232#section-2.3.3
+     */
+    public final static class Variant {
+        public final String encoding;
+        public final byte[] content;
+        public final ETag etag;
+
+        private Variant(final String encoding, final byte[] content, final ETag etag) {
+            this.encoding = encoding;
+            this.content = content;
+            this.etag = etag;
+        }
+
+        /**
+         * get a read-only view on the content; the buffer can be handed over to
+         * the response sender without copying the content
+         * @return a buffer with position 0 and limit at the end of the content
+         */
+        public ByteBuffer buffer() {
+            return ByteBuffer.wrap(this.content).asReadOnlyBuffer();
+        }
+
+        public long length() {
+            return this.content.length;
+        }
+    }
+
+    public final static class Entry {
+        public final File file;
+        public final byte[] content;
+        public final ETag etag;
+        public final long lastModified;
+        public final String lastModifiedString;
+        public final boolean compressible;
+        private final boolean cacheable;
+        private final boolean watched; // true if changes of the file are reported by the watcher
+        private final FileCache owner; // the cache which accounts the size of compressed variants; null if not cacheable
+        private final Variant identity;
+        private volatile Variant gzip, brotli; // lazy; a variant equal to identity means: no compressed variant
+        private volatile SSIProcessor.Document document; // lazy; only for cacheable entries
+        private long size;      // the size which is accounted in the cache; guarded by the cache
+        private boolean cached; // true while the entry is in the cache; guarded by the cache
+
+        private Entry(final File file, final byte[] content, final long lastModified, final boolean watched, final FileCache owner) {
+            this.file = file;
+            this.content = content;
+            this.etag = new ETag(false, Digest.encodeMD5Hex(content));
+            this.lastModified = lastModified;
+            this.lastModifiedString = DateParser.formatRFC1123(new Date(lastModified));
+            this.compressible = isCompressible(file.getName());
+            this.cacheable = owner != null;
+            this.watched = watched;
+            this.owner = owner;
+            this.identity = new Variant(null, content, this.etag);
+            this.gzip = null;
+            this.brotli = null;
+            this.document = null;
+            this.size = content.length;
+            this.cached = false;
+        }
+
+        /**
+         * get a read-only view on the content; the buffer can be handed over to
+         * the response sender without copying the content
+         * @return a buffer with position 0 and limit at the end of the content
+         */
+        public ByteBuffer buffer() {
+            return this.identity.buffer();
+        }
+
+        public long length() {
+            return this.content.length;
+        }
+
+        /**
+         * get the content tokenized for server-side includes. The document of a cacheable entry is kept
+         * with the entry, so it is tokenized once and released together with the entry.
+         * @return the tokenized content
+         */
+        public SSIProcessor.Document document() {
+            SSIProcessor.Document d = this.document;
+            if (d != null) return d;
+            d = SSIProcessor.parse(this.content);
+            if (this.cacheable) this.document = d;
+            return d;
+        }
+
+        /**
+         * get the best representation of the file for a given Accept-Encoding request header.
+         * Brotli is preferred over gzip if both are accepted with the same weight.
+         * @param acceptEncoding the value of the Accept-Encoding header, may be null
+         * @return a variant, the identity variant has a null encoding
+         */
+        public Variant variant(final String acceptEncoding) {
+            if (!this.compressible || acceptEncoding == null || acceptEncoding.length() == 0) return this.identity;
+            final float qbr = qvalue(acceptEncoding, BROTLI);
+            final float qgzip = qvalue(acceptEncoding, GZIP);
+            if (qbr > 0.0f && qbr >= qgzip) {
+                final Variant v = this.brotli == null ? brotli() : this.brotli;
+                if (v != this.identity) return v;
+            }
+            if (qgzip > 0.0f) return this.gzip == null ? gzip() : this.gzip;
+            return this.identity;
+        }
+
+        private synchronized Variant brotli() {
+            if (this.brotli == null) {
+                final Variant v = sibling(BROTLI, ".br");
+                if (v != this.identity && this.owner != null) this.owner.grow(this, v.length());
+                this.brotli = v;
+            }
+            return this.brotli;
+        }
+
+        private synchronized Variant gzip() {
+            if (this.gzip == null) {
+                Variant v = sibling(GZIP, ".gz");
+                if (v == this.identity && this.cacheable) v = compress();
+                if (v != this.identity && this.owner != null) this.owner.grow(this, v.length());
+                this.gzip = v;
+            }
+            return this.gzip;
+        }
+
+        /**
+         * check if the variant for a given Accept-Encoding request header is known already
+         * @param acceptEncoding the value of the Accept-Encoding header, may be null
+         * @return true if variant(acceptEncoding) returns without reading or compressing a file
+         */
+        public boolean isResolved(final String acceptEncoding) {
+            if (!this.compressible || acceptEncoding == null || acceptEncoding.length() == 0) return true;
+            final float qbr = qvalue(acceptEncoding, BROTLI);
+            final float qgzip = qvalue(acceptEncoding, GZIP);
+            if (qbr > 0.0f && qbr >= qgzip) {
+                if (this.brotli == null) return false;
+                if (this.brotli != this.identity) return true;
+            }
+            if (qgzip > 0.0f) return this.gzip != null;
+            return true;
+        }
+
+        private Variant sibling(final String encoding, final String suffix) {
+            final File f = new File(this.file.getParentFile(), this.file.getName() + suffix);
+            if (!f.isFile() || f.lastModified() < this.lastModified) return this.identity; // missing or outdated
+            try {
+                return new Variant(encoding, file2bytes(f), new ETag(false, this.etag.getTag() + "-" + encoding));
+            } catch (final IOException e) {
+                return this.identity;
+            }
+        }
+
+        private Variant compress() {
+            try {
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream(this.content.length / 2 + 64);
+                final GZIPOutputStream gos = new GZIPOutputStream(baos, 8192) {{this.def.setLevel(Deflater.BEST_COMPRESSION);}};
+                gos.write(this.content);
+                gos.close();
+                final byte[] b = baos.toByteArray();
+                if (b.length >= this.content.length) return this.identity; // not worth it
+                return new Variant(GZIP, b, new ETag(false, this.etag.getTag() + "-" + GZIP));
+            } catch (final IOException e) {
+                return this.identity;
+            }
+        }
+    }
+
+    public static boolean isCompressible(final String filename) {
+        final int p = filename.lastIndexOf('.');
+        return p >= 0 && compressibleExtensions.contains(filename.substring(p + 1).toLowerCase());
+    }
+
+    /**
+     * get the quality value of a content coding from an Accept-Encoding header,
+     * see https://datatracker.ietf.org/doc/html/rfc7231#section-5.3.4
+     * @param acceptEncoding the header value, i.e. "gzip, deflate, br" or "br;q=1.0, gzip;q=0.8, *;q=0.1"
+     * @param coding the content coding name
+     * @return the quality value between 0.0f (not acceptable) and 1.0f
+     */
+    public static float qvalue(final String acceptEncoding, final String coding) {
+        float wildcard = 0.0f;
+        for (final String token: acceptEncoding.split(",")) {
+            final int p = token.indexOf(';');
+            final String name = (p < 0 ? token : token.substring(0, p)).trim();
+            float q = 1.0f;
+            if (p >= 0) {
+                final String param = token.substring(p + 1).trim();
+                if (param.startsWith("q=")) try {
+                    q = Float.parseFloat(param.substring(2).trim());
+                } catch (final NumberFormatException e) {
+                    q = 0.0f;
+                }
+            }
+            if (name.equalsIgnoreCase(coding)) return q;
+            if (name.equals("*")) wildcard = q;
+        }
+        return wildcard;
+    }
+
+    private final File[] rootSet;
+    private final long maxSize;
+    private final int maxEntrySize;
+    private final LinkedHashMap<String, Entry> cache; // the key is the request path
+    private long size;
+    private final AtomicLong hits, misses, generation;
+    private final Map<Path, WatchKey> watchedDirs;
+    private WatchService watcher;
+
+    /**
+     * create a file cache
+     * @param rootSet the root paths where files are searched in the given order
+     * @param maxSize the maximum sum of all cached file sizes
+     * @param maxEntrySize the maximum size of a single file that shall be cached
+     */
+    public FileCache(final File[] rootSet, final long maxSize, final int maxEntrySize) {
+        this.rootSet = rootSet;
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxEntrySize;
+        this.cache = new LinkedHashMap<>(64, 0.75f, true); // access-order for LRU eviction
+        this.size = 0;
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+        this.generation = new AtomicLong(0);
+        this.watchedDirs = new ConcurrentHashMap<>();
+        try {
+            this.watcher = rootSet.length == 0 ? null : rootSet[0].toPath().getFileSystem().newWatchService();
+        } catch (final IOException | UnsupportedOperationException e) {
+            Logger.warn("file cache cannot watch file system, cache entries are validated with file dates", e);
+            this.watcher = null;
+        }
+        if (this.watcher != null) {
+            final Thread t = new Thread() {
+                @Override
+                public void run() {
+                    FileCache.this.watch();
+                }
+            };
+            t.setName("FileCache Watcher");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * find any file that is inside one of the given root paths
+     * @param requestPath
+     * @return a file if it exists or null if it does not exist
+     */
+    public File findFile(final String requestPath) {
+        for (final File g: this.rootSet) {
+            File f = new File(g, requestPath);
+            if (!f.exists()) continue;
+            if (f.isDirectory()) f = new File(f, "index.html");
+            return f;
+        }
+        return null;
+    }
+
+    /**
+     * get a cache entry for a request path. If the path is not cached, the file is resolved
+     * from the root set and loaded.
+     * @param requestPath
+     * @return the entry or null if no file exists for that path
+     * @throws IOException if the file exists but cannot be read
+     */
+    public Entry get(final String requestPath) throws IOException {
+        Entry entry;
+        synchronized (this.cache) {
+            entry = this.cache.get(requestPath);
+        }
+        if (entry != null) {
+            if (entry.watched || entry.file.lastModified() == entry.lastModified) {
+                this.hits.incrementAndGet();
+                return entry;
+            }
+            remove(requestPath);
+        }
+        this.misses.incrementAndGet();
+        final File f = findFile(requestPath);
+        if (f == null) return null;
+        // register the watch and read the generation before the content, so a change during the read is noticed
+        final boolean watched = watch(f.getParentFile());
+        final long generation = this.generation.get();
+        final long lastModified = f.lastModified(); // read the date before the content to never store a new date with old content
+        final byte[] content = file2bytes(f);
+        final boolean cacheable = content.length <= this.maxEntrySize && content.length <= this.maxSize;
+        entry = new Entry(f, content, lastModified, watched, cacheable ? this : null);
+        if (cacheable) {
+            synchronized (this.cache) {
+                final Entry old = this.cache.put(requestPath, entry);
+                if (old != null) unaccount(old);
+                entry.cached = true;
+                this.size += entry.size;
+                evict();
+            }
+            // a watch event between the read and the put was applied before the entry was in the cache
+            if (this.generation.get() != generation || f.lastModified() != lastModified) {
+                synchronized (this.cache) {
+                    if (this.cache.get(requestPath) != entry) return entry;
+                }
+                remove(requestPath);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * account the size of a compressed variant which was added to an entry
+     */
+    private void grow(final Entry entry, final long bytes) {
+        synchronized (this.cache) {
+            if (!entry.cached) return; // the variant is released together with the entry
+            entry.size += bytes;
+            this.size += bytes;
+            evict();
+        }
+    }
+
+    /**
+     * remove the least recently used entries until the size limit is met; must be called within synchronized (this.cache)
+     */
+    private void evict() {
+        final Iterator<Entry> i = this.cache.values().iterator();
+        while (this.size > this.maxSize && i.hasNext()) {
+            unaccount(i.next());
+            i.remove();
+        }
+    }
+
+    /**
+     * subtract the size of an entry which is removed from the cache; must be called within synchronized (this.cache)
+     */
+    private void unaccount(final Entry entry) {
+        entry.cached = false;
+        this.size -= entry.size;
+    }
+
+    /**
+     * get a cache entry without any file system access. This is possible only if the entry
+     * is invalidated by the file system watcher.
+     * @param requestPath
+     * @return the cached entry or null if the path is not cached or the entry must be validated with file dates
+     */
+    public Entry peek(final String requestPath) {
+        final Entry entry;
+        synchronized (this.cache) {
+            entry = this.cache.get(requestPath);
+        }
+        return entry == null || !entry.watched ? null : entry;
+    }
+
+    public void remove(final String requestPath) {
+        this.generation.incrementAndGet();
+        synchronized (this.cache) {
+            final Entry old = this.cache.remove(requestPath);
+            if (old != null) unaccount(old);
+        }
+    }
+
+    /**
+     * remove all entries which are based on the given file
+     * @param file
+     */
+    public void invalidate(final File file) {
+        this.generation.incrementAndGet();
+        synchronized (this.cache) {
+            final Iterator<Entry> i = this.cache.values().iterator();
+            while (i.hasNext()) {
+                final Entry entry = i.next();
+                final String name = entry.file.getName();
+                if (entry.file.equals(file) || (entry.file.getParentFile().equals(file.getParentFile()) &&
+                        (file.getName().equals(name + ".gz") || file.getName().equals(name + ".br")))) {
+                    // this also matches precompressed siblings of the entry
+                    unaccount(entry);
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        this.generation.incrementAndGet();
+        synchronized (this.cache) {
+            for (final Entry entry: this.cache.values()) entry.cached = false;
+            this.cache.clear();
+            this.size = 0;
+        }
+    }
+
+    public int count() {
+        synchronized (this.cache) {
+            return this.cache.size();
+        }
+    }
+
+    public long size() {
+        synchronized (this.cache) {
+            return this.size;
+        }
+    }
+
+    /**
+     * The generation is increased whenever entries are removed because files changed or were deleted.
+     * It does not change when entries are evicted to make room. Content derived from cached files
+     * is valid as long as the generation did not change.
+     * @return the current generation
+     */
+    public long generation() {
+        return this.generation.get();
+    }
+
+    public long hits() {
+        return this.hits.get();
+    }
+
+    public long misses() {
+        return this.misses.get();
+    }
+
+    /**
+     * register a directory at the watcher
+     * @param dir
+     * @return true if changes in the directory are reported by the watcher
+     */
+    private boolean watch(final File dir) {
+        if (this.watcher == null || dir == null) return false;
+        final Path p = dir.toPath();
+        if (this.watchedDirs.containsKey(p)) return true;
+        try {
+            this.watchedDirs.put(p, p.register(this.watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY));
+            return true;
+        } catch (final IOException e) {
+            Logger.warn("file cache cannot watch " + dir.toString(), e);
+            return false;
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                final WatchKey key = this.watcher.take();
+                final Path dir = (Path) key.watchable();
+                for (final WatchEvent<?> event: key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY || event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        invalidate(dir.resolve((Path) event.context()).toFile());
+                    } else {
+                        // a created file may shadow a cached file of another root path
+                        // and an overflow may have dropped events; in both cases we cannot tell which entries are affected
+                        clear();
+                    }
+                }
+                if (!key.reset()) {
+                    this.watchedDirs.remove(dir);
+                    clear();
+                }
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            // terminate
+        }
+    }
+
+    public void close() {
+        if (this.watcher == null) return;
+        try {
+            this.watcher.close();
+        } catch (final IOException e) {}
+    }
+
+    public static byte[] file2bytes(final File f) throws IOException {
+        if (! f.exists()) throw new FileNotFoundException("file " + f.toString() + " does not exist");
+        if (! f.isFile()) throw new FileNotFoundException("path " + f.toString() + " is not a file");
+        final FileInputStream fis = new FileInputStream(f);
+        final long fileSize = f.length();
+        final byte[] b = new byte[(int) fileSize];
+        int p = 0;
+        while (p < b.length) {
+            final int r = fis.read(b, p, b.length - p);
+            if (r < 0) break;
+            p += r;
+        }
+        fis.close();
+        return b;
+    }
+
+    /**
+     * benchmark comparing cold (every request reads the file) and warm (all requests are cache hits) serving
+     */
+    public static void main(final String[] args) {
+        final File[] roots = new File[] {new File(new File("ui"), "site"), new File("htdocs")};
+        final String[] paths = args.length > 0 ? args : new String[] {"/index.html", "/css/bootstrap.min.css", "/js/jquery.min.js"};
+        final int rounds = 20000;
+        final FileCache cold = new FileCache(roots, 0, 0); // caches nothing
+        final FileCache warm = new FileCache(roots, 64L * 1024L * 1024L, 1024 * 1024);
+        try {
+            for (int run = 0; run < 2; run++) { // first run is the jvm warm-up
+                for (final FileCache fc: new FileCache[] {cold, warm}) {
+                    long bytes = 0;
+                    final long start = System.nanoTime();
+                    for (int i = 0; i < rounds; i++) {
+                        final Entry entry = fc.get(paths[i % paths.length]);
+                        if (entry != null) bytes += entry.buffer().remaining();
+                    }
+                    final long time = Math.max(1, (System.nanoTime() - start) / 1000000);
+                    System.out.println((fc == cold ? "cold" : "warm") + ": " + rounds + " requests in " + time + " ms, " +
+                            (rounds * 1000L / time) + " requests/s, " + (bytes / time / 1000) + " MB/s, hits=" + fc.hits() + ", misses=" + fc.misses());
+                }
+            }
+        } catch (final IOException e) {
+            e.printStackTrace();
+        }
+        cold.close();
+        warm.close();
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ *  HeavyHitters
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Detection of same-usage events from several clients in fixed memory. This is used to identify i.e. distributed
+ * dictionary-based attacks on services: an object, like a search query, is not approved any more if it was requested
+ * by too many different clients within a time window.
+ *
+ * The structure has three parts:
+ * - a count-min sketch over the objects with two time windows. Objects are estimated by the counts of the current
+ *   and the previous window; the windows are rotated after each window time.
+ * - a direct-mapped table which remembers the last object of a hash slot together with the client which asked for it.
+ *   Objects which occur only once are stored only here and in the sketch.
+ * - a space-saving table of the most frequent objects which occurred at least twice. Each entry stores the clients
+ *   that asked for the object within the window. If the table is full, the entry with the lowest count is replaced.
+ *   Counts are halved on each window rotation, so objects which are not used any more fall out of the table.
+ * The memory size depends only on the constructor arguments.
+ */
+public class HeavyHitters {
+
+    private final static int DEPTH = 4;
+    private final static int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final static class Counter {
+        private String obj;
+        private long count, error;
+        private final String[] clients;
+        private final long[] times;
+        private int heapIndex;
+        private Counter(final int maxusage) {
+            this.clients = new String[maxusage];
+            this.times = new long[maxusage];
+        }
+    }
+
+    private final int maxusage;
+    private final long maxtime;
+    private final int[][] current, previous; // count-min sketch windows
+    private final int sketchMask;
+    private final String[] firstObj, firstClient; // direct-mapped table of single occurrences
+    private final long[] firstTime;
+    private final int firstMask;
+    private final Map<String, Counter> monitored;
+    private final Counter[] heap; // min-heap of the monitored counters by count
+    private int heapSize;
+    private long windowStart;
+
+    /**
+     * @param maxusage the number of different clients which may use the same object within the time window
+     * @param maxtime the time window in milliseconds
+     * @param capacity the number of objects in the heavy hitter table
+     * @param sketchWidth the width of the count-min sketch, rounded up to a power of two
+     */
+    public HeavyHitters(final int maxusage, final long maxtime, final int capacity, final int sketchWidth) {
+        this.maxusage = maxusage;
+        this.maxtime = maxtime;
+        final int width = Integer.highestOneBit(Math.max(2, sketchWidth) - 1) << 1;
+        this.current = new int[DEPTH][width];
+        this.previous = new int[DEPTH][width];
+        this.sketchMask = width - 1;
+        this.firstObj = new String[width];
+        this.firstClient = new String[width];
+        this.firstTime = new long[width];
+        this.firstMask = width - 1;
+        this.monitored = new HashMap<>(capacity * 2);
+        this.heap = new Counter[capacity];
+        this.heapSize = 0;
+        this.windowStart = System.currentTimeMillis();
+    }
+
+    /**
+     * approve an usage object:
+     * The object is approved if it was not used by too many clients within the time window.
+     * To store the clients who ask for approval, also the client must be submitted.
+     * @param obj
+     * @param client
+     * @return true if the object is approved.
+     */
+    public boolean approve(final String obj, final String client) {
+        return approve(obj, client, System.currentTimeMillis());
+    }
+
+    synchronized boolean approve(final String obj, final String client, final long now) {
+        if (now - this.windowStart > this.maxtime) rotate(now);
+        final int hash = obj.hashCode();
+        final int estimate = increment(hash);
+
+        Counter c = this.monitored.get(obj);
+        if (c == null) {
+            final int slot = mix(hash, 0) & this.firstMask;
+            final boolean seen = obj.equals(this.firstObj[slot]) && now - this.firstTime[slot] <= this.maxtime;
+            if (estimate < 2 || (!seen && estimate < this.maxusage)) {
+                // a single occurrence; the sketch may overestimate, therefore objects are admitted to the table
+                // only if they are found in the direct-mapped table or if the estimate is large
+                this.firstObj[slot] = obj;
+                this.firstClient[slot] = client;
+                this.firstTime[slot] = now;
+                return this.maxusage > 1;
+            }
+            c = admit(obj);
+            if (seen) {
+                addClient(c, this.firstClient[slot], this.firstTime[slot], now);
+                this.firstObj[slot] = null;
+                this.firstClient[slot] = null;
+            }
+        }
+        c.count++;
+        siftDown(c.heapIndex);
+
+        // check size
+        int size = clientCount(c, now);
+        if (size >= this.maxusage) return false;
+        size = addClient(c, client, now, now);
+        return size < this.maxusage;
+    }
+
+    /**
+     * Get set of clients who wanted approval for the same object within the time window.
+     * @param obj the object that has been approved for all the clients
+     * @return the clients who wanted approval
+     */
+    public synchronized Set<String> getClients(final String obj) {
+        final Counter c = this.monitored.get(obj);
+        final Set<String> clients = new LinkedHashSet<>();
+        if (c == null) return clients;
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < c.clients.length; i++) {
+            if (c.clients[i] != null && now - c.times[i] <= this.maxtime) clients.add(c.clients[i]);
+        }
+        return clients;
+    }
+
+    /**
+     * estimate the number of times an object was used within the current and the previous time window
+     * @param obj
+     * @return the estimated count; this is never lower than the true count
+     */
+    public synchronized int estimate(final String obj) {
+        final int hash = obj.hashCode();
+        int min = Integer.MAX_VALUE;
+        for (int d = 0; d < DEPTH; d++) {
+            final int p = mix(hash, d) & this.sketchMask;
+            min = Math.min(min, this.current[d][p] + this.previous[d][p]);
+        }
+        return min;
+    }
+
+    /**
+     * list the most used objects together with the clients who used them
+     * @param n the maximum number of objects
+     * @return an array of objects with the keys obj, count, error and clients
+     */
+    public synchronized JSONArray top(final int n) {
+        final Counter[] counters = Arrays.copyOf(this.heap, this.heapSize);
+        Arrays.sort(counters, (a, b) -> Long.compare(b.count, a.count));
+        final long now = System.currentTimeMillis();
+        final JSONArray top = new JSONArray();
+        for (int i = 0; i < Math.min(n, counters.length); i++) {
+            final Counter c = counters[i];
+            final JSONArray clients = new JSONArray();
+            for (int j = 0; j < c.clients.length; j++) {
+                if (c.clients[j] != null && now - c.times[j] <= this.maxtime) clients.put(c.clients[j]);
+            }
+            final JSONObject json = new JSONObject(true);
+            json.put("obj", c.obj);
+            json.put("count", c.count);
+            json.put("error", c.error);
+            json.put("clients", clients);
+            top.put(json);
+        }
+        return top;
+    }
+
+    private int increment(final int hash) {
+        // conservative update: only the minimal counters are incremented
+        final int[] p = new int[DEPTH];
+        int min = Integer.MAX_VALUE;
+        for (int d = 0; d < DEPTH; d++) {
+            p[d] = mix(hash, d) & this.sketchMask;
+            min = Math.min(min, this.current[d][p[d]]);
+        }
+        int estimate = Integer.MAX_VALUE;
+        for (int d = 0; d < DEPTH; d++) {
+            if (this.current[d][p[d]] == min) this.current[d][p[d]]++;
+            estimate = Math.min(estimate, this.current[d][p[d]] + this.previous[d][p[d]]);
+        }
+        return estimate;
+    }
+
+    private static int mix(final int hash, final int d) {
+        int h = hash * SEEDS[d];
+        h ^= h >>> 16;
+        h *= 0x7FEB352D;
+        h ^= h >>> 15;
+        return h;
+    }
+
+    private void rotate(final long now) {
+        final boolean expired = now - this.windowStart > 2 * this.maxtime;
+        for (int d = 0; d < DEPTH; d++) {
+            if (expired) {
+                Arrays.fill(this.previous[d], 0);
+            } else {
+                System.arraycopy(this.current[d], 0, this.previous[d], 0, this.current[d].length);
+            }
+            Arrays.fill(this.current[d], 0);
+        }
+        // halving keeps the heap order
+        for (int i = 0; i < this.heapSize; i++) {
+            this.heap[i].count /= 2;
+            this.heap[i].error /= 2;
+        }
+        this.windowStart = now;
+    }
+
+    private Counter admit(final String obj) {
+        final Counter c;
+        if (this.heapSize < this.heap.length) {
+            c = new Counter(this.maxusage);
+            c.count = 0;
+            c.error = 0;
+            c.heapIndex = this.heapSize;
+            this.heap[this.heapSize++] = c;
+        } else {
+            // space-saving: replace the object with the lowest count and inherit its count as error
+            c = this.heap[0];
+            this.monitored.remove(c.obj);
+            c.error = c.count;
+            Arrays.fill(c.clients, null);
+        }
+        c.obj = obj;
+        this.monitored.put(obj, c);
+        return c;
+    }
+
+    private int clientCount(final Counter c, final long now) {
+        int size = 0;
+        for (int i = 0; i < c.clients.length; i++) {
+            if (c.clients[i] != null && now - c.times[i] <= this.maxtime) size++;
+        }
+        return size;
+    }
+
+    private int addClient(final Counter c, final String client, final long time, final long now) {
+        int free = -1, size = 0;
+        boolean found = false;
+        for (int i = 0; i < c.clients.length; i++) {
+            if (c.clients[i] != null && now - c.times[i] > this.maxtime) c.clients[i] = null; // too old
+            if (c.clients[i] == null) {
+                if (free < 0) free = i;
+                continue;
+            }
+            if (c.clients[i].equals(client)) {
+                c.times[i] = time; // overwriting with most recent time is correct
+                found = true;
+            }
+            size++;
+        }
+        if (!found && free >= 0) {
+            c.clients[free] = client;
+            c.times[free] = time;
+            size++;
+        }
+        return size;
+    }
+
+    private void siftDown(int i) {
+        final Counter c = this.heap[i];
+        while (true) {
+            final int l = 2 * i + 1;
+            if (l >= this.heapSize) break;
+            final int r = l + 1;
+            final int m = r < this.heapSize && this.heap[r].count < this.heap[l].count ? r : l;
+            if (this.heap[m].count >= c.count) break;
+            this.heap[i] = this.heap[m];
+            this.heap[i].heapIndex = i;
+            i = m;
+        }
+        this.heap[i] = c;
+        c.heapIndex = i;
+    }
+
+    /**
+     * Accuracy and throughput test with synthetic skewed traffic.
+     * Requests arrive with a given rate in simulated time. Queries are drawn from a Zipf distribution and each query
+     * is sent by a random client. In addition some abusive queries are sent repeatedly from small groups of clients.
+     * The rejected queries are compared with the exact computation of the same rules.
+     * Usage: HeavyHitters [requests per second] [seconds] [distinct queries]
+     */
+    public static void main(final String[] args) {
+        final int qps = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 1800;
+        final int queries = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+        final int maxusage = 5;
+        final long maxtime = 300000;
+        final int requests = qps * seconds;
+        final Random random = new Random(0);
+
+        // zipf distributed query ranks with exponent 1.1
+        final double[] cdf = new double[queries];
+        double sum = 0.0d;
+        for (int i = 0; i < queries; i++) cdf[i] = (sum += 1.0d / Math.pow(i + 1, 1.1d));
+        final String[] stream = new String[requests];
+        final String[] client = new String[requests];
+        final Set<String> abusive = new HashSet<>();
+        for (int i = 0; i < requests; i++) {
+            if (random.nextInt(100) == 0) {
+                // abusive traffic: 1% of the requests, 100 queries from groups of 8 clients
+                final int a = random.nextInt(100);
+                stream[i] = "abuse query number " + a;
+                client[i] = "192.168." + a + "." + random.nextInt(8);
+                abusive.add(stream[i]);
+            } else {
+                int rank = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                if (rank < 0) rank = -rank - 1;
+                stream[i] = "query number " + rank;
+                client[i] = "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+            }
+        }
+
+        // exact computation of the same rules
+        final Map<String, Map<String, Long>> exact = new HashMap<>();
+        final Set<String> exactRejected = new HashSet<>();
+        for (int i = 0; i < requests; i++) {
+            final long now = i * 1000L / qps;
+            final Map<String, Long> m = exact.computeIfAbsent(stream[i], k -> new HashMap<>());
+            m.values().removeIf(t -> now - t > maxtime);
+            if (m.size() >= maxusage) {exactRejected.add(stream[i]); continue;}
+            m.put(client[i], now);
+            if (m.size() >= maxusage) exactRejected.add(stream[i]);
+        }
+
+        final HeavyHitters hh = new HeavyHitters(maxusage, maxtime, 16384, 1 << 16);
+        final Set<String> rejected = new HashSet<>();
+        final long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            if (!hh.approve(stream[i], client[i], i * 1000L / qps)) rejected.add(stream[i]);
+        }
+        final long time = System.nanoTime() - start;
+
+        int truePositive = 0, abuseFound = 0;
+        for (final String s: rejected) if (exactRejected.contains(s)) truePositive++;
+        for (final String s: abusive) if (rejected.contains(s)) abuseFound++;
+        final List<String> top = new ArrayList<>();
+        final JSONArray t = hh.top(5);
+        for (int i = 0; i < t.length(); i++) top.add(t.optJSONObject(i).optString("obj"));
+        System.out.println(requests + " requests in " + (time / 1000000) + " ms, " + (requests * 1000000000L / time) + " requests/s, simulated peak " + qps + " requests/s");
+        System.out.println("rejected " + rejected.size() + " queries, exact " + exactRejected.size() + ", precision " + (rejected.isEmpty() ? 1.0d : ((double) truePositive) / rejected.size()) +
+                ", recall " + (exactRejected.isEmpty() ? 1.0d : ((double) truePositive) / exactRejected.size()) + ", abusive queries found " + abuseFound + "/" + abusive.size());
+        System.out.println("exact state has " + exact.size() + " queries, top: " + top);
+    }
+}
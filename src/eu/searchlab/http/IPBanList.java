@@ -0,0 +1,410 @@
+/**
+ *  IPBanList
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import org.json.JSONObject;
+
+import eu.searchlab.operation.FrequencyTask;
+import eu.searchlab.storage.io.GenericIO;
+import eu.searchlab.storage.io.IOObject;
+import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.tools.Logger;
+
+/**
+ * A list of banned IP networks.
+ * Bans are stored in a path-compressed binary trie over 128 bit addresses; IPv4 addresses are mapped to the
+ * IPv6 range ::ffff:0:0/96. A lookup follows the bits of the address from the root and stops at the first
+ * banned prefix, therefore the lookup time depends only on the address length and not on the number of bans.
+ * Lookups do not lock; changes are synchronized and publish new nodes through volatile references.
+ * Each ban has an expiry time. Expired bans are removed by check(), which also writes a snapshot of all
+ * expiring bans with a GenericIO, so that bans survive a restart. Permanent bans come from the configuration
+ * and are not written to the snapshot.
+ */
+public class IPBanList implements FrequencyTask {
+
+    private final static long PERMANENT = Long.MAX_VALUE;
+    private final static long IPV4_MAPPED = 0xffff00000000L;
+
+    private final static class Node {
+        private final long hi, lo;  // the prefix; bits after the prefix length are zero
+        private final int length;   // the prefix length in bits
+        private volatile Node zero, one;
+        private volatile long expires; // zero if this node is not banned itself
+        private Node(final long hi, final long lo, final int length, final long expires) {
+            this.hi = hi;
+            this.lo = lo;
+            this.length = length;
+            this.expires = expires;
+        }
+    }
+
+    private final Node root;
+    private volatile int size;
+    private boolean modified;
+    private GenericIO io;
+    private IOPath iop;
+    private long snapshotTime;
+
+    public IPBanList() {
+        this.root = new Node(0, 0, 0, 0);
+        this.size = 0;
+        this.modified = false;
+        this.io = null;
+        this.iop = null;
+        this.snapshotTime = 0;
+    }
+
+    /**
+     * check if an address is banned
+     * @param ip an IPv4 or IPv6 address
+     * @return true if the address is within a banned network which is not expired
+     */
+    public boolean isBanned(final String ip) {
+        final long[] a = parseAddress(ip);
+        if (a == null) return false;
+        final long now = System.currentTimeMillis();
+        Node node = this.root;
+        while (node != null && matches(node, a[0], a[1])) {
+            final long expires = node.expires;
+            if (expires != 0 && expires > now) return true;
+            if (node.length == 128) return false;
+            node = bit(a[0], a[1], node.length) ? node.one : node.zero;
+        }
+        return false;
+    }
+
+    /**
+     * ban a network
+     * @param cidr an address or a network in CIDR notation, i.e. 192.168.1.0/24 or 2001:db8::/32
+     * @param ttl the time in milliseconds until the ban expires, zero or less for a permanent ban
+     * @throws IllegalArgumentException if the cidr cannot be parsed
+     */
+    public void ban(final String cidr, final long ttl) {
+        final int p = cidr.indexOf('/');
+        final String address = p < 0 ? cidr.trim() : cidr.substring(0, p).trim();
+        final long[] a = parseAddress(address);
+        if (a == null) throw new IllegalArgumentException("not an ip address: " + cidr);
+        final boolean ipv4 = address.indexOf(':') < 0;
+        int length = ipv4 ? 32 : 128;
+        if (p >= 0) try {
+            length = Integer.parseInt(cidr.substring(p + 1).trim());
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("bad prefix length: " + cidr);
+        }
+        if (length < 0 || length > (ipv4 ? 32 : 128)) throw new IllegalArgumentException("bad prefix length: " + cidr);
+        insert(a[0], a[1], ipv4 ? length + 96 : length, ttl <= 0 ? PERMANENT : System.currentTimeMillis() + ttl);
+    }
+
+    /**
+     * ban the network of an address: the /24 network of an IPv4 address or the /64 network of an IPv6 address.
+     * This is also the right method to ban pseudonymized addresses where the last byte of an IPv4 address is removed.
+     * @param ip an IPv4 or IPv6 address
+     * @param ttl the time in milliseconds until the ban expires
+     */
+    public void banNetwork(final String ip, final long ttl) {
+        try {
+            ban(ip + (ip.indexOf(':') < 0 ? "/24" : "/64"), ttl);
+        } catch (final IllegalArgumentException e) {
+            Logger.warn("cannot ban " + ip + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of bans, including expired bans which are not yet removed
+     */
+    public int size() {
+        return this.size;
+    }
+
+    private synchronized void insert(final long hi0, final long lo0, final int length, final long expires) {
+        final long hi = hi0 & maskHi(length), lo = lo0 & maskLo(length);
+        Node node = this.root;
+        while (true) {
+            if (node.length == length) {
+                // the root for a /0 ban
+                if (node.expires == 0) this.size++;
+                node.expires = Math.max(node.expires, expires);
+                break;
+            }
+            final boolean b = bit(hi, lo, node.length);
+            final Node child = b ? node.one : node.zero;
+            if (child == null) {
+                setChild(node, b, new Node(hi, lo, length, expires));
+                this.size++;
+                break;
+            }
+            final int common = commonPrefixLength(child.hi, child.lo, hi, lo, Math.min(child.length, length));
+            if (common == child.length) {
+                if (child.length == length) {
+                    if (child.expires == 0) this.size++;
+                    child.expires = Math.max(child.expires, expires);
+                    break;
+                }
+                node = child;
+                continue;
+            }
+            if (common == length) {
+                // the new network contains the child
+                final Node n = new Node(hi, lo, length, expires);
+                setChild(n, bit(child.hi, child.lo, length), child);
+                setChild(node, b, n);
+            } else {
+                // split at the common prefix
+                final Node s = new Node(hi & maskHi(common), lo & maskLo(common), common, 0);
+                setChild(s, bit(child.hi, child.lo, common), child);
+                setChild(s, bit(hi, lo, common), new Node(hi, lo, length, expires));
+                setChild(node, b, s);
+            }
+            this.size++;
+            break;
+        }
+        if (expires != PERMANENT) this.modified = true;
+    }
+
+    private static void setChild(final Node node, final boolean b, final Node child) {
+        if (b) node.one = child; else node.zero = child;
+    }
+
+    /**
+     * remove expired bans
+     * @return the number of removed bans
+     */
+    public synchronized int expire() {
+        final int before = this.size;
+        this.root.zero = prune(this.root.zero, System.currentTimeMillis());
+        this.root.one = prune(this.root.one, System.currentTimeMillis());
+        if (this.root.expires != 0 && this.root.expires <= System.currentTimeMillis()) {this.root.expires = 0; this.size--;}
+        if (this.size != before) this.modified = true;
+        return before - this.size;
+    }
+
+    private Node prune(final Node node, final long now) {
+        if (node == null) return null;
+        node.zero = prune(node.zero, now);
+        node.one = prune(node.one, now);
+        if (node.expires != 0 && node.expires <= now) {
+            node.expires = 0;
+            this.size--;
+        }
+        if (node.expires != 0) return node;
+        // an unbanned node is only needed to connect two children
+        if (node.zero == null) return node.one;
+        if (node.one == null) return node.zero;
+        return node;
+    }
+
+    /**
+     * attach a snapshot location and load the bans from there
+     * @param io
+     * @param iop
+     */
+    public void attach(final GenericIO io, final IOPath iop) {
+        synchronized (this) {
+            this.io = io;
+            this.iop = iop;
+        }
+        load();
+    }
+
+    private void load() {
+        if (this.io == null || !this.io.exists(this.iop)) return;
+        try {
+            final JSONObject json = IOObject.readJSONObject(this.io.readAll(this.iop).get());
+            final long now = System.currentTimeMillis();
+            int count = 0;
+            for (final String cidr: json.keySet()) {
+                final long expires = json.optLong(cidr, 0);
+                if (expires <= now) continue;
+                try {
+                    ban(cidr, expires - now);
+                    count++;
+                } catch (final IllegalArgumentException e) {
+                    Logger.warn("ignoring ban " + cidr + ": " + e.getMessage());
+                }
+            }
+            synchronized (this) {
+                this.snapshotTime = now;
+            }
+            Logger.info("loaded " + count + " ip bans from " + this.iop.toString());
+        } catch (final IOException | InterruptedException | ExecutionException e) {
+            Logger.warn("cannot load ip bans from " + this.iop.toString(), e);
+        }
+    }
+
+    /**
+     * remove expired bans and write a snapshot if the bans have changed.
+     * If another process has written a snapshot since our last snapshot, its bans are merged first.
+     */
+    @Override
+    public void check() {
+        expire();
+        if (this.io == null) return;
+        try {
+            if (this.io.exists(this.iop) && this.io.lastModified(this.iop) > this.snapshotTime) load();
+        } catch (final IOException e) {}
+        final JSONObject json;
+        synchronized (this) {
+            if (!this.modified) return;
+            json = new JSONObject(true);
+            snapshot(this.root, json);
+            this.modified = false;
+        }
+        try {
+            this.io.write(this.iop, json.toString(2).getBytes(StandardCharsets.UTF_8));
+            synchronized (this) {
+                this.snapshotTime = System.currentTimeMillis();
+            }
+        } catch (final IOException e) {
+            Logger.warn("cannot write ip bans to " + this.iop.toString(), e);
+            synchronized (this) {
+                this.modified = true;
+            }
+        }
+    }
+
+    private static void snapshot(final Node node, final JSONObject json) {
+        if (node == null) return;
+        if (node.expires != 0 && node.expires != PERMANENT) json.put(toCIDR(node), node.expires);
+        snapshot(node.zero, json);
+        snapshot(node.one, json);
+    }
+
+    private static String toCIDR(final Node node) {
+        if (node.hi == 0 && (node.lo >>> 32) == 0xffff && node.length >= 96) {
+            final long v4 = node.lo & 0xffffffffL;
+            return ((v4 >>> 24) & 0xff) + "." + ((v4 >>> 16) & 0xff) + "." + ((v4 >>> 8) & 0xff) + "." + (v4 & 0xff) + "/" + (node.length - 96);
+        }
+        final byte[] b = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            b[i] = (byte) (node.hi >>> (56 - 8 * i));
+            b[i + 8] = (byte) (node.lo >>> (56 - 8 * i));
+        }
+        try {
+            return InetAddress.getByAddress(b).getHostAddress() + "/" + node.length;
+        } catch (final UnknownHostException e) {
+            throw new RuntimeException(e.getMessage()); // cannot happen with 16 bytes
+        }
+    }
+
+    /**
+     * parse an IPv4 or IPv6 address into a 128 bit number
+     * @param ip
+     * @return the high and low 64 bits or null if the string is not an ip address
+     */
+    private static long[] parseAddress(final String ip) {
+        if (ip == null || ip.length() == 0) return null;
+        if (ip.indexOf(':') < 0) {
+            // fast path for IPv4
+            long v = 0;
+            int octet = -1, dots = 0;
+            for (int i = 0; i < ip.length(); i++) {
+                final char c = ip.charAt(i);
+                if (c == '.') {
+                    if (octet < 0 || ++dots > 3) return null;
+                    v = (v << 8) | octet;
+                    octet = -1;
+                } else if (c >= '0' && c <= '9') {
+                    octet = octet < 0 ? c - '0' : octet * 10 + (c - '0');
+                    if (octet > 255) return null;
+                } else {
+                    return null;
+                }
+            }
+            if (octet < 0 || dots != 3) return null;
+            return new long[] {0, IPV4_MAPPED | (v << 8) | octet};
+        }
+        // IPv6; only literals are passed to InetAddress to prevent a name lookup
+        for (int i = 0; i < ip.length(); i++) {
+            final char c = ip.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == ':' || c == '.')) return null;
+        }
+        try {
+            final byte[] b = InetAddress.getByName(ip).getAddress();
+            if (b.length == 4) return new long[] {0, IPV4_MAPPED | ((b[0] & 0xffL) << 24) | ((b[1] & 0xffL) << 16) | ((b[2] & 0xffL) << 8) | (b[3] & 0xffL)};
+            long hi = 0, lo = 0;
+            for (int i = 0; i < 8; i++) {
+                hi = (hi << 8) | (b[i] & 0xffL);
+                lo = (lo << 8) | (b[i + 8] & 0xffL);
+            }
+            return new long[] {hi, lo};
+        } catch (final UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static boolean bit(final long hi, final long lo, final int position) {
+        return position < 64 ? ((hi >>> (63 - position)) & 1) != 0 : ((lo >>> (127 - position)) & 1) != 0;
+    }
+
+    private static long maskHi(final int length) {
+        return length >= 64 ? -1L : length == 0 ? 0L : -1L << (64 - length);
+    }
+
+    private static long maskLo(final int length) {
+        return length <= 64 ? 0L : length == 128 ? -1L : -1L << (128 - length);
+    }
+
+    private static boolean matches(final Node node, final long hi, final long lo) {
+        return (hi & maskHi(node.length)) == node.hi && (lo & maskLo(node.length)) == node.lo;
+    }
+
+    private static int commonPrefixLength(final long hi0, final long lo0, final long hi1, final long lo1, final int max) {
+        final long dh = hi0 ^ hi1;
+        final int common = dh != 0 ? Long.numberOfLeadingZeros(dh) : 64 + Long.numberOfLeadingZeros(lo0 ^ lo1);
+        return Math.min(common, max);
+    }
+
+    /**
+     * Lookup benchmark: the lookup time must not depend on the number of bans.
+     * Usage: IPBanList [number of bans]
+     */
+    public static void main(final String[] args) {
+        final int max = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        final Random random = new Random(0);
+        final IPBanList list = new IPBanList();
+        list.ban("10.1.2.0/24", 0);
+        list.ban("2001:db8::/32", 0);
+        list.ban("192.168.0.1", 1);
+        try {Thread.sleep(10);} catch (final InterruptedException e) {}
+        System.out.println("10.1.2.77 banned: " + list.isBanned("10.1.2.77") + ", 10.1.3.1 banned: " + list.isBanned("10.1.3.1") +
+                ", 2001:db8:1::5 banned: " + list.isBanned("2001:db8:1::5") + ", 2001:db9::5 banned: " + list.isBanned("2001:db9::5") +
+                ", expired 192.168.0.1 banned: " + list.isBanned("192.168.0.1") + ", expired removed: " + list.expire());
+        final String[] probes = new String[100000];
+        for (int i = 0; i < probes.length; i++) probes[i] = random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+        for (int n = 1000; n <= max; n *= 10) {
+            while (list.size() < n) {
+                list.ban(random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256) + (random.nextBoolean() ? "" : "/24"), 3600000);
+            }
+            int hits = 0;
+            for (int r = 0; r < 3; r++) for (final String probe: probes) if (list.isBanned(probe)) hits++; // warm up
+            final long start = System.nanoTime();
+            for (int r = 0; r < 10; r++) for (final String probe: probes) if (list.isBanned(probe)) hits++;
+            final long time = System.nanoTime() - start;
+            System.out.println(list.size() + " bans: " + (time / probes.length / 10) + " ns per lookup, hits " + hits);
+        }
+    }
+}
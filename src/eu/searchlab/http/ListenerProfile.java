@@ -0,0 +1,162 @@
+/**
+ *  ListenerProfile
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.xnio.Options;
+
+import io.undertow.Undertow;
+import io.undertow.Undertow.Builder;
+import io.undertow.UndertowOptions;
+import io.undertow.server.ConnectorStatistics;
+import io.undertow.server.HttpHandler;
+import io.undertow.util.Headers;
+
+/**
+ * Connection settings of the http listener.
+ * The profile enables HTTP/2, which is offered as h2c upgrade on the plaintext listener because TLS is
+ * terminated by the proxy in front of the server. With HTTP/2 a browser loads all assets of a page over one
+ * connection. Connections are kept alive until the idle timeout; a connection which does not send a
+ * request within the no-request timeout after it was opened is closed.
+ */
+public class ListenerProfile {
+
+    public final boolean http2;
+    public final int bufferSize;
+    public final boolean directBuffers;
+    public final int idleTimeout;
+    public final int noRequestTimeout;
+    public final int requestParseTimeout;
+    public final int maxConcurrentRequests;
+    public final int backlog;
+
+    public ListenerProfile(
+            final boolean http2, final int bufferSize, final boolean directBuffers,
+            final int idleTimeout, final int noRequestTimeout, final int requestParseTimeout,
+            final int maxConcurrentRequests, final int backlog) {
+        this.http2 = http2;
+        this.bufferSize = bufferSize;
+        this.directBuffers = directBuffers;
+        this.idleTimeout = idleTimeout;
+        this.noRequestTimeout = noRequestTimeout;
+        this.requestParseTimeout = requestParseTimeout;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.backlog = backlog;
+    }
+
+    /**
+     * read the profile from the http.* properties
+     * @return the profile
+     */
+    public static ListenerProfile fromConfig() {
+        return new ListenerProfile(
+                Boolean.parseBoolean(System.getProperty("http.http2", "true")),
+                Integer.parseInt(System.getProperty("http.buffersize", "16364")),
+                Boolean.parseBoolean(System.getProperty("http.directbuffers", "true")),
+                Integer.parseInt(System.getProperty("http.idletimeout", "60000")),
+                Integer.parseInt(System.getProperty("http.norequesttimeout", "60000")),
+                Integer.parseInt(System.getProperty("http.requestparsetimeout", "30000")),
+                Integer.parseInt(System.getProperty("http.maxconcurrentrequests", "100")),
+                Integer.parseInt(System.getProperty("http.backlog", "1000")));
+    }
+
+    /**
+     * apply the profile to an undertow builder
+     * @param builder
+     * @return the builder
+     */
+    public Builder apply(final Builder builder) {
+        builder.setBufferSize(this.bufferSize);
+        builder.setDirectBuffers(this.directBuffers);
+        builder.setServerOption(UndertowOptions.ENABLE_HTTP2, this.http2);
+        builder.setServerOption(UndertowOptions.MAX_CONCURRENT_REQUESTS_PER_CONNECTION, this.maxConcurrentRequests);
+        builder.setServerOption(UndertowOptions.HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS, this.maxConcurrentRequests);
+        builder.setServerOption(UndertowOptions.ALWAYS_SET_KEEP_ALIVE, true);
+        builder.setServerOption(UndertowOptions.IDLE_TIMEOUT, this.idleTimeout);
+        builder.setServerOption(UndertowOptions.NO_REQUEST_TIMEOUT, this.noRequestTimeout);
+        builder.setServerOption(UndertowOptions.REQUEST_PARSE_TIMEOUT, this.requestParseTimeout);
+        builder.setSocketOption(Options.TCP_NODELAY, true);
+        builder.setSocketOption(Options.BACKLOG, this.backlog);
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return "http2=" + this.http2 + ", buffer=" + this.bufferSize + (this.directBuffers ? " direct" : " heap") +
+                ", idle=" + this.idleTimeout + "ms, norequest=" + this.noRequestTimeout + "ms, streams=" + this.maxConcurrentRequests;
+    }
+
+    /**
+     * Page load benchmark.
+     * An embedded server answers a page and a number of small assets. A page view is simulated by loading the
+     * page and then all assets concurrently, once with HTTP/1.1 and once with HTTP/2 (h2c). The benchmark
+     * reports the mean page load time and the number of connections which the server accepted.
+     * Usage: ListenerProfile [assets per page] [page views]
+     */
+    public static void main(final String[] args) {
+        final int assets = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        final int views = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final byte[] asset = new byte[4096];
+        Arrays.fill(asset, (byte) 'x');
+        final HttpHandler handler = exchange -> {
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/css");
+            exchange.getResponseSender().send(ByteBuffer.wrap(asset));
+        };
+        final ListenerProfile profile = fromConfig();
+        final Undertow server = profile.apply(Undertow.builder())
+                .setServerOption(UndertowOptions.ENABLE_STATISTICS, true)
+                .addHttpListener(8600, "127.0.0.1")
+                .setHandler(handler).build();
+        server.start();
+        final ConnectorStatistics statistics = server.getListenerInfo().get(0).getConnectorStatistics();
+        System.out.println("profile: " + profile);
+        for (final HttpClient.Version version: new HttpClient.Version[] {HttpClient.Version.HTTP_1_1, HttpClient.Version.HTTP_2}) {
+            statistics.reset();
+            final HttpClient client = HttpClient.newBuilder().version(version).build();
+            final long start = System.nanoTime();
+            long errors = 0;
+            for (int v = 0; v < views; v++) {
+                try {
+                    client.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:8600/index.html")).build(), HttpResponse.BodyHandlers.ofByteArray());
+                    final List<CompletableFuture<HttpResponse<byte[]>>> responses = new ArrayList<>();
+                    for (int a = 0; a < assets; a++) {
+                        responses.add(client.sendAsync(HttpRequest.newBuilder(URI.create("http://127.0.0.1:8600/asset" + a + ".css")).build(), HttpResponse.BodyHandlers.ofByteArray()));
+                    }
+                    for (final CompletableFuture<HttpResponse<byte[]>> response: responses) if (response.join().statusCode() != 200) errors++;
+                } catch (final Exception e) {
+                    errors++;
+                }
+            }
+            final long time = System.nanoTime() - start;
+            System.out.println(String.format("%-8s page load %6d us, connections %4d, requests %6d, errors %d",
+                    version.name(), time / views / 1000, statistics.getMaxActiveConnections(), statistics.getRequestCount(), errors));
+        }
+        server.stop();
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ *  RateLimiter
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sliding-log rate limiter with bounded memory.
+ * For each key, i.e. a client address, the timestamps of the latest events are stored in a ring buffer.
+ * The ring starts small and grows up to a fixed capacity, so clients with few requests need little memory.
+ * Recording an event is O(1); counting walks back from the latest event and stops at the first event which is
+ * outside of the largest requested timespan. Counts are exact up to the capacity of the ring, also for events
+ * within the same millisecond, and therefore the capacity should be larger than the highest limit which is
+ * checked. Keys without an event within the maximum storage time are evicted.
+ * Timestamps are stored as int milliseconds relative to the creation time of the limiter; differences of such
+ * values are correct as long as they are below 24 days, which is guaranteed by the eviction.
+ */
+public class RateLimiter {
+
+    protected final static Random random = new Random(System.currentTimeMillis());
+
+    private final static int INITIAL_CAPACITY = 4;
+
+    private final static class Log {
+        private int[] ring;      // the timestamps, length is a power of two
+        private int next;        // the position of the next timestamp
+        private int size;        // the number of stored timestamps
+        private long last;       // the time of the latest event
+        private boolean evicted; // set when the log was removed from the history; it must not be used any more
+        private Log(final int capacity) {
+            this.ring = new int[capacity];
+            this.next = 0;
+            this.size = 0;
+            this.last = 0;
+            this.evicted = false;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Log> history; // key will contain addresses, the values are a sequence of timestamps
+    private final long maxtime;  // the maximum storage time of events; keys without events in that time are evicted
+    private volatile int capacity; // the maximum number of timestamps per key
+    private final long epoch;
+    private final AtomicBoolean evicting;
+    private volatile long nextEviction;
+
+    /**
+     * @param maxtimemillis the maximum storage time of events
+     * @param capacity the maximum number of events stored for one key, rounded up to a power of two
+     */
+    public RateLimiter(final long maxtimemillis, final int capacity) {
+        this.history = new ConcurrentHashMap<>();
+        this.maxtime = maxtimemillis;
+        this.capacity = Integer.highestOneBit(Math.max(INITIAL_CAPACITY, capacity) - 1) << 1;
+        this.epoch = System.currentTimeMillis();
+        this.evicting = new AtomicBoolean(false);
+        this.nextEviction = this.epoch + this.maxtime;
+    }
+
+    /**
+     * raise the capacity, i.e. if higher limits shall be checked; the capacity is never lowered
+     * @param capacity the maximum number of events stored for one key, rounded up to a power of two
+     */
+    public final void ensureCapacity(final int capacity) {
+        if (capacity <= this.capacity) return;
+        synchronized (this.history) {
+            this.capacity = Math.max(this.capacity, Integer.highestOneBit(capacity - 1) << 1);
+        }
+    }
+
+    /**
+     * record an event
+     * @param key
+     */
+    public final void event(final String key) {
+        final long now = System.currentTimeMillis();
+        final int t = (int) (now - this.epoch);
+        while (true) {
+            final Log log = this.history.computeIfAbsent(key, k -> new Log(INITIAL_CAPACITY));
+            synchronized (log) {
+                if (log.evicted) continue; // removed concurrently, create a new one
+                if (now - log.last > this.maxtime) log.size = 0; // all stored events are outdated
+                if (log.size == log.ring.length && log.ring.length < this.capacity) grow(log);
+                log.ring[log.next] = t;
+                log.next = (log.next + 1) & (log.ring.length - 1);
+                if (log.size < log.ring.length) log.size++;
+                log.last = now;
+            }
+            break;
+        }
+        if (now > this.nextEviction) evict(now);
+    }
+
+    private static void grow(final Log log) {
+        final int[] ring = new int[log.ring.length * 2];
+        // copy in order, the oldest event first; the ring is full therefore the oldest event is at next
+        final int tail = log.ring.length - log.next;
+        System.arraycopy(log.ring, log.next, ring, 0, tail);
+        System.arraycopy(log.ring, 0, ring, tail, log.next);
+        log.next = log.ring.length;
+        log.ring = ring;
+    }
+
+    /**
+     * count the events within given timespans
+     * @param key
+     * @param timespanmillis a list of timespans
+     * @return the number of events within each of the timespans, at most the capacity of the limiter
+     */
+    public final int[] count(final String key, final long... timespanmillis) {
+        final int[] counts = new int[timespanmillis.length];
+        if (counts.length == 0) return counts;
+        final Log log = this.history.get(key);
+        if (log == null) return counts;
+        long maxspan = 0;
+        for (final long timespan: timespanmillis) maxspan = Math.max(maxspan, timespan);
+        final int now = (int) (System.currentTimeMillis() - this.epoch);
+        synchronized (log) {
+            final int mask = log.ring.length - 1;
+            for (int i = 0; i < log.size; i++) {
+                final int age = now - log.ring[(log.next - 1 - i) & mask];
+                if (age >= maxspan) break;
+                for (int j = 0; j < counts.length; j++) if (age < timespanmillis[j]) counts[j]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @param key
+     * @return the number of stored events for the key
+     */
+    public final int size(final String key) {
+        final Log log = this.history.get(key);
+        if (log == null) return 0;
+        synchronized (log) {
+            return log.size;
+        }
+    }
+
+    /**
+     * @return the number of keys
+     */
+    public final int size() {
+        return this.history.size();
+    }
+
+    /**
+     * remove all keys without an event within the maximum storage time.
+     * This is called from event() once per maximum storage time by only one thread.
+     * @param now
+     */
+    private void evict(final long now) {
+        if (!this.evicting.compareAndSet(false, true)) return;
+        try {
+            this.history.forEach((key, log) -> {
+                synchronized (log) {
+                    if (now - log.last > this.maxtime && this.history.remove(key, log)) log.evicted = true;
+                }
+            });
+            this.nextEviction = now + this.maxtime;
+        } finally {
+            this.evicting.set(false);
+        }
+    }
+
+    /**
+     * compute a retry-after time for a client which exceeded a limit
+     * @param count the number of events within the timespan
+     * @param maxcount the maximum allowed number of events within the timespan
+     * @param timespanmillis the timespan
+     * @return the retry-after time in seconds
+     */
+    public final static long retryAfter(final int count, final int maxcount, final long timespanmillis) {
+        assert count >= maxcount;
+        final long expectedtimeperevent = timespanmillis / maxcount;
+        assert count * timespanmillis / maxcount - timespanmillis > 0;
+        long retryAfter = 2 * (count * expectedtimeperevent - timespanmillis + random.nextInt(5000));
+        retryAfter = retryAfter / 10000;
+        return 1 + retryAfter * 10;
+    }
+
+    /**
+     * Microbenchmark and memory footprint test.
+     * The benchmark records events from concurrent threads for a set of keys and checks that bursts within the
+     * same millisecond are counted exactly. The memory test records one event for each of a million distinct
+     * addresses and reports the heap usage per key.
+     * Usage: RateLimiter [threads] [events per thread] [keys]
+     */
+    public static void main(final String[] args) {
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        final int events = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        final int keys = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+        final long[] frequency_time = {60000, 300000, 3600000};
+
+        // burst: all events within the same millisecond must be counted
+        final RateLimiter burst = new RateLimiter(3600000, 256);
+        for (int i = 0; i < 200; i++) burst.event("burst");
+        final int[] bc = burst.count("burst", frequency_time);
+        System.out.println("burst of 200 events counted as " + bc[0] + ", " + bc[1] + ", " + bc[2]);
+
+        // throughput
+        final RateLimiter limiter = new RateLimiter(3600000, 256);
+        final String[] ips = new String[10000];
+        for (int i = 0; i < ips.length; i++) ips[i] = "10." + ((i >> 16) & 0xff) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff);
+        final Thread[] t = new Thread[threads];
+        final long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final int seed = i;
+            t[i] = new Thread(() -> {
+                final Random r = new Random(seed);
+                for (int j = 0; j < events; j++) {
+                    final String ip = ips[r.nextInt(ips.length)];
+                    limiter.event(ip);
+                    limiter.count(ip, frequency_time);
+                }
+            });
+            t[i].start();
+        }
+        for (int i = 0; i < threads; i++) try {t[i].join();} catch (final InterruptedException e) {}
+        final long time = System.nanoTime() - start;
+        System.out.println((threads * events) + " event+count calls in " + (time / 1000000) + " ms, " + (time / threads / events) + " ns per call and thread");
+
+        // memory footprint
+        final Runtime rt = Runtime.getRuntime();
+        final String[] addresses = new String[keys];
+        for (int i = 0; i < keys; i++) addresses[i] = ((i >> 24) & 0xff) + "." + ((i >> 16) & 0xff) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff);
+        System.gc();
+        final long before = rt.totalMemory() - rt.freeMemory();
+        final RateLimiter memory = new RateLimiter(3600000, 256);
+        for (int i = 0; i < keys; i++) memory.event(addresses[i]);
+        System.gc();
+        final long after = rt.totalMemory() - rt.freeMemory();
+        System.out.println(memory.size() + " keys use " + ((after - before) / 1024 / 1024) + " MB, " + ((after - before) / keys) + " bytes per key without the key strings");
+    }
+}
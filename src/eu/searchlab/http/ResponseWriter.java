@@ -0,0 +1,192 @@
+/**
+ *  ResponseWriter
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import eu.searchlab.storage.table.IndexedTable;
+import tech.tablesaw.columns.Column;
+
+/**
+ * A response writer serializes the content of a service response directly into the response stream.
+ * The WebServer calls the writer after the response header was sent, therefore a writer must not
+ * fail because of the content; all checks must be done before the writer is created.
+ */
+public interface ResponseWriter {
+
+    /**
+     * write the response content
+     * @param writer the target; it is buffered and must not be closed
+     * @throws IOException
+     */
+    public void write(Writer writer) throws IOException;
+
+    /**
+     * serialize a JSONObject
+     * @param json the object
+     * @param minified if true, the object is written without indentation
+     * @param callback a JSONP callback name or an empty string if no callback shall be used
+     * @return the writer
+     */
+    public static ResponseWriter json(final JSONObject json, final boolean minified, final String callback) {
+        return writer -> {
+            if (callback.length() > 0) writer.write(callback + "([");
+            json.write(writer, minified ? 0 : 2);
+            if (callback.length() > 0) writer.write("]);");
+        };
+    }
+
+    /**
+     * serialize a JSONArray
+     * @param array the array
+     * @param minified if true, the array is written without indentation
+     * @return the writer
+     */
+    public static ResponseWriter json(final JSONArray array, final boolean minified) {
+        return writer -> array.write(writer, minified ? 0 : 2);
+    }
+
+    /**
+     * serialize an IndexedTable as JSON row by row
+     * @param table the table
+     * @param asObjects if true, the rows are written as objects, otherwise the first array contains the column names
+     * @param minified if true, the table is written without indentation
+     * @return the writer
+     */
+    public static ResponseWriter json(final IndexedTable table, final boolean asObjects, final boolean minified) {
+        return writer -> {
+            final JSONStringer stringer = minified ? new JSONStringer(writer) : new JSONStringer(2, writer);
+            try {
+                stringer.array();
+                if (asObjects) {
+                    for (int row = 0; row < table.rowCount(); row++) stringer.value(table.row2JSON(row));
+                } else {
+                    final List<String> colnames = table.columnNames();
+                    stringer.value(new JSONArray(colnames));
+                    for (int row = 0; row < table.rowCount(); row++) {
+                        final JSONArray a = new JSONArray();
+                        for (int column = 0; column < colnames.size(); column++) a.put(table.column(column).get(row));
+                        stringer.value(a);
+                    }
+                }
+                stringer.endArray();
+                stringer.flush();
+            } catch (final JSONException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException(e.getMessage());
+            }
+        };
+    }
+
+    /**
+     * serialize a JSONArray as csv with ';' as separator.
+     * There are two types of array representations
+     * - either as array of arrays where the first array has the column names
+     * - or as array of objects where each array entry has objects with same keys;
+     *   in this case floating point numbers are written with the german decimal separator.
+     * @param array the array
+     * @return the writer
+     * @throws IOException if the array has none of the supported shapes
+     */
+    public static ResponseWriter csv(final JSONArray array) throws IOException {
+        final Object head = array.opt(0);
+        final List<String> headKeys = new ArrayList<>();
+        if (head instanceof JSONArray) {
+            // array of arrays
+            try {
+                for (int i = 0; i < ((JSONArray) head).length(); i++) headKeys.add(((JSONArray) head).getString(i));
+            } catch (final JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+            return writer -> {
+                writeCSVLine(writer, headKeys);
+                final List<String> line = new ArrayList<>(headKeys.size());
+                for (int i = 1; i < array.length(); i++) {
+                    final JSONArray row = array.optJSONArray(i);
+                    line.clear();
+                    for (int j = 0; j < headKeys.size(); j++) line.add(row == null ? "" : row.optString(j));
+                    writeCSVLine(writer, line);
+                }
+            };
+        }
+        if (head instanceof JSONObject) {
+            // array of objects
+            headKeys.addAll(((JSONObject) head).keySet()); // this MUST be put into an List to ensure that the order is consistent in all lines
+            return writer -> {
+                writeCSVLine(writer, headKeys);
+                final List<String> line = new ArrayList<>(headKeys.size());
+                for (int i = 0; i < array.length(); i++) {
+                    final JSONObject row = array.optJSONObject(i);
+                    line.clear();
+                    for (final String k: headKeys) line.add(csvValue(row == null ? null : row.opt(k)));
+                    writeCSVLine(writer, line);
+                }
+            };
+        }
+        throw new IOException("array has no csv shape");
+    }
+
+    /**
+     * serialize an IndexedTable as csv with ';' as separator.
+     * The output is the same as the csv of the JSONArray from table.toJSON(asObjects), so floating point
+     * numbers are only written with the german decimal separator if asObjects is true.
+     * @param table the table
+     * @param asObjects if true, the table is written like an array of objects, otherwise like an array of arrays
+     * @return the writer
+     */
+    public static ResponseWriter csv(final IndexedTable table, final boolean asObjects) {
+        return writer -> {
+            final List<String> colnames = table.columnNames();
+            writeCSVLine(writer, colnames);
+            final List<String> line = new ArrayList<>(colnames.size());
+            for (int row = 0; row < table.rowCount(); row++) {
+                line.clear();
+                for (int column = 0; column < colnames.size(); column++) {
+                    final Column<?> c = table.column(column);
+                    final Object value = c.isMissing(row) ? null : c.get(row);
+                    line.add(asObjects ? csvValue(value) : value == null ? "" : String.valueOf(value));
+                }
+                writeCSVLine(writer, line);
+            }
+        };
+    }
+
+    private static String csvValue(final Object vo) {
+        String vs = vo == null ? "" : vo instanceof String ? (String) vo : String.valueOf(vo);
+        if (vo instanceof Double || vo instanceof Float) vs = vs.replace('.', ','); // german decimal separator
+        return vs;
+    }
+
+    private static void writeCSVLine(final Writer writer, final List<String> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) writer.write(';');
+            writer.write(values.get(i));
+        }
+        writer.write('\n');
+    }
+}
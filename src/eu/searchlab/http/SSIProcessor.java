@@ -0,0 +1,203 @@
+/**
+ *  SSIProcessor
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Server-side include processor.
+ * A document is tokenized once into a list of literal segments and directives. The supported directives are
+ * <!--#include virtual="/path/to/fragment.html" -->
+ * <!--#echo var="CANONICAL_TAG" -->
+ * When a document is applied, the literal segments are written directly to the output and the
+ * directives are resolved lazily with a Resolver. Tokenized documents of static files are kept with
+ * their FileCache entry, so they are tokenized only once as long as the file is cached.
+ */
+public class SSIProcessor {
+
+    public final static int MAX_DEPTH = 8; // maximum recursion depth of includes
+
+    private final static byte[] SSI_MARKER = "<!--#".getBytes(StandardCharsets.US_ASCII);
+    private final static byte[] INCLUDE_MARKER = "<!--#include virtual=\"".getBytes(StandardCharsets.US_ASCII);
+    private final static byte[] ECHO_MARKER = "<!--#echo var=\"".getBytes(StandardCharsets.US_ASCII);
+    private final static byte[] END_MARKER = "-->".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * A resolver computes the content of directives
+     */
+    public interface Resolver {
+
+        /**
+         * compute the content of an include
+         * @param virtual the include path relatively to the server root
+         * @return the content to be included or null if nothing shall be included
+         * @throws IOException
+         */
+        public byte[] include(String virtual) throws IOException;
+
+        /**
+         * compute the content of an echo
+         * @param var the variable name
+         * @return the variable value or null if the variable is unknown
+         */
+        public byte[] echo(String var);
+    }
+
+    private final static class Segment {
+        private final int start, end; // a literal segment
+        private final byte[] marker;  // null for a literal, otherwise INCLUDE_MARKER or ECHO_MARKER
+        private final String arg;
+        private Segment(final int start, final int end) {
+            this.start = start;
+            this.end = end;
+            this.marker = null;
+            this.arg = null;
+        }
+        private Segment(final byte[] marker, final String arg) {
+            this.start = 0;
+            this.end = 0;
+            this.marker = marker;
+            this.arg = arg;
+        }
+    }
+
+    public final static class Document {
+
+        private final byte[] source;
+        private final Segment[] segments;
+        private final boolean directives;
+
+        private Document(final byte[] source, final List<Segment> segments) {
+            this.source = source;
+            this.segments = segments.toArray(new Segment[segments.size()]);
+            boolean d = false;
+            for (final Segment segment: this.segments) if (segment.marker != null) {d = true; break;}
+            this.directives = d;
+        }
+
+        /**
+         * @return true if the document contains directives
+         */
+        public boolean hasDirectives() {
+            return this.directives;
+        }
+
+        /**
+         * @return the list of virtual paths of all includes in this document
+         */
+        public List<String> includes() {
+            final List<String> includes = new ArrayList<>();
+            for (final Segment segment: this.segments) if (segment.marker == INCLUDE_MARKER) includes.add(segment.arg);
+            return includes;
+        }
+
+        /**
+         * write the document to an output stream and resolve all directives
+         * @param os the target stream
+         * @param resolver the resolver for the directives
+         * @throws IOException
+         */
+        public void write(final OutputStream os, final Resolver resolver) throws IOException {
+            for (final Segment segment: this.segments) {
+                if (segment.marker == null) {
+                    os.write(this.source, segment.start, segment.end - segment.start);
+                } else {
+                    final byte[] b = segment.marker == INCLUDE_MARKER ? resolver.include(segment.arg) : resolver.echo(segment.arg);
+                    if (b != null) os.write(b);
+                }
+            }
+        }
+
+        /**
+         * apply the resolver to the document
+         * @param resolver the resolver for the directives
+         * @return the source if there are no directives, or a new array with the resolved document
+         * @throws IOException
+         */
+        public byte[] apply(final Resolver resolver) throws IOException {
+            if (!this.directives) return this.source;
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream(this.source.length + 4096);
+            write(baos, resolver);
+            return baos.toByteArray();
+        }
+    }
+
+    /**
+     * tokenize a document into literal segments and directives
+     * @param b the document source
+     * @return the tokenized document
+     */
+    public static Document parse(final byte[] b) {
+        final List<Segment> segments = new ArrayList<>();
+        int literal = 0; // start of the current literal segment
+        int p = WebServer.indexOf(b, SSI_MARKER, 0);
+        while (p >= 0) {
+            final byte[] marker =
+                    WebServer.startsWith(b, INCLUDE_MARKER, p) ? INCLUDE_MARKER :
+                    WebServer.startsWith(b, ECHO_MARKER, p) ? ECHO_MARKER : null;
+            if (marker != null) {
+                final int quote = indexOf(b, (byte) '"', p + marker.length + 1); // the argument has a minimum length of 1
+                final int end = WebServer.indexOf(b, END_MARKER, p + marker.length + 2);
+                if (quote > 0 && end > quote) {
+                    if (p > literal) segments.add(new Segment(literal, p));
+                    segments.add(new Segment(marker, new String(b, p + marker.length, quote - p - marker.length, StandardCharsets.UTF_8)));
+                    literal = end + END_MARKER.length;
+                    p = WebServer.indexOf(b, SSI_MARKER, literal);
+                    continue;
+                }
+            }
+            p = WebServer.indexOf(b, SSI_MARKER, p + 1); // not a directive; keep it as literal
+        }
+        if (b.length > literal) segments.add(new Segment(literal, b.length));
+        return new Document(b, segments);
+    }
+
+    private static int indexOf(final byte[] b, final byte c, final int from) {
+        for (int i = from; i < b.length; i++) if (b[i] == c) return i;
+        return -1;
+    }
+
+    public static void main(final String[] args) {
+        final byte[] html = ("<html><head><!--#echo var=\"CANONICAL_TAG\" --></head>" +
+                "<body><!--#include virtual=\"/header.html\" --><p>text</p><!--#foo --><!--#include virtual=\"/footer.html\" --></body></html>").getBytes(StandardCharsets.UTF_8);
+        final Resolver resolver = new Resolver() {
+            @Override
+            public byte[] include(final String virtual) {
+                return ("[" + virtual + "]").getBytes(StandardCharsets.UTF_8);
+            }
+            @Override
+            public byte[] echo(final String var) {
+                return ("{" + var + "}").getBytes(StandardCharsets.UTF_8);
+            }
+        };
+        try {
+            final Document document = parse(html);
+            System.out.println(document.includes());
+            System.out.println(new String(document.apply(resolver), StandardCharsets.UTF_8));
+        } catch (final IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
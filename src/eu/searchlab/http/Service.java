@@ -24,13 +24,21 @@ import java.io.IOException;
 public interface Service {
 
     public enum Type {
-        OBJECT, ARRAY, STRING, TABLE, BINARY;
+        OBJECT, ARRAY, STRING, TABLE, BINARY, ASSET, STREAM;
     }
 
     public boolean supportsPath(String path);
 
     public String[] getPaths();
 
+    /**
+     * A service is non-blocking if serve() computes the response from memory only and never waits for
+     * storage, index or network IO. Such services are processed on the IO thread for requests that carry
+     * no session cookie; all other services are dispatched to a worker thread.
+     * @return true if the service never blocks
+     */
+    public boolean isNonBlocking();
+
     public ServiceResponse serve(ServiceRequest request) throws IOException;
 
 }
@@ -23,15 +23,17 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Properties;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
 import eu.searchlab.Searchlab;
+import eu.searchlab.aaaaa.ACL;
 import eu.searchlab.aaaaa.Authentication;
 import eu.searchlab.aaaaa.Authorization;
 import eu.searchlab.aaaaa.Authorization.Grade;
+import eu.searchlab.aaaaa.SessionCache;
+import eu.searchlab.aaaaa.SessionToken;
 import eu.searchlab.tools.Logger;
 import io.undertow.server.handlers.Cookie;
 import io.undertow.util.HeaderMap;
@@ -67,6 +69,10 @@ public final class ServiceRequest {
     private final HeaderMap requestHeaders;
     private Authorization authorization = null;
     private Authentication authentication = null;
+    private boolean authorizationParsed = false, authenticationParsed = false; // these are computed once per request, also if the result is null
+    private Grade grade = null;
+    private Grade tokenGrade = null; // the grade from a trusted session token
+    private boolean renewToken = false; // the session cookie must be replaced by a new session token
 
     /**
      *
@@ -170,21 +176,54 @@ public final class ServiceRequest {
     }
 
     public final int get(final String key, final int dflt) {
-        return this.post.optInt(key, dflt);
+        final long l = toLong(this.post.opt(key), dflt);
+        return l > Integer.MAX_VALUE ? Integer.MAX_VALUE : l < Integer.MIN_VALUE ? Integer.MIN_VALUE : (int) l;
     }
 
     public final long get(final String key, final long dflt) {
-        return this.post.optLong(key, dflt);
+        return toLong(this.post.opt(key), dflt);
     }
 
     public final double get(final String key, final double dflt) {
-        return this.post.optDouble(key, dflt);
+        final Object value = this.post.opt(key);
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value instanceof String) try {
+            return Double.parseDouble((String) value);
+        } catch (final NumberFormatException e) {}
+        return dflt;
+    }
+
+    /**
+     * convert a parameter value to a long without boxing. Parameters from the query string are strings,
+     * which are parsed directly; other number formats are parsed as double and truncated like JSONObject.optLong does.
+     */
+    private final static long toLong(final Object value, final long dflt) {
+        if (value instanceof Number) return ((Number) value).longValue();
+        if (!(value instanceof String)) return dflt;
+        final String s = (String) value;
+        final int len = s.length();
+        if (len == 0) return dflt;
+        int i = s.charAt(0) == '-' ? 1 : 0;
+        if (i < len && len - i <= 18) {
+            long l = 0;
+            for (; i < len; i++) {
+                final char c = s.charAt(i);
+                if (c < '0' || c > '9') break;
+                l = l * 10 + (c - '0');
+            }
+            if (i == len) return s.charAt(0) == '-' ? -l : l;
+        }
+        try {
+            return (long) Double.parseDouble(s);
+        } catch (final NumberFormatException e) {
+            return dflt;
+        }
     }
 
     /**
      * The cookie value is an arbitrary string (normally) but cookies
-     * which are set by searchlab are JSON objects.
-     * @return a String containing a JSON if a cookie exists or the empty String
+     * which are set by searchlab are session tokens or, from older logins, JSON objects.
+     * @return a String containing a session token or a JSON if a cookie exists or the empty String
      */
     public final String getCookieValue() {
         return this.cookie == null ? "" : this.cookie.getValue();
@@ -204,27 +243,62 @@ public final class ServiceRequest {
      * @return an authorization object if the user has anauthorization or NULL if not.
      */
     public final Authorization getAuthorization() {
-        if (this.authorization != null) return this.authorization;
+        if (this.authorizationParsed) return this.authorization;
         this.authorization = getAuthorizationInternal();
+        this.authorizationParsed = true;
         return this.authorization;
     }
 
     private final Authorization getAuthorizationInternal() {
         final String cookie = this.getCookieValue(); // this is never NULL
+        if (cookie.length() > 0 && cookie.charAt(0) != '{') {
+            // a session token; trusted tokens are accepted without a lookup in the user database unless the session was deleted here
+            final SessionToken token = SessionToken.decode(cookie);
+            if (token == null) return null;
+            final Authorization authorization = new Authorization(token.id, token.session);
+            if (token.isTrusted() && Searchlab.userDB.getSessionCache().get(token.session) != SessionCache.UNKNOWN) {
+                this.tokenGrade = token.grade;
+                this.renewToken = token.isRenewable();
+                return authorization;
+            }
+            this.renewToken = isStored(authorization);
+            return this.renewToken ? authorization : null;
+        }
         try {
             final JSONObject json = new JSONObject(new JSONTokener(cookie)); // might be an empty json in case that the cookie does not exist
             final Authorization authorization = new Authorization(json); // authorizations from empty jsons may exist, then getAuthorizationGrade() returns Grade.L00_Everyone
-            final String session_id = authorization.getSessionID();
-            final Authorization stored_authorization = session_id == null ? null : Searchlab.userDB.getAuthorization(session_id);
-            if (stored_authorization != null &&
-                authorization.getSessionID().equals(stored_authorization.getSessionID()) &&
-                authorization.getUserID().equals(stored_authorization.getUserID())) return authorization;
-            return null;
-        } catch (JSONException | IOException e) {
+            this.renewToken = isStored(authorization); // replace the json cookie by a session token
+            return this.renewToken ? authorization : null;
+        } catch (final JSONException e) {
             return null; // no authorization
         }
     }
 
+    private final static boolean isStored(final Authorization authorization) {
+        try {
+            final String session_id = authorization.getSessionID();
+            final Authorization stored_authorization = Searchlab.userDB.getAuthorization(session_id);
+            return stored_authorization != null &&
+                   session_id.equals(stored_authorization.getSessionID()) &&
+                   authorization.getUserID().equals(stored_authorization.getUserID());
+        } catch (final IOException | RuntimeException e) {
+            return false; // no authorization
+        }
+    }
+
+    /**
+     * get a new session token if the cookie of the request must be replaced,
+     * because it was expired, signed with an old key or was a json cookie
+     * @return the new token or null if the cookie can be used further
+     */
+    public final String getRenewedSessionToken() {
+        if (!this.renewToken) return null;
+        final Authorization authorization = getAuthorization();
+        if (authorization == null) return null;
+        final Authentication auth = getAuthentication();
+        return SessionToken.issue(authorization.getUserID(), authorization.getSessionID(), auth == null ? Grade.L02_Authenticated : sponsorGrade(auth));
+    }
+
     /**
      * Get a user authentication:
      * A user is authenticated if the request path has an ID assigned.
@@ -234,8 +308,9 @@ public final class ServiceRequest {
      * @return
      */
     public final Authentication getAuthentication() {
-        if (this.authentication != null) return this.authentication;
+        if (this.authenticationParsed) return this.authentication;
         this.authentication = getAuthenticationInternal();
+        this.authenticationParsed = true;
         return this.authentication;
     }
 
@@ -272,26 +347,29 @@ public final class ServiceRequest {
     }
 
     public final Grade getAuthorizationGrade() {
+        if (this.grade == null) this.grade = getAuthorizationGradeInternal();
+        return this.grade;
+    }
+
+    private final Grade getAuthorizationGradeInternal() {
         if (this.user == null || this.user.length() <= 2 || !Authentication.isValid(this.user)) return Grade.L00_Everyone;
         if (!isAuthorized()) return Grade.L01_Anonymous;
         if (Authorization.maintainers.contains(getUser())) return Grade.L08_Maintainer;
+        if (this.tokenGrade != null) return this.tokenGrade;
         final Authentication auth = this.getAuthentication(); // load authenication from user db if not done already
-        if (auth != null) {
-            final Grade grade = auth.getSponsorGrade();
-            if (grade.level > Grade.L02_Authenticated.level) return grade;
-        }
-        return Grade.L02_Authenticated;
+        return auth == null ? Grade.L02_Authenticated : sponsorGrade(auth);
+    }
+
+    private final static Grade sponsorGrade(final Authentication auth) {
+        final Grade grade = auth.getSponsorGrade();
+        return grade.level > Grade.L02_Authenticated.level ? grade : Grade.L02_Authenticated;
     }
 
+    /**
+     * get the acl level of the user
+     * @return a copy of the level object which may be modified
+     */
     public final JSONObject getACL() {
-        final Grade grade = getAuthorizationGrade();
-        final JSONObject acl = Authorization.getACL();
-        final JSONArray levels = acl.optJSONArray("levels");
-        for (int i = 0; i < levels.length(); i++) {
-            final JSONObject level = levels.optJSONObject(i);
-            final String levelname = level.optString("level");
-            if (levelname.equals(grade.name())) return level;
-        }
-        return levels.optJSONObject(0);
+        return ACL.get().getLevel(getAuthorizationGrade());
     }
 }
@@ -20,7 +20,10 @@
 
 package eu.searchlab.http;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashSet;
@@ -90,6 +93,18 @@ public class ServiceResponse {
         this.type = Type.TABLE;
     }
 
+    public ServiceResponse(final AssetResource asset) {
+        this();
+        this.object = asset;
+        this.type = Type.ASSET;
+    }
+
+    public ServiceResponse(final ResponseWriter writer) {
+        this();
+        this.object = writer;
+        this.type = Type.STREAM;
+    }
+
     public int getStatusCode() {
         return this.statusCode;
     }
@@ -128,6 +143,18 @@ public class ServiceResponse {
         return this;
     }
 
+    public ServiceResponse setValue(final AssetResource asset) {
+        this.object = asset;
+        this.type = Type.ASSET;
+        return this;
+    }
+
+    public ServiceResponse setValue(final ResponseWriter writer) {
+        this.object = writer;
+        this.type = Type.STREAM;
+        return this;
+    }
+
     public ServiceResponse setCORS() {
         this.setCORS = true;
         return this;
@@ -194,6 +221,11 @@ public class ServiceResponse {
         return deleteCookie(WebServer.COOKIE_USER_ID_NAME);
     }
 
+    public boolean hasCookie(final String name) {
+        for (final Cookie cookie: this.cookies) if (cookie.getName().equals(name)) return true;
+        return false;
+    }
+
     public Set<Cookie> getCookies() {
         return this.cookies;
     }
@@ -249,6 +281,14 @@ public class ServiceResponse {
         return this.object instanceof IndexedTable;
     }
 
+    public boolean isAsset() {
+        return this.object instanceof AssetResource;
+    }
+
+    public boolean isStream() {
+        return this.object instanceof ResponseWriter;
+    }
+
     public String getMimeType() {
         if (isObject() || isArray()) return "application/javascript";
         if (isString()) {
@@ -286,11 +326,34 @@ public class ServiceResponse {
         return (IndexedTable) this.object;
     }
 
+    public AssetResource getAsset() throws IOException {
+        if (!isAsset()) throw new IOException("object type is not Asset: " + this.object.getClass().getName());
+        return (AssetResource) this.object;
+    }
+
+    public ResponseWriter getStream() throws IOException {
+        if (!isStream()) throw new IOException("object type is not Stream: " + this.object.getClass().getName());
+        return (ResponseWriter) this.object;
+    }
+
+    /**
+     * Write a stream response into memory; this should only be used for small responses
+     * because streams are meant to be written directly to the client.
+     */
+    private byte[] streamToByteArray() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final Writer writer = new OutputStreamWriter(baos, StandardCharsets.UTF_8);
+        getStream().write(writer);
+        writer.close();
+        return baos.toByteArray();
+    }
+
     public String toString(final boolean minified) throws IOException {
         if (isObject()) return getObject().toString(minified ? 0 : 2);
         if (isArray()) return getArray().toString(minified ? 0 : 2);
         if (isString()) return getString();
         if (isByteArray()) return new String((byte[]) this.object, StandardCharsets.UTF_8);
+        if (isStream()) return new String(streamToByteArray(), StandardCharsets.UTF_8);
         return null;
     }
 
@@ -299,6 +362,7 @@ public class ServiceResponse {
         if (isArray()) return getArray().toString(minified ? 0 : 2).getBytes(StandardCharsets.UTF_8);
         if (isString()) return getString().getBytes(StandardCharsets.UTF_8);
         if (isByteArray()) return (byte[]) this.object;
+        if (isStream()) return streamToByteArray();
         return null;
     }
 }
@@ -0,0 +1,147 @@
+/**
+ *  TemplateCache
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Helper;
+import com.github.jknack.handlebars.Parser;
+import com.github.jknack.handlebars.Template;
+import com.github.jknack.handlebars.cache.ConcurrentMapTemplateCache;
+import com.github.jknack.handlebars.io.CompositeTemplateLoader;
+import com.github.jknack.handlebars.io.FileTemplateLoader;
+import com.github.jknack.handlebars.io.StringTemplateSource;
+import com.github.jknack.handlebars.io.TemplateLoader;
+import com.github.jknack.handlebars.io.TemplateSource;
+
+/**
+ * Cache for compiled handlebars templates.
+ * All templates are compiled with one shared Handlebars instance. Page templates are stored
+ * with the resolved file as key and are compiled again only if the modification date of the file changed.
+ * Partials are loaded with the same root paths as used by the file server, i.e. a fragment
+ * can be included with {{> /fragments/header.html}}; such partials are compiled once and reloaded
+ * only if the partial file changes.
+ */
+public class TemplateCache {
+
+    private final static class Compiled {
+        private final Template template;
+        private final byte[] content;
+        private final long lastModified;
+        private Compiled(final Template template, final byte[] content, final long lastModified) {
+            this.template = template;
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * The handlebars template cache for partials. Inline templates are not stored here
+     * because they are managed by the TemplateCache and would otherwise be stored twice.
+     */
+    private final static class PartialCache implements com.github.jknack.handlebars.cache.TemplateCache {
+
+        private final ConcurrentMapTemplateCache partials;
+
+        private PartialCache() {
+            this.partials = new ConcurrentMapTemplateCache();
+            this.partials.setReload(true); // compare the modification date of the partial file
+        }
+
+        @Override
+        public void clear() {
+            this.partials.clear();
+        }
+
+        @Override
+        public void evict(final TemplateSource source) {
+            this.partials.evict(source);
+        }
+
+        @Override
+        public Template get(final TemplateSource source, final Parser parser) throws IOException {
+            if (source instanceof StringTemplateSource) return parser.parse(source);
+            return this.partials.get(source, parser);
+        }
+
+        @Override
+        public PartialCache setReload(final boolean reload) {
+            this.partials.setReload(reload);
+            return this;
+        }
+    }
+
+    private final Handlebars handlebars;
+    private final ConcurrentHashMap<File, Compiled> cache;
+
+    public TemplateCache(final File[] rootSet) {
+        final TemplateLoader[] loaders = new TemplateLoader[rootSet.length];
+        for (int i = 0; i < rootSet.length; i++) loaders[i] = new FileTemplateLoader(rootSet[i], "");
+        this.handlebars = new Handlebars(new CompositeTemplateLoader(loaders)).with(new PartialCache());
+        this.cache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * register a helper in the shared Handlebars instance; it is available in all templates compiled afterwards
+     * @param name the helper name
+     * @param helper the helper
+     * @return this
+     */
+    public <H> TemplateCache registerHelper(final String name, final Helper<H> helper) {
+        this.handlebars.registerHelper(name, helper);
+        this.cache.clear();
+        return this;
+    }
+
+    /**
+     * get a compiled template
+     * @param file the resolved template file, used as cache key
+     * @param content the content of the file
+     * @param lastModified the modification date of the file
+     * @return the compiled template
+     * @throws IOException if the template cannot be compiled
+     */
+    public Template get(final File file, final byte[] content, final long lastModified) throws IOException {
+        final Compiled compiled = this.cache.get(file);
+        if (compiled != null && (compiled.content == content || (compiled.lastModified == lastModified && compiled.content.length == content.length))) {
+            return compiled.template;
+        }
+        final Template template = this.handlebars.compileInline(new String(content, StandardCharsets.UTF_8));
+        this.cache.put(file, new Compiled(template, content, lastModified));
+        return template;
+    }
+
+    public void invalidate(final File file) {
+        this.cache.remove(file);
+    }
+
+    public void clear() {
+        this.cache.clear();
+        this.handlebars.getCache().clear();
+    }
+
+    public int size() {
+        return this.cache.size();
+    }
+}
@@ -20,22 +20,26 @@
 package eu.searchlab.http;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.Deque;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -45,9 +49,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
+import org.xnio.IoUtils;
 
 import com.github.jknack.handlebars.Context;
-import com.github.jknack.handlebars.Handlebars;
 import com.github.jknack.handlebars.HandlebarsException;
 import com.github.jknack.handlebars.Template;
 
@@ -87,18 +91,26 @@ import eu.searchlab.http.services.info.ThreaddumpService;
 import eu.searchlab.http.services.production.CrawlStartService;
 import eu.searchlab.http.services.production.IndexDeletionService;
 import eu.searchlab.http.services.production.IndexExportService;
-import eu.searchlab.storage.io.AbstractIO;
 import eu.searchlab.storage.table.IndexedTable;
 import eu.searchlab.tools.DateParser;
 import eu.searchlab.tools.Logger;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
 import io.undertow.Undertow.Builder;
+import io.undertow.predicate.Predicate;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.Cookie;
 import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.encoding.ContentEncodingRepository;
+import io.undertow.server.handlers.encoding.DeflateEncodingProvider;
 import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.server.handlers.encoding.GzipEncodingProvider;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.ByteRange;
+import io.undertow.util.DateUtils;
+import io.undertow.util.ETag;
+import io.undertow.util.ETagUtils;
 import io.undertow.util.HeaderMap;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
@@ -108,17 +120,26 @@ import io.undertow.util.StatusCodes;
 
 public class WebServer {
 
-    public final static Set<String> ipBanned = ConcurrentHashMap.newKeySet();
+    public final static IPBanList ipBanned = new IPBanList();
 
     public final static String COOKIE_USER_ID_NAME = "searchlab-user";
 
-    private final static byte[] SSI_MARKER = "<!--#".getBytes();
-
     public static File UI_PATH, APPS_PATH, HTDOCS_PATH;
 
+    private final static AttachmentKey<Boolean> STATIC_CONTENT = AttachmentKey.create(Boolean.class);
+    private final static int STREAM_BUFFER_SIZE = 16384; // char buffer for serialized responses
+    private final static long POST_MAXSIZE = Long.parseLong(System.getProperty("http.post.maxsize", "4194304")); // maximum size of a POST or PUT body
+
     static {
         final String ipBannedStr = System.getProperty("ip.banned", "");
-        for (final String s: ipBannedStr.split(",")) ipBanned.add(s.trim());
+        for (final String s: ipBannedStr.split(",")) {
+            if (s.trim().length() == 0) continue;
+            try {
+                ipBanned.ban(s.trim(), 0); // bans from the configuration are permanent
+            } catch (final IllegalArgumentException e) {
+                Logger.warn("ignoring ip.banned entry: " + e.getMessage());
+            }
+        }
         try {
             UI_PATH = new File(new File("ui"), "site");
             APPS_PATH = new File(new File(new File(".").getCanonicalFile().getParentFile(), "searchlab_apps"), "htdocs").getCanonicalFile();
@@ -131,6 +152,8 @@ public class WebServer {
     private final int port;
     private final String bind;
     public final Undertow server;
+    public final AccessLog accessLog;
+    private final Fileserver fileserver;
 
     public WebServer(final int port, final String bind) {
         this.port = port;
@@ -171,32 +194,76 @@ public class WebServer {
         ServiceMap.register(new IndexSizeHistogramService());
         ServiceMap.register(new CrawlStartHistogramService());
 
+        // start access log
+        final String accessLogFile = System.getProperty("http.accesslog.file", "");
+        this.accessLog = new AccessLog(
+                AccessLog.Format.valueOf(System.getProperty("http.accesslog.format", "combined").toUpperCase()),
+                accessLogFile.length() == 0 ? null : new File(accessLogFile),
+                Long.parseLong(System.getProperty("http.accesslog.maxsize", "67108864")),
+                Integer.parseInt(System.getProperty("http.accesslog.files", "10")),
+                Integer.parseInt(System.getProperty("http.accesslog.buffer", "65536")),
+                Long.parseLong(System.getProperty("http.accesslog.flush", "1000")));
+
         // Start webserver
         final PathHandler ph = Handlers.path();
-        ph.addPrefixPath("/", new Fileserver(new File[] {UI_PATH, APPS_PATH, HTDOCS_PATH}));
-        final HttpHandler encodingHandler = new EncodingHandler.Builder().build(null).wrap(ph);
+        this.fileserver = new Fileserver(new File[] {UI_PATH, APPS_PATH, HTDOCS_PATH});
+        ph.addPrefixPath("/", this.fileserver);
+        // on-the-fly encoding is only applied to dynamic content; static files are served from precompressed variants
+        final Predicate dynamicContent = exchange -> exchange.getAttachment(STATIC_CONTENT) == null;
+        final ContentEncodingRepository encodings = new ContentEncodingRepository()
+                .addEncodingHandler(FileCache.GZIP, new GzipEncodingProvider(), 100, dynamicContent)
+                .addEncodingHandler("deflate", new DeflateEncodingProvider(), 10, dynamicContent);
+        final HttpHandler encodingHandler = new EncodingHandler(ph, encodings);
         final Builder builder = Undertow.builder().addHttpListener(this.port, this.bind);
+        final int ioThreads = Integer.parseInt(System.getProperty("http.iothreads", "0"));
+        final int workerThreads = Integer.parseInt(System.getProperty("http.workerthreads", "0"));
+        if (ioThreads > 0) builder.setIoThreads(ioThreads); // default: one per cpu core
+        if (workerThreads > 0) builder.setWorkerThreads(workerThreads); // default: 8 per io thread
+        final ListenerProfile profile = ListenerProfile.fromConfig();
+        profile.apply(builder);
+        Logger.info("http listener profile: " + profile);
         builder.setHandler(encodingHandler);
-        builder.setBufferSize(1024 * 16 - 20);
         this.server = builder.build();
         this.server.start();
     }
 
+    private final static class Fragment {
+        private final byte[] content;
+        private final long generation;
+        private Fragment(final byte[] content, final long generation) {
+            this.content = content;
+            this.generation = generation;
+        }
+    }
+
     private class Fileserver implements HttpHandler {
 
-        private final File[] rootSet;
+        private final FileCache fileCache;
+        private final TemplateCache templateCache;
+        private final Map<String, Fragment> fragmentCache; // included fragments which do not depend on request data
+        private final Map<String, Long> filelessPaths; // paths of non-blocking services without a template file, with the file cache generation of the lookup
+        private final Dispatcher dispatcher;
+        private final boolean nonBlocking;
 
         public Fileserver(final File[] root) {
-            this.rootSet = root;
+            final long cacheSize = Long.parseLong(System.getProperty("http.filecache.size", "67108864"));
+            final int cacheEntrySize = Integer.parseInt(System.getProperty("http.filecache.entrysize", "1048576"));
+            this.fileCache = new FileCache(root, cacheSize, cacheEntrySize);
+            this.templateCache = new TemplateCache(root);
+            this.fragmentCache = new ConcurrentHashMap<>();
+            this.filelessPaths = new ConcurrentHashMap<>();
+            this.dispatcher = new Dispatcher(Dispatcher.Mode.valueOf(System.getProperty("http.dispatch", "worker").toUpperCase()));
+            this.nonBlocking = Boolean.parseBoolean(System.getProperty("http.nonblocking", "true"));
+            Logger.info("dispatching blocking requests to " + this.dispatcher.getMode().name().toLowerCase() + " threads, non-blocking requests " + (this.nonBlocking ? "on io threads" : "also dispatched"));
         }
 
         @Override
         public void handleRequest(final HttpServerExchange exchange) throws Exception {
 
-            if (exchange.isInIoThread()) {
+            if (exchange.isInIoThread() && !isNonBlocking(exchange)) {
                 // dispatch to a worker thread, see
                 // https://undertow.io/undertow-docs/undertow-docs-2.0.0/undertow-handler-guide.html#dispatch-code
-                exchange.dispatch(this);
+                this.dispatcher.dispatch(exchange, this);
                 return;
             }
 
@@ -218,18 +285,27 @@ public class WebServer {
             final HeaderMap requestHeaders = exchange.getRequestHeaders();
             final HeaderValues userAgentValues = requestHeaders.get(Headers.USER_AGENT_STRING);
             final String userAgent = userAgentValues == null ? "" : userAgentValues.getFirst();
-            final ServiceRequest serviceRequest = getQueryParams(exchange);
+            final ServiceRequest serviceRequest;
+            try {
+                serviceRequest = getQueryParams(exchange);
+            } catch (final PostSizeException e) {
+                // send 413 see https://datatracker.ietf.org/doc/html/rfc7231#section-6.5.11
+                exchange.setStatusCode(StatusCodes.REQUEST_ENTITY_TOO_LARGE);
+                exchange.setPersistent(false); // the remaining body is not read
+                exchange.getResponseSender().send("");
+                Logger.warn(e.getMessage() + " for " + exchange.getRequestPath());
+                return;
+            }
             final String referer = serviceRequest.getReferer();
             final String user = serviceRequest.getUser();
             final String path = serviceRequest.getPath();
             final String query = serviceRequest.getQuery();
-            final String client = "-";
 
-            if (ipBanned.contains(serviceRequest.getIPID()) || ipBanned.contains(serviceRequest.getIP00())) {
+            if (ipBanned.isBanned(serviceRequest.getIPID()) || ipBanned.isBanned(serviceRequest.getIP00())) {
                 // send 503 see https://datatracker.ietf.org/doc/html/rfc7231#section-6.6.4
                 exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
                 exchange.getResponseSender().send("");
-                log(serviceRequest.getIP00(), client, user, method, path, exchange.getStatusCode(), 0, referer, userAgent);
+                log(exchange, serviceRequest.getIP00(), user, method, path, exchange.getStatusCode(), 0, referer, userAgent);
                 return;
             }
 
@@ -245,7 +321,7 @@ public class WebServer {
                     exchange.setStatusCode(StatusCodes.TEMPORARY_REDIRECT).setReasonPhrase("page moved");
                     exchange.getResponseHeaders().put(Headers.LOCATION, "/" + user_id + path + (query.length() > 0 ? "?" + query : ""));
                     exchange.getResponseSender().send("");
-                    log(serviceRequest.getIP00(), client, user, method, path, exchange.getStatusCode(), 0, referer, userAgent);
+                    log(exchange, serviceRequest.getIP00(), user, method, path, exchange.getStatusCode(), 0, referer, userAgent);
                     return;
                 }
             }
@@ -261,42 +337,77 @@ public class WebServer {
             }
 
             // before we consider a servlet operation, find a requested file in the path because that would be an input for handlebars operation later
-            final File f = findFile(path);
             exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, serviceRequest.getMime());
 
-            if (!isTemplatingFileType(serviceRequest.getExt()) && f != null) {
+            if (!isTemplatingFileType(serviceRequest.getExt())) {
                 // just serve the file
                 try {
-                    final ByteBuffer bb = file2bytebuffer(f);
-                    final long d = f.lastModified();
-                    exchange.getResponseHeaders().put(Headers.DATE, DateParser.formatRFC1123(new Date(d))); // like a proper file server
-                    exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "public, max-age=" + (System.currentTimeMillis() - d + 600)); // 10 minutes cache, for production: increase
-                    exchange.getResponseHeaders().remove(Headers.EXPIRES); // MUST NOT appear in headers to enable caching with cache-control
-                    exchange.setResponseContentLength(f.length());
-                    exchange.getResponseSender().send(bb);
-                    log(serviceRequest.getIP00(), client, user, method, path, StatusCodes.OK, f.length(), referer, userAgent);
+                    final FileCache.Entry entry = this.fileCache.get(path);
+                    if (entry != null) {
+                        final long d = entry.lastModified;
+                        final FileCache.Variant variant = entry.variant(requestHeaders.getFirst(Headers.ACCEPT_ENCODING));
+                        exchange.putAttachment(STATIC_CONTENT, Boolean.TRUE);
+                        if (entry.compressible) exchange.getResponseHeaders().put(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+                        if (variant.encoding != null) exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, variant.encoding);
+                        exchange.getResponseHeaders().put(Headers.DATE, DateParser.formatRFC1123(new Date()));
+                        exchange.getResponseHeaders().put(Headers.LAST_MODIFIED, entry.lastModifiedString); // like a proper file server
+                        exchange.getResponseHeaders().put(Headers.ETAG, variant.etag.toString());
+                        exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "public, max-age=" + (System.currentTimeMillis() - d + 600)); // 10 minutes cache, for production: increase
+                        exchange.getResponseHeaders().remove(Headers.EXPIRES); // MUST NOT appear in headers to enable caching with cache-control
+                        if (notModified(exchange, variant.etag, entry.lastModified)) {
+                            // conditional request, see https://datatracker.ietf.org/doc/html/rfc7232#section-4.1
+                            exchange.getResponseHeaders().remove(Headers.CONTENT_TYPE);
+                            exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+                            exchange.endExchange();
+                            log(exchange, serviceRequest.getIP00(), user, method, path, StatusCodes.NOT_MODIFIED, 0, referer, userAgent);
+                            return;
+                        }
+                        exchange.setResponseContentLength(variant.length());
+                        exchange.getResponseSender().send(variant.buffer());
+                        log(exchange, serviceRequest.getIP00(), user, method, path, StatusCodes.OK, variant.length(), referer, userAgent);
+                        return;
+                    }
                 } catch (final IOException e) {
                     exchange.setStatusCode(StatusCodes.NOT_FOUND).setReasonPhrase("not found");
                     exchange.getResponseSender().send("");
-                    log(serviceRequest.getIP00(), client, user, method, path, exchange.getStatusCode(), 0, referer, userAgent);
+                    log(exchange, serviceRequest.getIP00(), user, method, path, exchange.getStatusCode(), 0, referer, userAgent);
+                    return;
                 }
-                return;
             }
 
             try {
                 // generate response (handle servlets + handlebars)
-                final ServiceResponse serviceResponse = processPost(serviceRequest);
+                final ServiceResponse serviceResponse = processPost(serviceRequest, 0);
                 String mime = serviceResponse.getMime();
                 if (mime == null) mime = serviceRequest.getMime();
 
-                final byte[] b = serviceResponse.toByteArray(false);
+                // replace an expired session cookie unless the service has set the cookie itself, i.e. on logout
+                final String renewedToken = serviceRequest.getRenewedSessionToken();
+                if (renewedToken != null && !serviceResponse.hasCookie(COOKIE_USER_ID_NAME)) serviceResponse.addSessionCookie(COOKIE_USER_ID_NAME, renewedToken);
                 final Set<Cookie> cookies = serviceResponse.getCookies();
                 for (final Cookie cookie: cookies) exchange.setResponseCookie(cookie);
                 exchange.setStatusCode(serviceResponse.getStatusCode());
                 final Map<String, String> xheaders = serviceResponse.getXtraHeaders();
                 if (xheaders != null) xheaders.forEach((k, v) -> exchange.getResponseHeaders().put(new HttpString(k), v));
 
+                // stream assets to client
+                if (serviceResponse.isAsset()) {
+                    final long size = sendAsset(exchange, serviceResponse.getAsset(), mime);
+                    log(exchange, serviceRequest.getIP00(), user, method, path, exchange.getStatusCode(), size, referer, userAgent);
+                    return;
+                }
+
+                // stream serialized content to client
+                if (serviceResponse.isStream()) {
+                    final long size = sendStream(exchange, serviceResponse.getStream(), "HEAD".equals(method));
+                    log(exchange, serviceRequest.getIP00(), user, method,
+                            "GET".equals(method) ? path + (exchange.getQueryString().length() > 0 ? ("?" + exchange.getQueryString()) : "") : path,
+                                    exchange.getStatusCode(), size, referer, userAgent);
+                    return;
+                }
+
                 // send html to client
+                final byte[] b = serviceResponse.toByteArray(false);
                 if (b == null) {
                     exchange.setStatusCode(StatusCodes.NOT_FOUND).setReasonPhrase("not found").getResponseSender().send("");
                 } else {
@@ -322,7 +433,7 @@ public class WebServer {
                     exchange.setResponseContentLength(b.length);
                     exchange.getResponseSender().send(ByteBuffer.wrap(b));
                 }
-                log(serviceRequest.getIP00(), client, user, method,
+                log(exchange, serviceRequest.getIP00(), user, method,
                         "GET".equals(method) ? path + (exchange.getQueryString().length() > 0 ? ("?" + exchange.getQueryString()) : "") : path,
                                 exchange.getStatusCode(), b == null ? 0 : b.length,
                                         referer, userAgent);
@@ -337,31 +448,159 @@ public class WebServer {
                     exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE).setReasonPhrase(e.getMessage());
                     exchange.getResponseSender().send("");
                 }
-                log(serviceRequest.getIP00(), client, user, method, path, exchange.getStatusCode(), 0, referer, userAgent);
+                log(exchange, serviceRequest.getIP00(), user, method, path, exchange.getStatusCode(), 0, referer, userAgent);
+            }
+        }
+
+        /**
+         * Check if a request can be processed on the IO thread. This is the case for requests without
+         * a request body and without a session cookie which either address a cached static file or
+         * a non-blocking service for which it is known that no template file exists.
+         * @param exchange the exchange in the IO thread
+         * @return true if the request does not block
+         */
+        private boolean isNonBlocking(final HttpServerExchange exchange) {
+            if (!this.nonBlocking) return false;
+            final HttpString method = exchange.getRequestMethod();
+            if (!method.equals(Methods.GET) && !method.equals(Methods.HEAD) && !method.equals(Methods.OPTIONS)) return false;
+            if (exchange.getRequestCookie(COOKIE_USER_ID_NAME) != null) return false; // the authorization is read from the user database
+            String path = exchange.getRequestPath();
+            if (path.length() == 0 || path.charAt(0) != '/') return false;
+            final String user = getUserPrefix(path);
+            if (user == null) return true; // a redirect to the user path
+            path = path.substring(user.length() + 1);
+            final int p = path.lastIndexOf('.');
+            if (!isTemplatingFileType(p < 0 ? "html" : path.substring(p + 1))) {
+                final FileCache.Entry entry = this.fileCache.peek(path);
+                return entry != null && entry.isResolved(exchange.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING));
+            }
+            final Service service = ServiceMap.getService(path);
+            if (service == null || !service.isNonBlocking()) return false;
+            final Long generation = this.filelessPaths.get(path);
+            return generation != null && generation.longValue() == this.fileCache.generation();
+        }
+
+        /**
+         * Send content which is serialized while it is written. The size of the content is unknown,
+         * therefore the response is sent with chunked transfer encoding. The blocking output stream
+         * of the exchange writes through pooled buffers of the connection.
+         * @return the number of bytes sent
+         */
+        private long sendStream(final HttpServerExchange exchange, final ResponseWriter responseWriter, final boolean head) throws IOException {
+            exchange.getResponseHeaders().put(Headers.DATE, DateParser.formatRFC1123(new Date())); // current time because it is generated right now
+            exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "no-cache");
+            if (head) {
+                exchange.endExchange();
+                return 0;
+            }
+            if (exchange.isInIoThread()) {
+                // responses of non-blocking services are small; blocking output is not possible in the IO thread
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                final Writer writer = new OutputStreamWriter(baos, StandardCharsets.UTF_8);
+                responseWriter.write(writer);
+                writer.close();
+                exchange.setResponseContentLength(baos.size());
+                exchange.getResponseSender().send(ByteBuffer.wrap(baos.toByteArray()));
+                return baos.size();
+            }
+            exchange.startBlocking();
+            final CountingOutputStream os = new CountingOutputStream(exchange.getOutputStream());
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), STREAM_BUFFER_SIZE);
+            try {
+                responseWriter.write(writer);
+                writer.close();
+            } catch (final IOException | RuntimeException e) {
+                if (!exchange.isResponseStarted()) throw e;
+                // the header is already sent; the client must see a broken connection instead of a truncated document
+                Logger.warn("stream broken after " + os.count + " bytes: " + e.getMessage());
+                IoUtils.safeClose(exchange.getConnection());
+            }
+            return os.count;
+        }
+
+        /**
+         * Send an asset, supports single byte ranges, see https://datatracker.ietf.org/doc/html/rfc7233
+         * @return the number of bytes sent
+         */
+        private long sendAsset(final HttpServerExchange exchange, final AssetResource asset, final String mime) throws IOException {
+            final HeaderMap responseHeaders = exchange.getResponseHeaders();
+            final HeaderMap requestHeaders = exchange.getRequestHeaders();
+            exchange.putAttachment(STATIC_CONTENT, Boolean.TRUE); // ranges must not be encoded on-the-fly
+            responseHeaders.put(Headers.CONTENT_TYPE, mime);
+            responseHeaders.put(Headers.ACCEPT_RANGES, "bytes");
+            responseHeaders.put(Headers.ETAG, asset.getETag().toString());
+            responseHeaders.put(Headers.LAST_MODIFIED, DateParser.formatRFC1123(new Date(asset.getLastModified())));
+            long offset = 0, len = asset.getSize();
+            final String rangeHeader = requestHeaders.getFirst(Headers.RANGE);
+            final ByteRange range = rangeHeader == null ? null : ByteRange.parse(rangeHeader);
+            if (range != null && range.getRanges() == 1) {
+                final ByteRange.RangeResponseResult result = range.getResponseResult(
+                        asset.getSize(), requestHeaders.getFirst(Headers.IF_RANGE),
+                        new Date(asset.getLastModified() / 1000L * 1000L), // http dates have a resolution of seconds
+                        asset.getETag().toString());
+                if (result != null) { // null means: If-Range does not match, send the whole asset
+                    exchange.setStatusCode(result.getStatusCode());
+                    responseHeaders.put(Headers.CONTENT_RANGE, result.getContentRange());
+                    if (result.getStatusCode() == StatusCodes.REQUEST_RANGE_NOT_SATISFIABLE) {
+                        exchange.setResponseContentLength(0);
+                        exchange.endExchange();
+                        return 0;
+                    }
+                    offset = result.getStart();
+                    len = result.getContentLength();
+                }
             }
+            exchange.setResponseContentLength(len);
+            if (exchange.getRequestMethod().equals(Methods.HEAD)) {
+                exchange.endExchange();
+                return 0;
+            }
+            asset.transfer(exchange, offset, len);
+            return len;
+        }
+
+        /**
+         * Evaluate the conditional request headers. If-None-Match takes precedence; If-Modified-Since
+         * is only evaluated if no If-None-Match is given, see https://datatracker.ietf.org/doc/html/rfc7232#section-6
+         * @return true if the client has a valid copy of the entry and a 304 shall be sent
+         */
+        private boolean notModified(final HttpServerExchange exchange, final ETag etag, final long lastModified) {
+            final HeaderMap requestHeaders = exchange.getRequestHeaders();
+            if (requestHeaders.contains(Headers.IF_NONE_MATCH)) {
+                return !ETagUtils.handleIfNoneMatch(exchange, etag, true);
+            }
+            if (requestHeaders.contains(Headers.IF_MODIFIED_SINCE)) {
+                return !DateUtils.handleIfModifiedSince(exchange, new Date(lastModified));
+            }
+            return false;
         }
 
-        private final void log(final String ip, final String client, final String user, final String method, final String path, final int response, final long size, final String referer, final String userAgent) {
-            Logger.info(ip + " " + client + " " + user + " \"" + method + " " + path + "\" " + response + " " + size + " \"" + referer + "\" \"" + userAgent + "\"");
+        private final void log(final HttpServerExchange exchange, final String ip, final String user, final String method, final String path, final int response, final long size, final String referer, final String userAgent) {
+            WebServer.this.accessLog.log(ip, user, method, path, exchange.getProtocol().toString(), response, size, referer, userAgent);
         }
 
         /**
          * processing a request with parameters
          * @param post the post request with special object "PATH" which containes the request path
+         * @param depth the recursion depth of server-side includes, 0 for the request itself
          * @return full html or any kind of response that should be transferred with http status code 200
          * @throws IOException in case this request cannot be fullfilled.
          */
-        private ServiceResponse processPost(final ServiceRequest serviceRequest) throws IOException {
+        private ServiceResponse processPost(final ServiceRequest serviceRequest, final int depth) throws IOException {
 
             final String path = serviceRequest.getPath();
 
             // load requested file
-            final File f = findFile(path);
+            final Service service = ServiceMap.getService(path);
+            final long generation = this.fileCache.generation();
+            final Long fileless = service != null && service.isNonBlocking() ? this.filelessPaths.get(path) : null;
+            final FileCache.Entry entry = fileless != null && fileless.longValue() == generation ? null : this.fileCache.get(path); // throws FileNotFoundException which must be handled outside
+            if (entry == null && service != null && service.isNonBlocking()) this.filelessPaths.put(path, generation);
+            final File f = entry == null ? null : entry.file;
 
             // generate response (handle servlets + handlebars)
             byte[] b = null;
-            if (f != null) b = file2bytes(f); // throws FileNotFoundException which must be handled outside
-            final Service service = ServiceMap.getService(path);
+            if (entry != null) b = entry.content;
 
             // we distinguish the following four cases of a response construction base on
             // the presence of a file for the given path and a service defined for the given path
@@ -386,6 +625,8 @@ public class WebServer {
             if (b == null && service != null) {
                 // case (2) - construct a result based on the service
                 serviceResponse = service.serve(serviceRequest);
+                if (serviceResponse.getType() == Service.Type.ASSET) return serviceResponse; // assets are streamed by the caller
+                if (serviceResponse.getType() == Service.Type.STREAM) return serviceResponse;
 
                 // depending on the path extension the OBJECT or ARRAY content can be transformed
                 // to html in the shape of a table or a graph
@@ -405,10 +646,7 @@ public class WebServer {
                     if (path.endsWith(".json")) {
                         final String callback = serviceRequest.get("callback", ""); //  used like "callback=?", which encapsulates then json into <callback> "([" <json> "]);"
                         final boolean minified = serviceRequest.get("minified", false);
-                        String jsons = "";
-                        jsons = minified ? json.toString() : json.toString(2);
-                        jsons = callback.length() > 0 ? (callback + "([" + jsons + "]);") : jsons;
-                        serviceResponse.setValue(jsons);
+                        serviceResponse.setValue(ResponseWriter.json(json, minified, callback));
                         return serviceResponse;
                     }
                     if (path.endsWith(".table")) {
@@ -434,49 +672,13 @@ public class WebServer {
                     if (array == null) return null;
 
                     if (path.endsWith(".json")) {
-                        serviceResponse.setValue(array.toString(2));
+                        serviceResponse.setValue(ResponseWriter.json(array, serviceRequest.get("minified", false)));
                         return serviceResponse;
                     }
                     if (path.endsWith(".csv")) {
                         // write a csv file
-                        try {
-                            final List<String> headKeys = new ArrayList<>();
-                            final StringBuilder sb = new StringBuilder();
-                            // there are two types of array representations
-                            // - either as array of arrays where the first array has the column names
-                            // - or as array of objects where each array entry has objects with same keys
-                            final Object head = array.get(0);
-                            if (head instanceof JSONArray) {
-                                // array of arrays
-                                for (int i = 0; i < ((JSONArray) head).length(); i++) headKeys.add(((JSONArray) head).getString(i));
-                                for (final String k: headKeys) sb.append(k).append(';');
-                                sb.setCharAt(sb.length() - 1, '\n');
-                                for (int i = 1; i < array.length(); i++) {
-                                    final JSONArray row = array.getJSONArray(i);
-                                    for (int j = 0; j < headKeys.size(); j++) sb.append(row.getString(j)).append(';');
-                                    sb.setCharAt(sb.length() - 1, '\n');
-                                }
-                            } else {
-                                // array of objects
-                                headKeys.addAll(((JSONObject) head).keySet()); // this MUST be put into an List to ensure that the order is consistent in all lines
-                                for (final String k: headKeys) sb.append(k).append(';');
-                                sb.setCharAt(sb.length() - 1, '\n');
-                                for (int i = 0; i < array.length(); i++) {
-                                    final JSONObject row = array.getJSONObject(i);
-                                    for (final String k: headKeys) {
-                                        final Object vo = row.opt(k);
-                                        String vs = vo == null ? "" : vo instanceof String ? (String) vo : String.valueOf(vo);
-                                        if (vo instanceof Double || vo instanceof Float) vs = vs.replace('.', ','); // german decimal separator
-                                        sb.append(vs).append(';');
-                                    }
-                                    sb.setCharAt(sb.length() - 1, '\n');
-                                }
-                            }
-                            serviceResponse.setValue(sb.toString());
-                            return serviceResponse;
-                        } catch (final JSONException e) {
-                            throw new IOException(e.getMessage());
-                        }
+                        serviceResponse.setValue(ResponseWriter.csv(array));
+                        return serviceResponse;
                     }
                     if (path.endsWith(".table")) {
                         try {
@@ -499,6 +701,17 @@ public class WebServer {
                     final IndexedTable table = serviceResponse.getTable();
                     if (table == null) return null;
 
+                    // tables are serialized row by row
+                    final boolean asObjects = serviceRequest.get("asObjects", true);
+                    if (path.endsWith(".json")) {
+                        serviceResponse.setValue(ResponseWriter.json(table, asObjects, serviceRequest.get("minified", false)));
+                        return serviceResponse;
+                    }
+                    if (path.endsWith(".csv")) {
+                        serviceResponse.setValue(ResponseWriter.csv(table, asObjects));
+                        return serviceResponse;
+                    }
+
                     if (path.endsWith(".table")) {
                         try {
                             serviceResponse.setValue(new TableGenerator(path, table.toJSON(true)).getTable());
@@ -526,13 +739,12 @@ public class WebServer {
                 // apply template using the OBJECT or ARRAY content which the service produced
                 if (serviceResponse.getType() == Service.Type.OBJECT) {
                     final JSONObject json = serviceResponse.getObject();
-                    final Handlebars handlebars = new Handlebars();
                     final Context context = Context
                             .newBuilder(json)
                             .resolver(JSONObjectValueResolver.INSTANCE)
                             .build();
                     try {
-                        final Template template = handlebars.compileInline(new String(b, StandardCharsets.UTF_8));
+                        final Template template = this.templateCache.get(f, b, entry.lastModified);
                         serviceResponse.setValue(template.apply(context));
                     } catch (final HandlebarsException e) {
                         Logger.error("Handlebars Error", e);
@@ -540,13 +752,12 @@ public class WebServer {
                     }
                 } else if (serviceResponse.getType() == Service.Type.ARRAY) {
                     final JSONArray json = serviceResponse.getArray();
-                    final Handlebars handlebars = new Handlebars();
                     final Context context = Context
                             .newBuilder(json)
                             .resolver(JSONObjectValueResolver.INSTANCE)
                             .build();
                     try {
-                        final Template template = handlebars.compileInline(new String(b, StandardCharsets.UTF_8));
+                        final Template template = this.templateCache.get(f, b, entry.lastModified);
                         serviceResponse.setValue(template.apply(context));
                     } catch (final HandlebarsException e) {
                         Logger.error("Handlebars Error", e);
@@ -564,71 +775,69 @@ public class WebServer {
             }
 
             // apply server-side includes
-            if (b != null) b = ssi(serviceRequest, b);
+            if (b != null) b = ssi(serviceRequest, b, service == null ? entry : null, depth);
             serviceResponse.setValue(b);
             return serviceResponse;
         }
 
-        private byte[] ssi(final ServiceRequest serviceRequest, final byte[] b) throws IOException {
-            // apply server-side includes
-            /*
-             * include a file in the same path as current path
-             * <!--#include file="header.shtml" -->
-             *
-             * include a file relatively to server root
-             * <!--#include virtual="script.pl" -->
-             */
-            if (indexOf(b, SSI_MARKER, 0) < 0) return b;
-            String html = new String(b, StandardCharsets.UTF_8);
-            int ssip = html.indexOf("<!--#include virtual=\"");
-            int end;
-            while (ssip >= 0 && (end = html.indexOf("-->", ssip + 24)) > 0 ) { // min length 24; <!--#include virtual="a"
-                final int rightquote = html.indexOf("\"", ssip + 23);
-                if (rightquote <= 0 || rightquote >= end) break;
-                final String virtual = html.substring(ssip + 22, rightquote);
-                final ServiceRequest serviceRequest0 = getQueryParams(serviceRequest.getUser(), serviceRequest.getIPID(), serviceRequest.getIP00(), virtual);
-                final ServiceResponse ibbr = processPost(serviceRequest0);
-                final byte[] ibb = ibbr.toByteArray(false);
-                final String include = ibb == null ? null : new String(ibb, StandardCharsets.UTF_8);
-                if (include == null) {
-                    html = html.substring(0, ssip) + html.substring(end + 3);
-                    ssip = html.indexOf("<!--#include virtual=\"", ssip);
-                } else {
-                    html = html.substring(0, ssip) + include + html.substring(end + 3);
-                    ssip = html.indexOf("<!--#include virtual=\"", ssip + include.length());
+        /**
+         * apply server-side includes
+         * @param serviceRequest the request which produced the document
+         * @param b the document
+         * @param entry the file cache entry if b is the content of that entry, then the tokenized document of the entry is used; may be null
+         * @param depth the include recursion depth
+         * @return the document with resolved includes
+         * @throws IOException
+         */
+        private byte[] ssi(final ServiceRequest serviceRequest, final byte[] b, final FileCache.Entry entry, final int depth) throws IOException {
+            final SSIProcessor.Document document = entry != null && entry.content == b ? entry.document() : SSIProcessor.parse(b);
+            if (!document.hasDirectives()) return b;
+            return document.apply(new SSIProcessor.Resolver() {
+                @Override
+                public byte[] include(final String virtual) throws IOException {
+                    return Fileserver.this.include(serviceRequest, virtual, depth + 1);
                 }
-            }
-            ssip = html.indexOf("<!--#echo var=\"");//  <!--#echo var="CANONICAL_TAG" -->
-            while (ssip >= 0 && (end = html.indexOf("-->", ssip + 17)) > 0 ) { // min length 17; <!--#echo var="a"
-                final int rightquote = html.indexOf("\"", ssip + 16);
-                if (rightquote <= 0 || rightquote >= end) break;
-                final String var = html.substring(ssip + 15, rightquote);
-                if ("CANONICAL_TAG".equals(var)) {
-                    final String include = "<link rel=\"canonical\" href=\"" + "https://searchlab.eu/en" + serviceRequest.getPath() + "\">";
-                    html = html.substring(0, ssip) + include + html.substring(end + 3);
-                    ssip = html.indexOf("<!--#echo var=\"", ssip + include.length());
-                } else {
-                    html = html.substring(0, ssip) + html.substring(end + 3);
-                    ssip = html.indexOf("<!--#echo var=\"", ssip);
+                @Override
+                public byte[] echo(final String var) {
+                    if ("CANONICAL_TAG".equals(var)) {
+                        return ("<link rel=\"canonical\" href=\"" + "https://searchlab.eu/en" + serviceRequest.getPath() + "\">").getBytes(StandardCharsets.UTF_8);
+                    }
+                    return null;
                 }
-            }
-            return html.getBytes(StandardCharsets.UTF_8);
+            });
         }
 
+        private byte[] include(final ServiceRequest serviceRequest, final String virtual, final int depth) throws IOException {
+            if (depth > SSIProcessor.MAX_DEPTH) {
+                Logger.warn("server-side include recursion too deep, omitting " + virtual + " in " + serviceRequest.getPath());
+                return null;
+            }
+            final ServiceRequest serviceRequest0 = getQueryParams(serviceRequest.getUser(), serviceRequest.getIPID(), serviceRequest.getIP00(), virtual);
+            final String path = serviceRequest0.getPath();
+            final Fragment fragment = this.fragmentCache.get(virtual);
+            if (fragment != null && this.fileCache.get(path) != null && fragment.generation == this.fileCache.generation()) return fragment.content;
+            final long generation = this.fileCache.generation();
+            final byte[] ibb = processPost(serviceRequest0, depth).toByteArray(false);
+            if (ibb != null && virtual.indexOf('?') < 0 && isStaticFragment(path, depth)) {
+                this.fragmentCache.put(virtual, new Fragment(ibb, generation));
+            }
+            return ibb;
+        }
 
         /**
-         * find any file that is inside one of the given root paths
-         * @param requestPath
-         * @return a file if it exists or null if it does not exist
+         * a fragment is static if it is a file without a service and all fragments included in that file are also static
          */
-        private File findFile(final String requestPath) {
-            for (final File g: this.rootSet) {
-                File f = new File(g, requestPath);
-                if (!f.exists()) continue;
-                if (f.isDirectory()) f = new File(f, "index.html");
-                return f;
+        private boolean isStaticFragment(final String path, final int depth) throws IOException {
+            if (depth > SSIProcessor.MAX_DEPTH || ServiceMap.getService(path) != null) return false;
+            final FileCache.Entry entry = this.fileCache.get(path);
+            if (entry == null) return false;
+            for (String virtual: entry.document().includes()) {
+                if (virtual.indexOf('?') >= 0) return false;
+                final String user = getUserPrefix(virtual);
+                if (user != null) virtual = virtual.substring(user.length() + 1);
+                if (!isStaticFragment(virtual, depth + 1)) return false;
             }
-            return null;
+            return true;
         }
 
         private String file2String(final File f) throws IOException {
@@ -644,31 +853,6 @@ public class WebServer {
             return html;
         }
 
-        private ByteBuffer file2bytebuffer(final File f) throws IOException {
-            if (! f.exists()) throw new FileNotFoundException("file " + f.toString() + " does not exist");
-            if (! f.isFile()) throw new FileNotFoundException("path " + f.toString() + " is not a file");
-            final RandomAccessFile raf = new RandomAccessFile(f, "r");
-            final FileChannel fc = raf.getChannel();
-            final long fileSize = fc.size();
-            final ByteBuffer bb = ByteBuffer.allocate((int) fileSize);
-            fc.read(bb);
-            ((Buffer)bb).flip();
-            fc.close();
-            raf.close();
-            return bb;
-        }
-
-        private byte[] file2bytes(final File f) throws IOException {
-            if (! f.exists()) throw new FileNotFoundException("file " + f.toString() + " does not exist");
-            if (! f.isFile()) throw new FileNotFoundException("path " + f.toString() + " is not a file");
-            final FileInputStream fis = new FileInputStream(f);
-            final long fileSize = f.length();
-            final byte[] b = new byte[(int) fileSize];
-            fis.read(b);
-            fis.close();
-            return b;
-        }
-
         private ServiceRequest getQueryParams(final HttpServerExchange exchange) throws IOException {
 
             // read client address
@@ -687,16 +871,17 @@ public class WebServer {
             p = ip_id.lastIndexOf('.');
             final String ip_pseudonym = p < 0 ? ip_id : ip_id.substring(0, p) + ".1"; // we use a "1" here to make this a proper ip
 
-            // read query parameters
-            String post_message = "";
+            // read query parameters; the body must not exceed POST_MAXSIZE, the tokenizer reads it into one string before parsing
+            JSONObject json = new JSONObject(true);
             if (exchange.getRequestMethod().equals(Methods.POST) || exchange.getRequestMethod().equals(Methods.PUT)) {
+                final long length = exchange.getRequestContentLength();
+                if (length > POST_MAXSIZE) throw new PostSizeException(length);
                 exchange.startBlocking();
-                post_message = new String(AbstractIO.readAll(exchange.getInputStream(), -1), StandardCharsets.UTF_8);
+                final Reader reader = new InputStreamReader(new LimitedInputStream(exchange.getInputStream(), POST_MAXSIZE), StandardCharsets.UTF_8);
+                try {
+                    json = new JSONObject(new JSONTokener(reader));
+                } catch (final JSONException e) {};
             }
-            JSONObject json = new JSONObject(true);
-            if (post_message.length() > 0) try {
-                json = new JSONObject(new JSONTokener(post_message));
-            } catch (final JSONException e) {};
 
             final Map<String, Deque<String>> queryParams = exchange.getQueryParameters();
             for (final Map.Entry<String, Deque<String>> entry: queryParams.entrySet()) {
@@ -768,6 +953,54 @@ public class WebServer {
         }
     }
 
+    private final static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+        private CountingOutputStream(final OutputStream os) {
+            super(os);
+        }
+        @Override
+        public void write(final int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+    }
+
+    private final static class PostSizeException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private PostSizeException(final long size) {
+            super("request body " + (size < 0 ? "" : "of " + size + " bytes ") + "exceeds http.post.maxsize = " + POST_MAXSIZE);
+        }
+    }
+
+    /**
+     * an input stream which throws a PostSizeException if more than limit bytes are read.
+     * This is needed for chunked requests where the size is not known in advance.
+     */
+    private final static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+        private LimitedInputStream(final InputStream is, final long limit) {
+            super(is);
+            this.remaining = limit;
+        }
+        @Override
+        public int read() throws IOException {
+            final int b = this.in.read();
+            if (b >= 0 && --this.remaining < 0) throw new PostSizeException(-1);
+            return b;
+        }
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int c = this.in.read(b, off, len);
+            if (c > 0 && (this.remaining -= c) < 0) throw new PostSizeException(-1);
+            return c;
+        }
+    }
+
     public static int indexOf(final byte[] source, final byte[] query, int fromIndex) {
 
         if (fromIndex >= source.length) return (query.length == 0 ? source.length : -1);
@@ -815,5 +1048,7 @@ public class WebServer {
 
     public void stop() {
         this.server.stop();
+        this.fileserver.dispatcher.close();
+        this.accessLog.close();
     }
 }
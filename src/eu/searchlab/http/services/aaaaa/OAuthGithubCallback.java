@@ -102,6 +102,7 @@ public class OAuthGithubCallback  extends AbstractService implements Service {
         final String client_id = System.getProperty("github.client.id", "");
         final String client_secret = System.getProperty("github.client.secret", "");
         String userGithubLogin = "";
+        String userGithubId = "";
         String userName = "";
         String userEmail = "";
         String userLocationName = "";
@@ -146,6 +147,7 @@ public class OAuthGithubCallback  extends AbstractService implements Service {
                 String t = new BufferedReader(new InputStreamReader(entity.getContent())).lines().collect(Collectors.joining("\n"));
                 final JSONObject user = new JSONObject(new JSONTokener(t));
                 userGithubLogin = user.optString("login", "");
+                userGithubId = user.optString("id", "");
                 userName = user.optString("name", "");
                 userEmail = user.optString("email", "");
                 userLocationName = user.optString("location", "");
@@ -186,24 +188,26 @@ public class OAuthGithubCallback  extends AbstractService implements Service {
             Logger.info("User Login: " + userEmail);
 
             // get userid for user to authenticate the user
-            // - search email address in authentication database
-            Authentication authentication = Searchlab.userDB.getAuthentiationByEmail(userEmail);
+            // - search the github user id, then the email address in authentication database
+            Authentication authentication = Searchlab.userDB.getAuthentiationByProviderID("github", userGithubId);
+            if (authentication == null) authentication = Searchlab.userDB.getAuthentiationByEmail(userEmail);
             // - if not present, generate new entry
             if (authentication == null) {
                 authentication = new Authentication();
                 authentication.setEmail(userEmail);
             }
+            authentication.setGithubId(userGithubId);
             authentication.setGithubLogin(userGithubLogin); // sets also the github sponsor name if that did not yet existed
             authentication.setName(userName);
             authentication.setVisitDate(new Date());
 
-            // check sponsoring status
-            authentication.setGithubSponsorApproved(Billing.isAGithubSponsor("orbiter", authentication.getGithubSponsor().toLowerCase())); // well only that this is a sponsor, not which level
+            // check sponsoring status; keep the stored status while the sponsors were not loaded yet
+            if (Billing.hasGithubSponsors("orbiter")) authentication.setGithubSponsorApproved(Billing.isAGithubSponsor("orbiter", authentication.getGithubSponsor().toLowerCase())); // well only that this is a sponsor, not which level
 
             // create an authorization cookie
             final String id = authentication.getID();
             final Authorization authorization = new Authorization(id);
-            final String cookie = authorization.toString();
+            final String cookie = authorization.getCookie(authentication.getSponsorGrade());
             serviceResponse.addSessionCookie(WebServer.COOKIE_USER_ID_NAME, cookie);
 
             // create an enry in two databases:
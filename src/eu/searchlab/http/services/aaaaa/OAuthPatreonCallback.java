@@ -201,8 +201,9 @@ public class OAuthPatreonCallback  extends AbstractService implements Service {
             Logger.info("User Login: " + userEmail);
 
             // get userid for user to authenticate the user
-            // - search email address in authentication database
-            Authentication authentication = Searchlab.userDB.getAuthentiationByEmail(userEmail);
+            // - search the patreon user id, then the email address in authentication database
+            Authentication authentication = Searchlab.userDB.getAuthentiationByProviderID("patreon", userPatreonId);
+            if (authentication == null) authentication = Searchlab.userDB.getAuthentiationByEmail(userEmail);
             // - if not present, generate new entry
             if (authentication == null) {
                 authentication = new Authentication();
@@ -219,7 +220,7 @@ public class OAuthPatreonCallback  extends AbstractService implements Service {
             // create an authorization cookie
             final String id = authentication.getID();
             final Authorization authorization = new Authorization(id);
-            final String cookie = authorization.toString();
+            final String cookie = authorization.getCookie(authentication.getSponsorGrade());
             serviceResponse.addSessionCookie(WebServer.COOKIE_USER_ID_NAME, cookie);
 
             // create an entry in two databases:
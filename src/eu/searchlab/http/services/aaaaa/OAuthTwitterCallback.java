@@ -148,6 +148,7 @@ public class OAuthTwitterCallback  extends AbstractService implements Service {
                  */
                 final String userName = credentialsj.optString("name");
                 final String userEmail = credentialsj.optString("email");
+                final String userTwitterId = credentialsj.optString("id_str", user_id);
 
 
                 // Decide if the credentials are sufficient for authentication
@@ -158,13 +159,15 @@ public class OAuthTwitterCallback  extends AbstractService implements Service {
                     Logger.info("User Login: " + userEmail);
 
                     // get userid for user to authenticate the user
-                    // - search email address in authentication database
-                    Authentication authentication = Searchlab.userDB.getAuthentiationByEmail(userEmail);
+                    // - search the twitter user id, then the email address in authentication database
+                    Authentication authentication = Searchlab.userDB.getAuthentiationByProviderID("twitter", userTwitterId);
+                    if (authentication == null) authentication = Searchlab.userDB.getAuthentiationByEmail(userEmail);
                     // - if not present, generate new entry
                     if (authentication == null) {
                         authentication = new Authentication();
                         authentication.setEmail(userEmail);
                     }
+                    authentication.setTwitterId(userTwitterId);
                     authentication.setTwitterLogin(screen_name);
                     authentication.setName(userName);
                     authentication.setVisitDate(new Date());
@@ -172,7 +175,7 @@ public class OAuthTwitterCallback  extends AbstractService implements Service {
                     // create an authorization cookie
                     final String id = authentication.getID();
                     final Authorization authorization = new Authorization(id);
-                    final String cookie = authorization.toString();
+                    final String cookie = authorization.getCookie(authentication.getSponsorGrade());
                     serviceResponse.addSessionCookie(WebServer.COOKIE_USER_ID_NAME, cookie);
 
                     // create an enry in two databases:
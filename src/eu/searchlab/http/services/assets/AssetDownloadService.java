@@ -21,10 +21,10 @@ package eu.searchlab.http.services.assets;
 
 
 import java.io.IOException;
-import java.util.concurrent.ExecutionException;
 
 import eu.searchlab.Searchlab;
 import eu.searchlab.http.AbstractService;
+import eu.searchlab.http.AssetResource;
 import eu.searchlab.http.Service;
 import eu.searchlab.http.ServiceRequest;
 import eu.searchlab.http.ServiceResponse;
@@ -59,17 +59,17 @@ public class AssetDownloadService extends AbstractService implements Service {
         final IOPath assets = Searchlab.accounting.getAssetsPathForUser(user_id);
         final IOPath apppath = assets.append(path);
 
-        byte[] b;
+        // the asset is not loaded here; the WebServer streams it and answers range requests
+        ServiceResponse serviceResponse;
         try {
-            b = Searchlab.io.readAll(apppath).get();
-        } catch (final IOException | InterruptedException | ExecutionException e) {
+            serviceResponse = new ServiceResponse(new AssetResource(Searchlab.io, apppath));
+        } catch (final IOException e) {
             Logger.warn("attempt to list " + apppath.toString(), e);
-            b = new byte[] {};
+            serviceResponse = new ServiceResponse(new byte[] {});
         }
 
         if (path.indexOf("export") >= 0) IndexExportService.exportRunnersCleanup(user_id);
 
-        final ServiceResponse serviceResponse = new ServiceResponse(b);
         serviceResponse.setMime(ServiceRequest.getMime(ext));
         serviceResponse.setSpecial(200, Headers.CONTENT_DISPOSITION.toString(), "attachment; filename=\"" + filename + "\"");
         return serviceResponse;
@@ -62,6 +62,7 @@ public class TableGetService extends AbstractService implements Service {
         final int count = request.get("count", -1);
 
         final IndexedTable table = selectArray(tablename, where, select, count, asObjects);
+        if (path.endsWith(".json") || path.endsWith(".csv")) return new ServiceResponse(table); // serialized row by row by the WebServer
         final JSONArray array = table.toJSON(asObjects);
         return new ServiceResponse(array);
     }
@@ -50,6 +50,7 @@ public class IndexStatusService extends AbstractService implements Service {
         for (final String indexName: indexNames) {
             json.put(indexName, Searchlab.ec.count(indexName));
         }
+        json.put("searchcache", YaCySearchService.resultCache.toJSON());
         return new ServiceResponse(json);
     }
 
@@ -0,0 +1,154 @@
+/**
+ *  SearchResultCache
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http.services.index;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import eu.searchlab.tools.Classification;
+import eu.searchlab.tools.ConcurrentARC;
+import net.yacy.grid.io.index.IndexDAO;
+
+/**
+ * Cache for rendered search results.
+ * The key is computed from the normalized query and all request attributes which change the result.
+ * An entry is valid until its time-to-live is reached or the index generation changes, which happens
+ * when this process deletes documents from the index or starts a crawl. Documents written later by the
+ * crawler processes are only visible after the time-to-live of an entry.
+ */
+public class SearchResultCache {
+
+    private final static class Entry {
+        private final JSONObject channel;
+        private final long time;
+        private final long generation;
+        private Entry(final JSONObject channel, final long time, final long generation) {
+            this.channel = channel;
+            this.time = time;
+            this.generation = generation;
+        }
+    }
+
+    private final ConcurrentARC<String, Entry> cache;
+    private final long ttl;
+    private final AtomicLong hits, misses;
+
+    /**
+     * @param size the maximum number of cached results
+     * @param ttl the maximum age of a result in milliseconds
+     */
+    public SearchResultCache(final int size, final long ttl) {
+        this.cache = new ConcurrentARC<>(size, Math.max(1, Runtime.getRuntime().availableProcessors()));
+        this.ttl = ttl;
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+    }
+
+    /**
+     * compute a cache key
+     * @param query the query string; white space is normalized
+     * @param collections the collection constraint; the order of the collections does not matter
+     * @param contentdom the content domain
+     * @param sort the sort description
+     * @param startRecord the first record of the result page
+     * @param itemsPerPage the size of the result page
+     * @param facetLimit the maximum number of facet entries
+     * @param facetFields the facet field list
+     * @param timezoneOffset the time zone offset of the client
+     * @param user_id the user id constraint, may be null
+     * @return the key
+     */
+    public static String key(
+            final String query, final String[] collections, final Classification.ContentDomain contentdom, final String sort,
+            final int startRecord, final int itemsPerPage, final int facetLimit, final String facetFields,
+            final int timezoneOffset, final String user_id) {
+        final String[] c = collections.clone();
+        Arrays.sort(c);
+        final StringBuilder sb = new StringBuilder(query.length() + 80);
+        sb.append(query.trim().replaceAll("\\s+", " ")).append('\n');
+        for (final String s: c) sb.append(s.trim()).append('|');
+        sb.append('\n').append(contentdom.name())
+          .append('\n').append(sort.trim())
+          .append('\n').append(startRecord).append(',').append(itemsPerPage)
+          .append('\n').append(facetLimit).append(',').append(facetFields)
+          .append('\n').append(timezoneOffset)
+          .append('\n').append(user_id == null ? "" : user_id);
+        return sb.toString();
+    }
+
+    /**
+     * get a cached result channel. The returned object must not be modified.
+     * @param key
+     * @return the channel or null if the result is not cached or not valid any more
+     */
+    public JSONObject get(final String key) {
+        final Entry entry = this.cache.get(key);
+        if (entry == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        if (entry.generation != IndexDAO.getIndexGeneration() || System.currentTimeMillis() - entry.time > this.ttl) {
+            this.cache.remove(key);
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        return entry.channel;
+    }
+
+    /**
+     * put a result channel into the cache. The object must not be modified afterwards.
+     * @param key
+     * @param channel
+     * @param generation the index generation at the time when the search was started
+     */
+    public void put(final String key, final JSONObject channel, final long generation) {
+        this.cache.put(key, new Entry(channel, System.currentTimeMillis(), generation));
+    }
+
+    public void clear() {
+        this.cache.clear();
+    }
+
+    public long hits() {
+        return this.hits.get();
+    }
+
+    public long misses() {
+        return this.misses.get();
+    }
+
+    public double hitRatio() {
+        final long h = this.hits.get();
+        final long m = this.misses.get();
+        return h + m == 0 ? 0.0d : ((double) h) / ((double) (h + m));
+    }
+
+    public JSONObject toJSON() {
+        final JSONObject json = new JSONObject(true);
+        json.put("size", this.cache.size());
+        json.put("hits", this.hits.get());
+        json.put("misses", this.misses.get());
+        json.put("hitratio", Math.round(this.hitRatio() * 10000.0d) / 10000.0d);
+        return json;
+    }
+}
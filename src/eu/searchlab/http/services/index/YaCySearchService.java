@@ -29,13 +29,15 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import eu.searchlab.Searchlab;
+import eu.searchlab.aaaaa.ACL;
 import eu.searchlab.aaaaa.Authentication;
+import eu.searchlab.aaaaa.Authorization.Grade;
 import eu.searchlab.http.AbstractService;
-import eu.searchlab.http.EventCount;
+import eu.searchlab.http.HeavyHitters;
+import eu.searchlab.http.RateLimiter;
 import eu.searchlab.http.Service;
 import eu.searchlab.http.ServiceRequest;
 import eu.searchlab.http.ServiceResponse;
-import eu.searchlab.http.UsageCount;
 import eu.searchlab.http.WebServer;
 import eu.searchlab.tools.Classification;
 import eu.searchlab.tools.DateParser;
@@ -69,11 +71,14 @@ import net.yacy.grid.io.index.YaCyQuery;
  */
 public class YaCySearchService extends AbstractService implements Service {
 
-    private final static long[] frequency_time  = {60000, 300000, 3600000}; // 1 minute, 5 minutes, 1 hour
-    private final static  int[] frequency_count = {30, 60, 120};
+    private final static long BAN_TTL = Long.parseLong(System.getProperty("ip.ban.ttl", "86400000"));
 
-    private final static EventCount badRequests = new EventCount(300000);
-    private final static UsageCount badQueries = new UsageCount(5, 300000);
+    private final static RateLimiter badRequests = new RateLimiter(300000, 16);
+    private final static HeavyHitters badQueries = new HeavyHitters(5, 300000, 16384, 1 << 16);
+
+    public final static SearchResultCache resultCache = new SearchResultCache(
+            Integer.parseInt(System.getProperty("search.cache.size", "1000")),
+            Long.parseLong(System.getProperty("search.cache.ttl", "60000")));
 
     @Override
     public String[] getPaths() {
@@ -83,12 +88,15 @@ public class YaCySearchService extends AbstractService implements Service {
     @Override
     public ServiceResponse serve(final ServiceRequest request) {
 
-        // check request frequency
+        // check request frequency; the limits depend on the grade of the user
+        final Grade grade = request.getAuthorizationGrade();
+        final long[] frequency_time = ACL.get().searchFrequencyTime(grade);
+        final int[] frequency_count = ACL.get().searchFrequencyCount(grade);
         Searchlab.searchRequestCount.event(request.getIPID());
         final int[] eventcount = Searchlab.searchRequestCount.count(request.getIPID(), frequency_time);
         for (int i = 0; i < eventcount.length; i++) {
             if (eventcount[i] > frequency_count[i]) {
-                final long retryAfter = EventCount.retryAfter(eventcount[i], frequency_count[i], frequency_time[i]);
+                final long retryAfter = RateLimiter.retryAfter(eventcount[i], frequency_count[i], frequency_time[i]);
                 Logger.info("Sending TOO MANY REQUESTS to " + request.getIP00() + " with retryAfter = " + retryAfter);
                 return new ServiceResponse().setTooManyRequests(retryAfter);
             }
@@ -107,10 +115,10 @@ public class YaCySearchService extends AbstractService implements Service {
             final boolean approved = badQueries.approve(q, request.getIP00());
             if (!approved) {
                 // looks like DDos. Ban all IPs that made that request
-                WebServer.ipBanned.add(request.getIP00());
+                WebServer.ipBanned.banNetwork(request.getIP00(), BAN_TTL);
                 Logger.info("BAN/queries for IP " + request.getIP00());
                 badQueries.getClients(q).forEach(client -> {
-                    WebServer.ipBanned.add(client);
+                    WebServer.ipBanned.banNetwork(client, BAN_TTL);
                     Logger.info("BAN/queries for IP " + client);
                 });
                 return new ServiceResponse().setBadRequest();
@@ -131,7 +139,7 @@ public class YaCySearchService extends AbstractService implements Service {
         }
         if (badRequests.count(request.getIP00(), 300000)[0] >= 10) {
             Logger.info("BAN/requests for IP " + request.getIP00());
-            WebServer.ipBanned.add(request.getIP00());
+            WebServer.ipBanned.banNetwork(request.getIP00(), BAN_TTL);
             return new ServiceResponse().setBadRequest();
         }
 
@@ -176,6 +184,19 @@ public class YaCySearchService extends AbstractService implements Service {
             if (self) user_id = authentication.getID();
         }
 
+        // look for the result in the cache; the title and search terms are taken from the current query
+        final String cacheKey = explain ? null : SearchResultCache.key(
+                q, collections, contentdom, request.get("sort", ""), startRecord, itemsPerPage,
+                facetLimit, facetFields, timezoneOffset, user_id);
+        if (cacheKey != null) {
+            final JSONObject cached = resultCache.get(cacheKey);
+            if (cached != null) {
+                for (final String key: cached.keySet()) if (channel.opt(key) == null) channel.put(key, cached.opt(key));
+                return new ServiceResponse(json);
+            }
+        }
+        final long generation = IndexDAO.getIndexGeneration();
+
         // run query against search index
         try {
             final YaCyQuery yq = new YaCyQuery(q, collections, contentdom, timezoneOffset);
@@ -289,6 +310,7 @@ public class YaCySearchService extends AbstractService implements Service {
                 pagenav.put(nave);
             }
             channel.put("pagenav", pagenav);
+            if (cacheKey != null) resultCache.put(cacheKey, channel, generation);
         } catch (final Exception e) {
             // any kind of exception can happen if the elastic index is not ready or index does not exist
             Logger.error(e);
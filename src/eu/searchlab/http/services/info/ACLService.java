@@ -36,6 +36,11 @@ public class ACLService extends AbstractService implements Service {
         return new String[] {"/access/services/", "/api/acl.json"};
     }
 
+    @Override
+    public boolean isNonBlocking() {
+        return true; // without a session cookie the acl is computed without user database access
+    }
+
     @Override
     public ServiceResponse serve(final ServiceRequest serviceRequest) throws IOException {
         final JSONObject json = new JSONObject(true);
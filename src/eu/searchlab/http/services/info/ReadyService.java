@@ -36,6 +36,11 @@ public class ReadyService extends AbstractService implements Service {
      return new String[] {"/api/ready.json"};
  }
 
+ @Override
+ public boolean isNonBlocking() {
+     return true;
+ }
+
  @Override
  public ServiceResponse serve(final ServiceRequest serviceRequest) throws IOException {
      if (!Searchlab.ready) throw new IOException("not ready");
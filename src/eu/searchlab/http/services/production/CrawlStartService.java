@@ -27,18 +27,22 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import eu.searchlab.Searchlab;
+import eu.searchlab.aaaaa.ACL;
 import eu.searchlab.aaaaa.Authorization.Grade;
 import eu.searchlab.corpus.Action;
 import eu.searchlab.corpus.ActionSequence;
@@ -47,7 +51,6 @@ import eu.searchlab.http.AbstractService;
 import eu.searchlab.http.Service;
 import eu.searchlab.http.ServiceRequest;
 import eu.searchlab.http.ServiceResponse;
-import eu.searchlab.tools.Cons;
 import eu.searchlab.tools.Digest;
 import eu.searchlab.tools.Domains;
 import eu.searchlab.tools.JSONList;
@@ -57,6 +60,7 @@ import net.yacy.grid.io.index.CrawlstartDocument;
 import net.yacy.grid.io.index.CrawlstartMapping;
 import net.yacy.grid.io.index.ElasticsearchClient;
 import net.yacy.grid.io.index.FulltextIndex;
+import net.yacy.grid.io.index.IndexDAO;
 import net.yacy.grid.io.index.Sort;
 import net.yacy.grid.io.index.WebMapping;
 
@@ -158,10 +162,30 @@ public class CrawlStartService  extends AbstractService implements Service {
         return id;
     }
 
+    private CompletableFuture<Map<String, Long>> aggregation(final String indexName, final String field, final QueryBuilder query) {
+        return Searchlab.ec.aggregationAsync(indexName, field, query).exceptionally(e -> {
+            Logger.error(this.getClass(), "aggregation of " + field + " failed", e);
+            return new HashMap<>();
+        });
+    }
+
+    private CompletableFuture<Long> deleteCrawlerEntries(final QueryBuilder query, final String field) {
+        return Searchlab.ec.deleteByQueryAsync(Searchlab.crawlerIndexName, query).handle((deleted, e) -> {
+            if (e != null) {
+                Logger.warn(this.getClass(), "failed to delete old crawl index entries for " + field, e);
+                return 0L;
+            }
+            Logger.info(this.getClass(), "deleted " + deleted + " old crawl index entries for " + field);
+            return deleted;
+        });
+    }
+
     @Override
     public ServiceResponse serve(final ServiceRequest serviceRequest) {
         final JSONObject crawlstart = crawlStartDefaultClone();
-        final JSONObject aclLevel = serviceRequest.getACL();
+        final Grade grade = serviceRequest.getAuthorizationGrade();
+        final ACL acl = ACL.get();
+        final JSONObject aclLevel = acl.getLevel(grade);
 
         // read call attributes using the default crawlstart key names
         String user_id = serviceRequest.getUser();
@@ -169,7 +193,7 @@ public class CrawlStartService  extends AbstractService implements Service {
             aclLevel.getJSONObject("crawler").getJSONObject("forUser").put("value", user_id);
         } catch (final JSONException e1) {}
         final String for_user_id = serviceRequest.get("forUser", user_id);
-        if (for_user_id.length() > 0 && serviceRequest.getAuthorizationGrade() == Grade.L08_Maintainer) user_id = for_user_id;
+        if (for_user_id.length() > 0 && grade == Grade.L08_Maintainer) user_id = for_user_id;
 
         try {
             for (final String key: crawlstart.keySet()) {
@@ -194,11 +218,11 @@ public class CrawlStartService  extends AbstractService implements Service {
         try {
             final CrawlstartURLSplitter crawlstartURLs = new CrawlstartURLSplitter(crawlstart.getString("crawlingURL"));
             int crawlingDepth = crawlstart.optInt("crawlingDepth", 3);
-            crawlingDepth = Math.min(crawlingDepth, aclLevel.optJSONObject("crawler").optJSONObject("crawlingDepth").optInt("max"));
+            crawlingDepth = Math.min(crawlingDepth, (int) acl.limit(grade, ACL.Limit.CRAWLING_DEPTH));
             crawlstart.put("crawlingDepth", Math.min(crawlingDepth, 8)); // crawlingDepth shall not exceed 8 - this is used for enhanced balancing to be able to reach crawl leaves
             String mustmatch = crawlstart.optString("mustmatch", CrawlStart.defaultValues.getString("mustmatch")).trim();
             String range = crawlstart.optString("range", "wide");
-            if (aclLevel.optJSONObject("crawler").optJSONObject("collection").optBoolean("disabled")) range = aclLevel.optJSONObject("crawler").optJSONObject("collection").optString("value", "domain");
+            if (!acl.permits(grade, ACL.Permission.COLLECTION)) range = acl.collectionValue(grade);
             final boolean fullDomain = "domain".equals(range); // special property in simple crawl start
             final boolean subPath    = "subpath".equals(range); // special property in simple crawl start
             final boolean wide       = "wide".equals(range); // special property in simple crawl start
@@ -231,13 +255,13 @@ public class CrawlStartService  extends AbstractService implements Service {
                 final JSONObject singlecrawl = new JSONObject();
                 for (final String key: crawlstart.keySet()) singlecrawl.put(key, crawlstart.get(key)); // create a clone of crawlstart
 
-                // find all user_ids which have participated in the same crawl
-                final Map<String, Long> agg_host_s = Searchlab.ec.aggregation(
-                        System.getProperties().getProperty("grid.elasticsearch.indexName.web", ElasticsearchClient.DEFAULT_INDEXNAME_WEB),
-                        WebMapping.user_id_s.name(), Cons.of(WebMapping.host_s.name(), url.getHost()));
-                final Map<String, Long> agg_host_sxt = Searchlab.ec.aggregation(
-                        System.getProperties().getProperty("grid.elasticsearch.indexName.web", ElasticsearchClient.DEFAULT_INDEXNAME_WEB),
-                        WebMapping.user_id_sxt.name(), Cons.of(WebMapping.host_s.name(), url.getHost()));
+                // find all user_ids which have participated in the same crawl; both aggregations run concurrently
+                final String webIndexName = System.getProperties().getProperty("grid.elasticsearch.indexName.web", ElasticsearchClient.DEFAULT_INDEXNAME_WEB);
+                final QueryBuilder hostQuery = QueryBuilders.constantScoreQuery(QueryBuilders.termQuery(WebMapping.host_s.name(), url.getHost()));
+                final CompletableFuture<Map<String, Long>> agg_host_s_future = aggregation(webIndexName, WebMapping.user_id_s.name(), hostQuery);
+                final CompletableFuture<Map<String, Long>> agg_host_sxt_future = aggregation(webIndexName, WebMapping.user_id_sxt.name(), hostQuery);
+                final Map<String, Long> agg_host_s = agg_host_s_future.join();
+                final Map<String, Long> agg_host_sxt = agg_host_sxt_future.join();
                 for (final String s: agg_host_s.keySet()) {
                     if (!agg_host_sxt.containsKey(s)) agg_host_sxt.put(s, agg_host_s.get(s));
                 }
@@ -278,41 +302,43 @@ public class CrawlStartService  extends AbstractService implements Service {
                 // While it is processed. The entry also serves as a double-check entry to terminate a crawl even if the
                 // crawler is restarted.
 
+                // delete old crawl index entries; the deletions are independent and run concurrently
+                final List<CompletableFuture<Long>> deletions = new ArrayList<>();
+
                 // delete the start url
                 final String url_id = Digest.encodeMD5Hex(start_url);
-                long deleted = Searchlab.ec.deleteByQuery(Searchlab.crawlerIndexName, QueryBuilders.termQuery("_id", url_id));
-                Logger.info(this.getClass(), "deleted " + deleted + " old crawl index entries for _id");
+                deletions.add(deleteCrawlerEntries(QueryBuilders.termQuery("_id", url_id), "_id"));
 
                 // Because 'old' crawls may block new ones we identify possible blocking entries using the mustmatch pattern.
                 // We therefore delete all entries with the same mustmatch pattern before a crawl starts.
                 if (mustmatch.equals(".*")) {
                     // we cannot delete all wide crawl status urls!
-                    final FulltextIndex.Query q = Searchlab.ec.query(
+                    final CompletableFuture<FulltextIndex.Query> query = Searchlab.ec.queryAsync(
                             Searchlab.crawlstartIndexName,
                             QueryBuilders.termQuery(CrawlstartMapping.start_url_s.name(), start_url),
                             null, Sort.DEFAULT, null, 0, 0, 100, 0, false);
-                    final List<Map<String, Object>> results = q.results;
+                    // we also delete all entries with same start_url and start_ssld
+                    deletions.add(deleteCrawlerEntries(QueryBuilders.termQuery("start_url_s", start_url), "start_url_s"));
+                    deletions.add(deleteCrawlerEntries(QueryBuilders.termQuery("start_ssld_s", start_ssld), "start_ssld_s"));
+                    final List<Map<String, Object>> results = query.exceptionally(e -> {
+                        Logger.warn(this.getClass(), "failed to find old crawl starts", e);
+                        return new FulltextIndex.Query();
+                    }).join().results;
                     // from there we pick out the crawl start id and delete using them
                     for (int hitc = 0; hitc < results.size(); hitc++) {
                         final Map<String, Object> map = results.get(hitc);
                         crawlid = (String) map.get(CrawlstartMapping.crawl_id_s.name());
                         if (crawlid != null && crawlid.length() > 0) {
-                            deleted = Searchlab.ec.deleteByQuery(Searchlab.crawlerIndexName, QueryBuilders.termQuery("crawl_id_s", crawlid));
-                            Logger.info(this.getClass(), "deleted " + deleted + " old crawl index entries for crawl_id_s");
+                            deletions.add(deleteCrawlerEntries(QueryBuilders.termQuery("crawl_id_s", crawlid), "crawl_id_s"));
                         }
                     }
-                    // we also delete all entries with same start_url and start_ssld
-                    deleted = Searchlab.ec.deleteByQuery(Searchlab.crawlerIndexName, QueryBuilders.termQuery("start_url_s", start_url));
-                    Logger.info(this.getClass(), "deleted " + deleted + " old crawl index entries for start_url_s");
-                    deleted = Searchlab.ec.deleteByQuery(Searchlab.crawlerIndexName, QueryBuilders.termQuery("start_ssld_s", start_ssld));
-                    Logger.info(this.getClass(), "deleted " + deleted + " old crawl index entries for start_ssld_s");
                 } else {
                     // this should fit exactly on the old urls
                     // test url:
                     // curl -s -H 'Content-Type: application/json' -X GET http://localhost:9200/crawler/_search?q=_id:0a800a8ec1cc76b5eb8412ec494babc9 | python3 -m json.tool
-                    deleted = Searchlab.ec.deleteByQuery(Searchlab.crawlerIndexName, QueryBuilders.termQuery("mustmatch_s", mustmatch.replace("\\", "\\\\")));
-                    Logger.info(this.getClass(), "deleted " + deleted + " old crawl index entries");
+                    deletions.add(deleteCrawlerEntries(QueryBuilders.termQuery("mustmatch_s", mustmatch.replace("\\", "\\\\")), "mustmatch_s"));
                 }
+                CompletableFuture.allOf(deletions.toArray(new CompletableFuture<?>[deletions.size()])).join();
                 // we do not create a crawler document entry here because that would conflict with the double check.
                 // crawler documents must be written after the double check has happened.
 
@@ -338,6 +364,7 @@ public class CrawlStartService  extends AbstractService implements Service {
                 Searchlab.accounting.storeCrawlStart(user_id, json);
                 Searchlab.accounting.storeCorpus(user_id, range, crawlstartURLs.getURLs(), collections.keySet(), crawlingDepth, 0);
             }
+            if (allCrawlstarts.getActions().size() > 0) IndexDAO.indexChanged(); // a re-crawl replaces documents in the index
 
             // construct a crawl start message
             allCrawlstarts.setData(new JSONArray().put(crawlstart));
@@ -61,7 +61,7 @@ public class FileIO extends AbstractIO implements GenericIO {
         return f;
     }
 
-    private File getObjectFile(final IOPath iop) {
+    public File getObjectFile(final IOPath iop) {
         return getObjectFile(iop.getBucket(), iop.getObjectPath());
     }
 
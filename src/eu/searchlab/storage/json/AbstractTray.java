@@ -103,15 +103,23 @@ public abstract class AbstractTray implements Tray {
     protected void ensureLoaded() throws IOException {
         if (this.object == null) {
             this.object = load();
+            loaded();
         } else {
             final long lastModified = this.io.getIO().lastModified(this.iop);
             if (lastModified > this.lastLoadTime) {
                 this.object = load();
                 this.lastLoadTime = System.currentTimeMillis();
+                loaded();
             }
         }
     }
 
+    /**
+     * called within the mutex each time the object was (re-)loaded from the backend
+     */
+    protected void loaded() {
+    }
+
     private ConcurrentHashMap<String, Object> load() throws IOException {
         final IOObject[] o = this.io.readForced(this.iop);
         final ConcurrentHashMap<String, Object> map = o[0].getMap();
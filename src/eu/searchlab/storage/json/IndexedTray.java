@@ -0,0 +1,226 @@
+/**
+ *  IndexedTray
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.storage.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import eu.searchlab.storage.io.ConcurrentIO;
+import eu.searchlab.storage.io.FileIO;
+import eu.searchlab.storage.io.IOPath;
+
+/**
+ * An IndexedTray is a PersistentTray with secondary indexes.
+ * For each of the given index fields, a map from the field value to the key of the object is maintained.
+ * The indexes are changed within the same mutex as the objects and are rebuilt each time the tray
+ * is loaded from the backend, i.e. after another process has written the tray.
+ * Only objects with non-empty string values in an index field are indexed. If two objects have the same
+ * value, the index points to the object which was written last; if that object is removed or changes the
+ * value, the index points to one of the remaining objects with that value.
+ */
+public class IndexedTray extends PersistentTray implements Tray {
+
+    private final String[] fields;
+    private Map<String, Map<String, String>> indexes; // field -> (value -> key)
+
+    public IndexedTray(final ConcurrentIO io, final IOPath iop, final String... fields) {
+        super(io, iop);
+        this.fields = fields;
+        synchronized (this.mutex) {
+            rebuild();
+        }
+    }
+
+    @Override
+    protected void loaded() {
+        if (this.fields != null) rebuild(); // null if called from the constructor of the super class
+    }
+
+    private void rebuild() {
+        final Map<String, Map<String, String>> indexes = new HashMap<>();
+        for (final String field: this.fields) indexes.put(field, new HashMap<>());
+        this.indexes = indexes;
+        if (this.object == null) return;
+        for (final Map.Entry<String, Object> entry: this.object.entrySet()) {
+            if (entry.getValue() instanceof JSONObject) index(entry.getKey(), (JSONObject) entry.getValue());
+        }
+    }
+
+    private void index(final String key, final JSONObject json) {
+        for (final String field: this.fields) {
+            final String value = json.optString(field, "");
+            if (value.length() > 0) this.indexes.get(field).put(value, key);
+        }
+    }
+
+    private void unindex(final String key, final Object value, final JSONObject replacement) {
+        if (!(value instanceof JSONObject)) return;
+        for (final String field: this.fields) {
+            final String v = ((JSONObject) value).optString(field, "");
+            if (v.length() == 0) continue;
+            if (replacement != null && v.equals(replacement.optString(field, ""))) continue; // value does not change
+            final Map<String, String> index = this.indexes.get(field);
+            if (!key.equals(index.get(v))) continue; // the index points to another object with the same value
+            index.remove(v);
+            for (final Map.Entry<String, Object> entry: this.object.entrySet()) {
+                if (entry.getKey().equals(key) || !(entry.getValue() instanceof JSONObject)) continue;
+                if (v.equals(((JSONObject) entry.getValue()).optString(field, ""))) {
+                    index.put(v, entry.getKey());
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public Tray put(final String key, final JSONObject value) throws IOException {
+        synchronized (this.mutex) {
+            ensureLoaded();
+            unindex(key, this.object.get(key), value);
+            super.put(key, value);
+            index(key, value);
+            return this;
+        }
+    }
+
+    @Override
+    public Tray put(final String key, final JSONArray value) throws IOException {
+        synchronized (this.mutex) {
+            ensureLoaded();
+            unindex(key, this.object.get(key), null);
+            super.put(key, value);
+            return this;
+        }
+    }
+
+    @Override
+    public Tray remove(final String key) throws IOException {
+        synchronized (this.mutex) {
+            ensureLoaded();
+            unindex(key, this.object.get(key), null);
+            super.remove(key);
+            return this;
+        }
+    }
+
+    /**
+     * get the key of an object by the value of an index field
+     * @param field the index field
+     * @param value the value of the field
+     * @return the key or null if no object has this value
+     * @throws IOException
+     */
+    public String getKey(final String field, final String value) throws IOException {
+        synchronized (this.mutex) {
+            ensureLoaded();
+            final Map<String, String> index = this.indexes.get(field);
+            if (index == null) throw new IOException("no index for field " + field);
+            return index.get(value);
+        }
+    }
+
+    /**
+     * get an object by the value of an index field
+     * @param field the index field
+     * @param value the value of the field
+     * @return a copy of the object or null if no object has this value
+     * @throws IOException
+     */
+    public JSONObject getObject(final String field, final String value) throws IOException {
+        synchronized (this.mutex) {
+            final String key = getKey(field, value);
+            return key == null ? null : getObject(key);
+        }
+    }
+
+    /**
+     * Consistency test with concurrent writes.
+     * Several threads create, change and delete objects with unique email fields. Afterwards each index entry
+     * must point to an object with that value, each object must be found by its value, and a tray which is
+     * loaded from the same file must have the same index.
+     */
+    public static void main(final String[] args) {
+        try {
+            final File dir = Files.createTempDirectory("indexedtray").toFile();
+            final FileIO io = new FileIO(dir);
+            io.makeBucket("test");
+            final ConcurrentIO cio = new ConcurrentIO(io, 10000);
+            final IOPath iop = new IOPath("test", "authn.json");
+            final IndexedTray tray = new IndexedTray(cio, iop, "email");
+            final int threads = 8, count = 200;
+            final AtomicInteger errors = new AtomicInteger(0);
+            final Thread[] t = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                final int n = i;
+                t[i] = new Thread(() -> {
+                    try {
+                        for (int j = 0; j < count; j++) {
+                            final String key = "id" + (j % 50);
+                            final JSONObject json = new JSONObject();
+                            json.put("email", "user" + n + "_" + j + "@example.org");
+                            tray.put(key, json);
+                            if (j % 7 == 0) tray.remove("id" + ((j + 1) % 50));
+                        }
+                    } catch (final IOException e) {
+                        e.printStackTrace();
+                        errors.incrementAndGet();
+                    }
+                });
+                t[i].start();
+            }
+            for (int i = 0; i < threads; i++) t[i].join();
+            final IndexedTray reloaded = new IndexedTray(cio, iop, "email");
+            int checked = 0;
+            for (final String key: tray.keys()) {
+                final String email = tray.getObject(key).optString("email");
+                if (!key.equals(tray.getKey("email", email))) errors.incrementAndGet();
+                if (!key.equals(reloaded.getKey("email", email))) errors.incrementAndGet();
+                checked++;
+            }
+            for (final Map.Entry<String, String> entry: tray.indexes.get("email").entrySet()) {
+                final JSONObject json = tray.getObject(entry.getValue());
+                if (json == null || !entry.getKey().equals(json.optString("email"))) errors.incrementAndGet();
+            }
+            if (tray.indexes.get("email").size() != checked) errors.incrementAndGet();
+
+            // two objects with the same value: removing the indexed one must keep the value indexed
+            tray.put("shared1", new JSONObject().put("email", "shared@example.org"));
+            tray.put("shared2", new JSONObject().put("email", "shared@example.org"));
+            tray.remove("shared2");
+            if (!"shared1".equals(tray.getKey("email", "shared@example.org"))) errors.incrementAndGet();
+            tray.put("shared2", new JSONObject().put("email", "shared@example.org"));
+            tray.put("shared1", new JSONObject().put("email", "other@example.org"));
+            if (!"shared2".equals(tray.getKey("email", "shared@example.org"))) errors.incrementAndGet();
+            tray.remove("shared2");
+            if (tray.getKey("email", "shared@example.org") != null) errors.incrementAndGet();
+            System.out.println(checked + " objects checked, " + errors.get() + " errors");
+        } catch (final IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,380 @@
+/**
+ *  SegmentedLog
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.storage.json;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import eu.searchlab.operation.FrequencyTask;
+import eu.searchlab.storage.io.FileIO;
+import eu.searchlab.storage.io.GenericIO;
+import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.storage.io.IOPathMeta;
+import eu.searchlab.tools.Logger;
+
+/**
+ * An append-only log of json objects, stored as immutable segments.
+ * Appended objects are buffered in memory and written by check() as one gzipped jsonlist segment for each hour,
+ * so an event costs no write of its own and existing objects are never rewritten. The segments are named
+ * {hour}-{writer}-{time}_{sequence}.jsonlist.gz. Once an hour is over, check() compacts the segments which this writer has
+ * written for the hour into {hour}-{writer}.jsonlist.gz. The first line of a compacted segment lists the names of the
+ * merged segments; readers skip these if they still exist because the compaction was interrupted before they
+ * were removed. Only the writer of a segment compacts it, so processes with different writer names can share a log.
+ * The writer name must be stable across restarts, otherwise the segments of former names are never compacted; the
+ * default name is the configured log.writer, and processes which share a storage must configure different names.
+ * Each object gets a "time" attribute with the append time in milliseconds, if it has none.
+ */
+public class SegmentedLog implements FrequencyTask {
+
+    private final static String EXT = ".jsonlist.gz";
+    private final static String DEFAULT_WRITER = "searchlab";
+    private final static long HOUR = 3600000L;
+    private final static DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHH").withZone(ZoneOffset.UTC);
+    private final static DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS").withZone(ZoneOffset.UTC);
+
+    private final GenericIO io;
+    private final IOPath base;
+    private final String writer;
+    private final ConcurrentLinkedQueue<JSONObject> buffer;
+    private long compacted; // the hour up to which the segments of this writer are compacted
+    private long sequence;  // makes names of segments unique which are written within the same millisecond
+
+    /**
+     * @param io
+     * @param base the folder of the segments
+     * @param writer a name of the writing process which must be the same after a restart; only letters, digits, '.' and '_' are used
+     */
+    public SegmentedLog(final GenericIO io, final IOPath base, final String writer) {
+        this.io = io;
+        this.base = base;
+        this.writer = writer.replaceAll("[^a-zA-Z0-9._]", "_");
+        this.buffer = new ConcurrentLinkedQueue<>();
+        this.compacted = 0;
+        this.sequence = 0;
+    }
+
+    /**
+     * create a log with the configured writer name log.writer
+     * @param io
+     * @param base the folder of the segments
+     */
+    public SegmentedLog(final GenericIO io, final IOPath base) {
+        this(io, base, writer());
+    }
+
+    private static String writer() {
+        final String writer = System.getProperty("log.writer", "").trim();
+        return writer.length() == 0 ? DEFAULT_WRITER : writer;
+    }
+
+    /**
+     * append an object; it is written with the next check()
+     * @param event
+     * @return this
+     */
+    public SegmentedLog append(final JSONObject event) {
+        if (event.optLong("time", 0) == 0) event.put("time", System.currentTimeMillis());
+        this.buffer.add(event);
+        return this;
+    }
+
+    /**
+     * @return the number of objects which are not written yet
+     */
+    public int buffered() {
+        return this.buffer.size();
+    }
+
+    /**
+     * write buffered objects and compact the segments of finished hours
+     */
+    @Override
+    public void check() {
+        flush();
+        final long hour = System.currentTimeMillis() / HOUR;
+        if (hour - 1 > this.compacted) compact(hour - 1);
+    }
+
+    /**
+     * write all buffered objects as new segments, one for each hour
+     */
+    public synchronized void flush() {
+        if (this.buffer.isEmpty()) return;
+        final Map<Long, List<JSONObject>> hours = new TreeMap<>();
+        JSONObject event;
+        while ((event = this.buffer.poll()) != null) {
+            hours.computeIfAbsent(event.optLong("time") / HOUR, h -> new ArrayList<>()).add(event);
+        }
+        final String time = TIME_FORMAT.format(Instant.now()) + "_" + (this.sequence++);
+        for (final Map.Entry<Long, List<JSONObject>> entry: hours.entrySet()) {
+            final IOPath iop = this.base.append(HOUR_FORMAT.format(Instant.ofEpochMilli(entry.getKey() * HOUR)) + "-" + this.writer + "-" + time + EXT);
+            try {
+                this.io.writeGZIP(iop, jsonlist(null, entry.getValue()));
+            } catch (final IOException e) {
+                Logger.warn("cannot write log segment " + iop.toString() + ", keeping " + entry.getValue().size() + " objects for the next attempt", e);
+                this.buffer.addAll(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * compact the segments of this writer for all hours before the given hour
+     * @param before the hour number, milliseconds / 3600000, which is not compacted
+     */
+    private synchronized void compact(final long before) {
+        final Map<String, List<String>> parts = new TreeMap<>(); // hour -> segment names of this writer
+        final Set<String> compactedHours = new HashSet<>();
+        final String beforeHour = HOUR_FORMAT.format(Instant.ofEpochMilli(before * HOUR));
+        try {
+            for (final String name: segments()) {
+                final String[] s = name.substring(0, name.length() - EXT.length()).split("-");
+                if (!this.writer.equals(s[1]) || s[0].compareTo(beforeHour) >= 0) continue;
+                if (s.length == 2) compactedHours.add(s[0]); else parts.computeIfAbsent(s[0], h -> new ArrayList<>()).add(name);
+            }
+            for (final Map.Entry<String, List<String>> entry: parts.entrySet()) {
+                final IOPath target = this.base.append(entry.getKey() + "-" + this.writer + EXT);
+                final List<JSONObject> events = new ArrayList<>();
+                final Set<String> merged = new HashSet<>();
+                if (compactedHours.contains(entry.getKey())) merged.addAll(read(target, events));
+                final List<String> fresh = new ArrayList<>();
+                for (final String name: entry.getValue()) if (!merged.contains(name)) fresh.add(name);
+                if (!fresh.isEmpty()) {
+                    for (final String name: fresh) read(this.base.append(name), events);
+                    merged.addAll(fresh);
+                    Collections.sort(events, (a, b) -> Long.compare(a.optLong("time"), b.optLong("time")));
+                    this.io.writeGZIP(target, jsonlist(merged, events));
+                }
+                for (final String name: entry.getValue()) this.io.remove(this.base.append(name));
+            }
+            this.compacted = before;
+        } catch (final IOException e) {
+            Logger.warn("cannot compact log " + this.base.toString(), e);
+        }
+    }
+
+    /**
+     * read all objects within a time range. The objects of all writers and the buffered objects are merged.
+     * @param from the start time in milliseconds, inclusive
+     * @param to the end time in milliseconds, exclusive; may be Long.MAX_VALUE for an open-ended range
+     * @return the objects, ordered by time
+     * @throws IOException
+     */
+    public List<JSONObject> read(final long from, final long to) throws IOException {
+        // the hour names are compared as strings; these have only ten digits up to the current hour,
+        // so the last hour is clamped to the hour after the current one to include objects with a slightly skewed time
+        final long last = Math.min(Math.max(from, to - 1), (System.currentTimeMillis() / HOUR + 1) * HOUR);
+        final String fromHour = HOUR_FORMAT.format(Instant.ofEpochMilli(from / HOUR * HOUR));
+        final String toHour = HOUR_FORMAT.format(Instant.ofEpochMilli(last / HOUR * HOUR));
+        final List<String> names = new ArrayList<>();
+        for (final String name: segments()) {
+            final String hour = name.substring(0, name.indexOf('-'));
+            if (hour.compareTo(fromHour) >= 0 && hour.compareTo(toHour) <= 0) names.add(name);
+        }
+        // read compacted segments first to know which segments they contain
+        final List<JSONObject> events = new ArrayList<>();
+        final Set<String> merged = new HashSet<>();
+        for (final String name: names) if (name.split("-").length == 2) merged.addAll(read(this.base.append(name), events));
+        for (final String name: names) {
+            if (name.split("-").length == 2 || merged.contains(name)) continue;
+            try {
+                read(this.base.append(name), events);
+            } catch (final IOException e) {
+                // the segment was removed by a compaction after we listed it; then the compacted segment contains it
+                if (this.io.exists(this.base.append(name))) throw e;
+            }
+        }
+        events.addAll(this.buffer);
+        final List<JSONObject> result = new ArrayList<>(events.size());
+        for (final JSONObject event: events) {
+            final long time = event.optLong("time");
+            if (time >= from && time < to) result.add(event);
+        }
+        Collections.sort(result, (a, b) -> Long.compare(a.optLong("time"), b.optLong("time")));
+        return result;
+    }
+
+    /**
+     * @return the names of all segments, sorted
+     */
+    private List<String> segments() throws IOException {
+        final List<String> names = new ArrayList<>();
+        final List<IOPathMeta> list;
+        try {
+            list = this.io.list(this.base);
+        } catch (final IOException e) {
+            if (this.io.exists(this.base)) throw e;
+            return names; // nothing written yet
+        }
+        final String prefix = this.base.getObjectPath() + "/";
+        for (final IOPathMeta meta: list) {
+            final String path = meta.getIOPath().getObjectPath();
+            if (!path.startsWith(prefix)) continue;
+            final String name = path.substring(prefix.length());
+            if (name.indexOf('/') >= 0 || !name.endsWith(EXT)) continue;
+            final int dashes = name.split("-").length - 1;
+            if (dashes == 1 || dashes == 2) names.add(name);
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static byte[] jsonlist(final Set<String> merged, final List<JSONObject> events) {
+        final StringBuilder sb = new StringBuilder();
+        if (merged != null) {
+            final List<String> names = new ArrayList<>(merged);
+            Collections.sort(names);
+            final JSONObject header = new JSONObject(true);
+            header.put("segments", new JSONArray(names));
+            sb.append(header.toString()).append('\n');
+        }
+        for (final JSONObject event: events) sb.append(event.toString()).append('\n');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * read a segment
+     * @param iop
+     * @param events the list where the objects are added
+     * @return the names of the merged segments if this is a compacted segment, otherwise an empty set
+     * @throws IOException
+     */
+    private Set<String> read(final IOPath iop, final List<JSONObject> events) throws IOException {
+        final Set<String> merged = new HashSet<>();
+        try (final InputStream is = this.io.readGZIP(iop);
+             final BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            String line;
+            boolean first = true;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) continue;
+                try {
+                    final JSONObject json = new JSONObject(new JSONTokener(line));
+                    final JSONArray segments = first ? json.optJSONArray("segments") : null;
+                    if (segments != null) {
+                        for (int i = 0; i < segments.length(); i++) merged.add(segments.optString(i));
+                    } else {
+                        events.add(json);
+                    }
+                } catch (final JSONException e) {
+                    Logger.warn("bad line in log segment " + iop.toString() + ": " + e.getMessage());
+                }
+                first = false;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Test of the write amplification and of the consistency of reads during compaction.
+     * Events are appended and flushed like in production; the bytes written per event must not grow with the
+     * history. Then the hours are compacted and the log must still return every event exactly once.
+     * Usage: SegmentedLog [hours] [events per hour]
+     */
+    public static void main(final String[] args) {
+        final int hours = args.length > 0 ? Integer.parseInt(args[0]) : 48;
+        final int perHour = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        try {
+            final File dir = Files.createTempDirectory("segmentedlog").toFile();
+            final FileIO io = new FileIO(dir);
+            io.makeBucket("test");
+            new File(io.getObjectFile(new IOPath("test", "audit")).getPath()).mkdirs(); // FileIO does not create folders
+            final IOPath base = new IOPath("test", "audit");
+            final SegmentedLog log = new SegmentedLog(io, base, "test-writer");
+            final long start = (System.currentTimeMillis() / HOUR - hours) * HOUR;
+            long bytesFirst = 0, bytesLast = 0;
+            int count = 0;
+            for (int h = 0; h < hours; h++) {
+                final long before = du(dir);
+                for (int i = 0; i < perHour; i++) {
+                    final JSONObject event = new JSONObject(true);
+                    event.put("time", start + h * HOUR + i * (HOUR / perHour));
+                    event.put("event", "login");
+                    event.put("id", Integer.toString(100000000 + count++));
+                    log.append(event);
+                    if (i % 60 == 59) log.flush(); // one flush per simulated minute
+                }
+                log.flush();
+                final long written = du(dir) - before;
+                if (h == 0) bytesFirst = written;
+                bytesLast = written;
+            }
+            System.out.println(count + " events, bytes written in the first hour: " + bytesFirst + ", in the last hour: " + bytesLast);
+            System.out.println("segments before compaction: " + log.segments().size() + ", events read: " + log.read(start, start + hours * HOUR).size());
+
+            // interrupted compaction: a compacted segment exists while the merged parts still exist
+            final List<String> names = log.segments();
+            final String firstHour = names.get(0).substring(0, names.get(0).indexOf('-'));
+            final List<JSONObject> events = new ArrayList<>();
+            final Set<String> merged = new HashSet<>();
+            for (final String name: names) if (name.startsWith(firstHour)) {
+                log.read(base.append(name), events);
+                merged.add(name);
+            }
+            io.writeGZIP(base.append(firstHour + "-" + log.writer + EXT), jsonlist(merged, events));
+            System.out.println("events read after interrupted compaction: " + log.read(start, start + hours * HOUR).size());
+
+            log.compact(System.currentTimeMillis() / HOUR);
+            final List<JSONObject> all = log.read(start, start + hours * HOUR);
+            final Set<String> ids = new HashSet<>();
+            for (final JSONObject event: all) ids.add(event.optString("id"));
+            System.out.println("segments after compaction: " + log.segments().size() + ", events read: " + all.size() + ", distinct: " + ids.size() +
+                    ", one hour: " + log.read(start + HOUR, start + 2 * HOUR).size());
+
+            // open-ended reads, as done by AuthorizationTS, must find the stored segments and the buffer
+            final JSONObject latest = new JSONObject(true);
+            latest.put("time", System.currentTimeMillis());
+            latest.put("event", "login");
+            latest.put("id", Integer.toString(100000000 + count++));
+            log.append(latest);
+            System.out.println("open-ended read: " + log.read(0, Long.MAX_VALUE).size() + " of " + count + " events" +
+                    ", last hour: " + log.read(start + (hours - 1) * HOUR, Long.MAX_VALUE).size());
+        } catch (final IOException e) {
+            e.printStackTrace();
+        }
+        System.exit(0);
+    }
+
+    private static long du(final File dir) {
+        long size = 0;
+        final File[] files = dir.listFiles();
+        if (files != null) for (final File f: files) size += f.isDirectory() ? du(f) : f.length();
+        return size;
+    }
+}
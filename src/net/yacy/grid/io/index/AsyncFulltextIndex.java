@@ -0,0 +1,84 @@
+/**
+ *  AsyncFulltextIndex
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.index;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.elasticsearch.index.query.QueryBuilder;
+
+import net.yacy.grid.io.index.FulltextIndex.BulkEntry;
+import net.yacy.grid.io.index.FulltextIndex.BulkWriteResult;
+
+/**
+ * The asynchronous variant of the FulltextIndex operations. The methods return immediately; the futures are
+ * completed from the client threads of the index, so callers must not block within dependent stages.
+ * Independent operations can be started together and joined with CompletableFuture.allOf.
+ * Temporary failures are retried by the implementation; a future completes exceptionally only if
+ * the retries are exhausted or the failure is permanent.
+ */
+public interface AsyncFulltextIndex {
+
+    /**
+     * Searches using a query, see FulltextIndex.query
+     */
+    public CompletableFuture<FulltextIndex.Query> queryAsync(
+            final String indexName, final QueryBuilder queryBuilder, final YaCyQuery postFilter, final Sort sort,
+            final WebMapping highlightField, final int timezoneOffset, final int from, final int resultCount,
+            final int aggregationLimit, final boolean explain, final WebMapping... aggregationFields);
+
+    /**
+     * count the documents which match with a query
+     * @param indexName
+     * @param queryBuilder
+     * @return the count
+     */
+    public CompletableFuture<Long> countAsync(final String indexName, final QueryBuilder queryBuilder);
+
+    /**
+     * aggregate the values of a field within the documents which match with a query
+     * @param indexName
+     * @param aggregationField
+     * @param queryBuilder
+     * @return a map from the lower-case field values to the document count
+     */
+    public CompletableFuture<Map<String, Long>> aggregationAsync(final String indexName, final String aggregationField, final QueryBuilder queryBuilder);
+
+    /**
+     * write a document, see FulltextIndex.writeDocument
+     * @return true if the document with given id did not exist before, false if it existed and was overwritten
+     */
+    public CompletableFuture<Boolean> writeDocumentAsync(final String indexName, final String typeName, final String id, final Map<String, Object> jsonMap);
+
+    /**
+     * write documents in bulk, see FulltextIndex.writeDocumentBulk
+     */
+    public CompletableFuture<BulkWriteResult> writeDocumentBulkAsync(final String indexName, final List<BulkEntry> jsonMapList);
+
+    /**
+     * delete all documents which match with a query
+     * @param indexName
+     * @param queryBuilder
+     * @return the number of deleted documents
+     */
+    public CompletableFuture<Long> deleteByQueryAsync(final String indexName, final QueryBuilder queryBuilder);
+
+}
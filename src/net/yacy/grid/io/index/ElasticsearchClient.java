@@ -21,24 +21,46 @@ package net.yacy.grid.io.index;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.AbstractList;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.apache.lucene.search.Explanation;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
 import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
 import org.elasticsearch.action.admin.cluster.stats.ClusterStatsAction;
@@ -47,6 +69,7 @@ import org.elasticsearch.action.admin.cluster.stats.ClusterStatsRequest;
 import org.elasticsearch.action.admin.cluster.stats.ClusterStatsRequestBuilder;
 import org.elasticsearch.action.admin.cluster.stats.ClusterStatsResponse;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
@@ -61,6 +84,7 @@ import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.NoNodeAvailableException;
@@ -69,9 +93,13 @@ import org.elasticsearch.cluster.block.ClusterBlockException;
 import org.elasticsearch.cluster.health.ClusterHealthStatus;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.IndexNotFoundException;
 import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.ConstantScoreQueryBuilder;
+import org.elasticsearch.index.query.MatchAllQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.rest.RestStatus;
@@ -82,6 +110,7 @@ import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms.Bucket;
 import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
 import org.elasticsearch.transport.client.PreBuiltTransportClient;
 import org.elasticsearch.xcontent.XContentType;
 import org.joda.time.format.DateTimeFormatter;
@@ -99,7 +128,7 @@ import eu.searchlab.tools.Progress;
  * http://localhost:9200/crawler/_search?q=*:*
  *
  */
-public class ElasticsearchClient implements FulltextIndex {
+public class ElasticsearchClient implements FulltextIndex, AsyncFulltextIndex {
 
 
     public final static String DEFAULT_INDEXNAME_CRAWLSTART = "crawlstart";
@@ -113,9 +142,41 @@ public class ElasticsearchClient implements FulltextIndex {
     private static long throttling_ops_threshold = 1000L; // messages per second low limit
     private static double throttling_factor = 1.0d; // factor applied on update duration if both thresholds are passed
 
+    private final static int ASYNC_RETRIES = 10;
+    private final static long ASYNC_BACKOFF_MIN = 100L, ASYNC_BACKOFF_MAX = 10000L; // exponential backoff between retries of asynchronous requests
+    private final static int SCROLL_PAGE_SIZE = 100;
+    private final static long SCROLL_SLICE_DOCUMENTS = 10000L; // minimum number of documents for each slice of a sliced scroll
+    private final static int SCROLL_SLICES = Integer.parseInt(System.getProperty("grid.elasticsearch.scroll.slices", "4"));
+    private final static ExecutorService scrollExecutor = Executors.newFixedThreadPool(Integer.parseInt(System.getProperty("grid.elasticsearch.scroll.threads", "8")), r -> {
+        final Thread t = new Thread(r, "ElasticsearchClient scroll slice");
+        t.setDaemon(true);
+        return t;
+    });
+    private final static ScheduledExecutorService retryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "ElasticsearchClient retry timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * The search type policy of an index, configured with grid.elasticsearch.searchType.<indexName>.
+     * DFS_QUERY_THEN_FETCH collects the term statistics of all shards in an extra round trip, which makes
+     * scores comparable across shards. This only matters for relevance-ranked queries on indexes with more
+     * than one shard, therefore AUTO uses DFS_QUERY_THEN_FETCH only in that case.
+     */
+    public static enum SearchTypePolicy {
+        AUTO, DFS, QUERY;
+    }
+
     private final String[] addresses;
     private final String clusterName;
     private Client elasticsearchClient;
+    private final Map<String, SearchTypePolicy> searchTypePolicies = new ConcurrentHashMap<>();
+    private final Map<String, Integer> shardCounts = new ConcurrentHashMap<>();
+    private final Semaphore inFlight = new Semaphore(Integer.parseInt(System.getProperty("grid.elasticsearch.async.maxinflight", "64")));
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>(); // asynchronous requests waiting for an in-flight permit
+    private final ThreadLocal<Boolean> draining = ThreadLocal.withInitial(() -> Boolean.FALSE); // true while drain() runs on a thread
+    private final AtomicBoolean reconnecting = new AtomicBoolean(false);
 
     /**
      * create a elasticsearch transport client (remote elasticsearch)
@@ -255,6 +316,7 @@ public class ElasticsearchClient implements FulltextIndex {
             this.elasticsearchClient.admin().indices().prepareCreate(indexName)
             .setSettings(settings)
             .execute().actionGet();
+            this.shardCounts.remove(indexName);
         } else {
             //LOGGER.debug("Index with name {} already exists", indexName);
         }
@@ -515,30 +577,27 @@ public class ElasticsearchClient implements FulltextIndex {
     }
 
     public long deleteByQuery(final String indexName, final QueryBuilder q) {
+        // accumulate the ids here, don't delete them right now to prevent an interference of the delete with the scroll
         final Map<String, String> ids = new TreeMap<>();
-        final SearchRequestBuilder request = this.elasticsearchClient.prepareSearch(indexName);
-        request
-        .setSearchType(SearchType.QUERY_THEN_FETCH)
-        .setScroll(scrollKeepAlive)
-        .setQuery(q)
-        .setSize(100);
-        SearchResponse response = null;
         try {
-            response = request.execute().actionGet();
+            scrollAll(indexName, q, false, null, hits -> {
+                synchronized (ids) {
+                    for (final SearchHit hit : hits) ids.put(hit.getId(), hit.getType());
+                }
+            });
+        } catch (final RuntimeException e) {
+            // a missing index has nothing to delete; temporary failures are retried by the caller
+            if (!(ExceptionsHelper.unwrapCause(e) instanceof IndexNotFoundException)) throw e;
+            Logger.warn(e);
+            return 0;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Logger.warn(e);
+            return 0;
         } catch (final Exception e) {
-            // catch IndexNotFoundException
+            // a slice failed; the ids are incomplete and nothing is deleted
             Logger.warn(e);
-        }
-        while (response != null) {
-            // accumulate the ids here, don't delete them right now to prevent an interference of the delete with the
-            // scroll
-            for (final SearchHit hit : response.getHits().getHits()) {
-                ids.put(hit.getId(), hit.getType());
-            }
-            // termination
-            if (response.getHits().getHits().length == 0) break;
-            // scroll
-            response = this.elasticsearchClient.prepareSearchScroll(response.getScrollId()).setScroll(scrollKeepAlive).execute().actionGet();
+            return 0;
         }
         return deleteBulk(indexName, ids);
     }
@@ -670,18 +729,25 @@ public class ElasticsearchClient implements FulltextIndex {
     // internal method used for a re-try after NoNodeAvailableException | IllegalStateException
     private boolean writeDocumentInternal(final String indexName, final String typeName, final String id, final Map<String, Object> jsonMap) {
         final long start = System.currentTimeMillis();
+        final UpdateResponse r = prepareWrite(this.elasticsearchClient, indexName, typeName, id, jsonMap).execute().actionGet();
+        return evaluateWrite(r, indexName, start);
+    }
+
+    private static UpdateRequestBuilder prepareWrite(final Client client, final String indexName, final String typeName, final String id, final Map<String, Object> jsonMap) {
         // get the version number out of the json, if any is given
         final Long version = (Long) jsonMap.remove("_version");
-        // put this to the index
-        final UpdateResponse r = this.elasticsearchClient
+        // put this to the index; the document is serialized here
+        final UpdateRequestBuilder request = client
                 .prepareUpdate(indexName, typeName, id)
                 .setDoc(jsonMap)
-                .setUpsert(jsonMap)
+                .setUpsert(jsonMap);
                 //.setVersion(version == null ? 1 : version.longValue())
                 //.setVersionType(VersionType.EXTERNAL_GTE)
-                .execute()
-                .actionGet();
         if (version != null) jsonMap.put("_version", version); // to prevent side effects
+        return request;
+    }
+
+    private static boolean evaluateWrite(final UpdateResponse r, final String indexName, final long start) {
         // documentation about the versioning is available at
         // https://www.elastic.co/blog/elasticsearch-versioning-support
         // TODO: error handling
@@ -718,15 +784,33 @@ public class ElasticsearchClient implements FulltextIndex {
 
     private BulkWriteResult writeDocumentBulkInternal(final String indexName, final List<BulkEntry> jsonMapList) {
         final long start = System.currentTimeMillis();
-        final BulkRequestBuilder bulkRequest = this.elasticsearchClient.prepareBulk();
+        final BulkResponse bulkResponse = prepareBulk(this.elasticsearchClient, indexName, jsonMapList).get();
+        final BulkWriteResult result = evaluateBulk(bulkResponse);
+        final long duration = Math.max(1, System.currentTimeMillis() - start);
+        long regulator = 0;
+        final int created = result.created.size();
+        final long ops = created * 1000 / duration;
+        if (duration > throttling_time_threshold && ops < throttling_ops_threshold) {
+            regulator = (long) (throttling_factor * duration);
+            try {Thread.sleep(regulator);} catch (final InterruptedException e) {}
+        }
+        Logger.info("ElasticsearchClient write bulk to index " + indexName + ": " + jsonMapList.size() + " entries, " + result.created.size() + " created, " + result.errors.size() + " errors, " + duration + " ms" + (regulator == 0 ? "" : ", throttled with " + regulator + " ms") + ", " + ops + " objects/second");
+        return result;
+    }
+
+    private static BulkRequestBuilder prepareBulk(final Client client, final String indexName, final List<BulkEntry> jsonMapList) {
+        final BulkRequestBuilder bulkRequest = client.prepareBulk();
         for (final BulkEntry be: jsonMapList) {
             if (be.id == null) continue;
             bulkRequest.add(
-                    this.elasticsearchClient.prepareIndex(indexName, be.type, be.id).setSource(be.jsonMap)
+                    client.prepareIndex(indexName, be.type, be.id).setSource(be.jsonMap)
                     .setCreate(false) // enforces OpType.INDEX
                     .setVersionType(VersionType.INTERNAL));
         }
-        final BulkResponse bulkResponse = bulkRequest.get();
+        return bulkRequest;
+    }
+
+    private static BulkWriteResult evaluateBulk(final BulkResponse bulkResponse) {
         final BulkWriteResult result = new BulkWriteResult();
         for (final BulkItemResponse r: bulkResponse.getItems()) {
             final String id = r.getId();
@@ -740,18 +824,87 @@ public class ElasticsearchClient implements FulltextIndex {
                 if (response.getResult() == DocWriteResponse.Result.CREATED) result.created.add(id);
             }
         }
-        final long duration = Math.max(1, System.currentTimeMillis() - start);
-        long regulator = 0;
-        final int created = result.created.size();
-        final long ops = created * 1000 / duration;
-        if (duration > throttling_time_threshold && ops < throttling_ops_threshold) {
-            regulator = (long) (throttling_factor * duration);
-            try {Thread.sleep(regulator);} catch (final InterruptedException e) {}
-        }
-        Logger.info("ElasticsearchClient write bulk to index " + indexName + ": " + jsonMapList.size() + " entries, " + result.created.size() + " created, " + result.errors.size() + " errors, " + duration + " ms" + (regulator == 0 ? "" : ", throttled with " + regulator + " ms") + ", " + ops + " objects/second");
         return result;
     }
 
+    /**
+     * set the search type policy of an index; this overrides the configuration
+     * @param indexName
+     * @param policy
+     */
+    public void setSearchTypePolicy(final String indexName, final SearchTypePolicy policy) {
+        this.searchTypePolicies.put(indexName, policy);
+    }
+
+    public SearchTypePolicy getSearchTypePolicy(final String indexName) {
+        SearchTypePolicy policy = this.searchTypePolicies.get(indexName);
+        if (policy != null) return policy;
+        final String s = System.getProperty("grid.elasticsearch.searchType." + indexName, "auto");
+        try {
+            policy = SearchTypePolicy.valueOf(s.trim().toUpperCase());
+        } catch (final IllegalArgumentException e) {
+            Logger.warn("unknown grid.elasticsearch.searchType." + indexName + " = " + s + ", using auto");
+            policy = SearchTypePolicy.AUTO;
+        }
+        this.searchTypePolicies.put(indexName, policy);
+        return policy;
+    }
+
+    /**
+     * get the number of shards of an index; this is cached because it cannot change for an existing index
+     * @param indexName the name of an index, an alias or a pattern
+     * @return the sum of the shards of all matching indexes or -1 if the number is not known
+     */
+    private int shards(final String indexName) {
+        final Integer cached = this.shardCounts.get(indexName);
+        if (cached != null) return cached.intValue();
+        try {
+            final GetSettingsResponse response = this.elasticsearchClient.admin().indices().prepareGetSettings(indexName).execute().actionGet();
+            int shards = 0;
+            final Iterator<Settings> i = response.getIndexToSettings().valuesIt();
+            while (i.hasNext()) shards += i.next().getAsInt("index.number_of_shards", 1);
+            if (shards == 0) return -1;
+            this.shardCounts.put(indexName, shards);
+            return shards;
+        } catch (NoNodeAvailableException | IllegalStateException | ClusterBlockException e) {
+            Logger.warn("ElasticsearchClient cannot get the shard count of " + indexName, e);
+            return -1;
+        }
+    }
+
+    /**
+     * a query is a filter if all matching documents get the same score
+     * @param queryBuilder
+     * @return true if the query does not compute a relevance score
+     */
+    static boolean isFilter(final QueryBuilder queryBuilder) {
+        if (queryBuilder == null || queryBuilder instanceof MatchAllQueryBuilder || queryBuilder instanceof ConstantScoreQueryBuilder) return true;
+        if (queryBuilder instanceof BoolQueryBuilder) {
+            final BoolQueryBuilder bq = (BoolQueryBuilder) queryBuilder;
+            return bq.must().isEmpty() && bq.should().isEmpty();
+        }
+        return false;
+    }
+
+    /**
+     * select the search type of a query: DFS_QUERY_THEN_FETCH is only used if the result is ranked by relevance
+     * and the index has more than one shard, unless the policy of the index says otherwise
+     * @param indexName
+     * @param queryBuilder
+     * @param sort
+     * @param resultCount
+     * @return the search type
+     */
+    SearchType searchType(final String indexName, final QueryBuilder queryBuilder, final Sort sort, final int resultCount) {
+        switch (getSearchTypePolicy(indexName)) {
+        case DFS: return SearchType.DFS_QUERY_THEN_FETCH;
+        case QUERY: return SearchType.QUERY_THEN_FETCH;
+        default:
+            if (resultCount == 0 || !sort.isRelevance() || isFilter(queryBuilder)) return SearchType.QUERY_THEN_FETCH;
+            return shards(indexName) == 1 ? SearchType.QUERY_THEN_FETCH : SearchType.DFS_QUERY_THEN_FETCH;
+        }
+    }
+
     private final static DateTimeFormatter utcFormatter = ISODateTimeFormat.dateTime().withZoneUTC();
 
     public FulltextIndex.Query query(final String indexName, final QueryBuilder queryBuilder, final Sort sort, final WebMapping highlightField, final boolean explain, final int from, final int resultCount) {
@@ -762,9 +915,8 @@ public class ElasticsearchClient implements FulltextIndex {
             SearchRequestBuilder request = ElasticsearchClient.this.elasticsearchClient.prepareSearch(indexName);
             request
             .setExplain(false)
-            .setSearchType(SearchType.QUERY_THEN_FETCH)
+            .setSearchType(searchType(indexName, queryBuilder, sort, resultCount))
             .setQuery(queryBuilder)
-            .setSearchType(SearchType.DFS_QUERY_THEN_FETCH) // DFS_QUERY_THEN_FETCH is slower but provides stability of search results
             .setFrom(from)
             .setSize(resultCount);
             if (highlightField != null) {
@@ -785,20 +937,11 @@ public class ElasticsearchClient implements FulltextIndex {
             final SearchHits searchHits = response.getHits();
             query.hitCount = (int) searchHits.getTotalHits().value;
 
-            // evaluate search result
-            //long totalHitCount = response.getHits().getTotalHits();
+            // evaluate search result; the hits are decoded when they are accessed
             final SearchHit[] hits = searchHits.getHits();
-            query.results = new ArrayList<>(query.hitCount);
-            query.explanations = new ArrayList<>(query.hitCount);
-            query.highlights = new ArrayList<>(query.hitCount);
-            for (final SearchHit hit: hits) {
-                final Map<String, Object> map = hit.getSourceAsMap();
-                if (!map.containsKey("id")) map.put("id", hit.getId());
-                if (!map.containsKey("type")) map.put("type", hit.getType());
-                query.results.add(map);
-                if (highlightField != null) query.highlights.add(hit.getHighlightFields());
-                query.explanations.add("");
-            }
+            query.results = new HitList<>(hits, hit -> source(hit));
+            query.explanations = Collections.nCopies(hits.length, "");
+            query.highlights = new HitList<>(hits, SearchHit::getHighlightFields);
 
             // evaluate aggregation
             // collect results: fields
@@ -831,98 +974,338 @@ public class ElasticsearchClient implements FulltextIndex {
             final String indexName, final QueryBuilder queryBuilder, final YaCyQuery postFilter, final Sort sort,
             final WebMapping highlightField, final int timezoneOffset, final int from, final int resultCount,
             final int aggregationLimit, final boolean explain, final WebMapping... aggregationFields) {
-        final FulltextIndex.Query query = new FulltextIndex.Query();
         for (int t = 0; t < 10; t++) try {
+            final SearchRequestBuilder request = prepareQuery(this.elasticsearchClient, indexName, queryBuilder, postFilter, sort, highlightField, from, resultCount, aggregationLimit, explain, aggregationFields);
+            final SearchResponse response = request.execute().actionGet();
+            return evaluateQuery(response, explain, aggregationFields);
+        } catch (NoNodeAvailableException | IllegalStateException | ClusterBlockException | SearchPhaseExecutionException e) {
+            Logger.warn("ElasticsearchClient query failed with " + e.getMessage() + ", retrying attempt " + t + " ...", e);
+            try {Thread.sleep(1000);} catch (final InterruptedException eee) {}
+            connect();
+            continue;
+        }
+        return new FulltextIndex.Query();
+    }
 
-            // prepare request
-            SearchRequestBuilder request = ElasticsearchClient.this.elasticsearchClient.prepareSearch(indexName);
-            request
-            .setExplain(explain)
-            .setSearchType(SearchType.QUERY_THEN_FETCH)
-            .setQuery(queryBuilder)
-            .setSearchType(SearchType.DFS_QUERY_THEN_FETCH) // DFS_QUERY_THEN_FETCH is slower but provides stability of search results
-            .setFrom(from)
-            .setSize(resultCount);
-            if (highlightField != null) {
-                final HighlightBuilder hb = new HighlightBuilder()
-                        .boundaryMaxScan(100).maxAnalyzedOffset(10000)
-                        .field(highlightField.getMapping().name())
-                        .preTags("").postTags("").fragmentSize(140);
-                request.highlighter(hb);
+    private SearchRequestBuilder prepareQuery(
+            final Client client, final String indexName, final QueryBuilder queryBuilder, final YaCyQuery postFilter, final Sort sort,
+            final WebMapping highlightField, final int from, final int resultCount,
+            final int aggregationLimit, final boolean explain, final WebMapping... aggregationFields) {
+        final SearchRequestBuilder request = client.prepareSearch(indexName);
+        request
+        .setExplain(explain)
+        .setSearchType(searchType(indexName, queryBuilder, sort, resultCount))
+        .setQuery(queryBuilder)
+        .setFrom(from)
+        .setSize(resultCount);
+        if (highlightField != null) {
+            final HighlightBuilder hb = new HighlightBuilder()
+                    .boundaryMaxScan(100).maxAnalyzedOffset(10000)
+                    .field(highlightField.getMapping().name())
+                    .preTags("").postTags("").fragmentSize(140);
+            request.highlighter(hb);
+        }
+        //HighlightBuilder hb = new HighlightBuilder().field("message").preTags("<foo>").postTags("<bar>");
+        if (postFilter != null) request.setPostFilter(postFilter.getQueryBuilder());
+        request.clearRescorers();
+        for (final WebMapping field: aggregationFields) {
+            final String name = field.getMapping().name();
+            request.addAggregation(AggregationBuilders.terms(name).field(name).minDocCount(1).size(aggregationLimit));
+        }
+        // apply sort
+        return sort.sort(request);
+    }
+
+    private static FulltextIndex.Query evaluateQuery(final SearchResponse response, final boolean explain, final WebMapping... aggregationFields) {
+        final FulltextIndex.Query query = new FulltextIndex.Query();
+        final SearchHits searchHits = response.getHits();
+        query.hitCount = (int) searchHits.getTotalHits().value;
+
+        // evaluate search result; the hits are decoded when they are accessed
+        final SearchHit[] hits = searchHits.getHits();
+        query.results = new HitList<>(hits, hit -> WebMapping.sortMapKeys(source(hit)));
+        query.explanations = explain ? new HitList<>(hits, hit -> {
+            final Explanation explanation = hit.getExplanation();
+            return explanation == null ? "" : explanation.toString();
+        }) : Collections.nCopies(hits.length, "");
+        query.highlights = new HitList<>(hits, SearchHit::getHighlightFields);
+
+        // evaluate aggregation
+        // collect results: fields
+        query.aggregations = new HashMap<>();
+        for (final WebMapping field: aggregationFields) {
+            final Terms fieldCounts = response.getAggregations().get(field.getMapping().name());
+            final List<? extends Bucket> buckets = fieldCounts.getBuckets();
+            // aggregate double-tokens (matching lowercase)
+            final Map<String, Long> checkMap = new HashMap<>();
+            for (final Bucket bucket: buckets) {
+                final String key = bucket.getKeyAsString().trim();
+                if (key.length() > 0) {
+                    final String k = key.toLowerCase();
+                    final Long v = checkMap.get(k);
+                    checkMap.put(k, v == null ? bucket.getDocCount() : v + bucket.getDocCount());
+                }
             }
-            //HighlightBuilder hb = new HighlightBuilder().field("message").preTags("<foo>").postTags("<bar>");
-            if (postFilter != null) request.setPostFilter(postFilter.getQueryBuilder());
-            request.clearRescorers();
-            for (final WebMapping field: aggregationFields) {
-                final String name = field.getMapping().name();
-                request.addAggregation(AggregationBuilders.terms(name).field(name).minDocCount(1).size(aggregationLimit));
+            final ArrayList<Map.Entry<String, Long>> list = new ArrayList<>(buckets.size());
+            for (final Bucket bucket: buckets) {
+                final String key = bucket.getKeyAsString().trim();
+                if (key.length() > 0) {
+                    final Long v = checkMap.remove(key.toLowerCase());
+                    if (v == null) continue;
+                    list.add(new AbstractMap.SimpleEntry<>(key, v));
+                }
             }
-            // apply sort
-            request = sort.sort(request);
-            // get response
-            final SearchResponse response = request.execute().actionGet();
-            final SearchHits searchHits = response.getHits();
-            query.hitCount = (int) searchHits.getTotalHits().value;
+            query.aggregations.put(field.getMapping().name(), list);
+            //if (field.equals("place_country")) {
+            // special handling of country aggregation: add the country center as well
+            //}
+        }
+        return query;
+    }
 
-            // evaluate search result
-            //long totalHitCount = response.getHits().getTotalHits();
-            final SearchHit[] hits = searchHits.getHits();
-            query.results = new ArrayList<>(query.hitCount);
-            query.explanations = new ArrayList<>(query.hitCount);
-            query.highlights = new ArrayList<>(query.hitCount);
-            for (final SearchHit hit: hits) {
-                final Map<String, Object> map = hit.getSourceAsMap();
-                if (!map.containsKey("id")) map.put("id", hit.getId());
-                if (!map.containsKey("type")) map.put("type", hit.getType());
-                query.results.add(WebMapping.sortMapKeys(map));
-                query.highlights.add(hit.getHighlightFields());
-                if (explain) {
-                    final Explanation explanation = hit.getExplanation();
-                    query.explanations.add(explanation.toString());
+    // asynchronous API
+
+    @Override
+    public CompletableFuture<FulltextIndex.Query> queryAsync(
+            final String indexName, final QueryBuilder queryBuilder, final YaCyQuery postFilter, final Sort sort,
+            final WebMapping highlightField, final int timezoneOffset, final int from, final int resultCount,
+            final int aggregationLimit, final boolean explain, final WebMapping... aggregationFields) {
+        return async("query",
+                client -> prepareQuery(client, indexName, queryBuilder, postFilter, sort, highlightField, from, resultCount, aggregationLimit, explain, aggregationFields),
+                (final SearchResponse response) -> evaluateQuery(response, explain, aggregationFields));
+    }
+
+    @Override
+    public CompletableFuture<Long> countAsync(final String indexName, final QueryBuilder queryBuilder) {
+        return async("count",
+                client -> client.prepareSearch(indexName).setQuery(queryBuilder).setSize(0).setTrackTotalHits(true),
+                (final SearchResponse response) -> response.getHits().getTotalHits().value);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Long>> aggregationAsync(final String indexName, final String aggregationField, final QueryBuilder queryBuilder) {
+        return async("aggregation",
+                client -> prepareAggregation(client, indexName, aggregationField, queryBuilder).setSize(0),
+                (final SearchResponse response) -> evaluateAggregation(response, aggregationField));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> writeDocumentAsync(final String indexName, final String typeName, final String id, final Map<String, Object> jsonMap) {
+        final long start = System.currentTimeMillis();
+        return async("writeDocument",
+                client -> prepareWrite(client, indexName, typeName, id, jsonMap),
+                (final UpdateResponse response) -> evaluateWrite(response, indexName, start));
+    }
+
+    /**
+     * bulk message write; in contrast to writeDocumentBulk this is not throttled by sleeping,
+     * the write rate is limited by the number of requests in flight
+     */
+    @Override
+    public CompletableFuture<BulkWriteResult> writeDocumentBulkAsync(final String indexName, final List<BulkEntry> jsonMapList) {
+        final long start = System.currentTimeMillis();
+        return async("writeDocumentBulk",
+                client -> prepareBulk(client, indexName, jsonMapList),
+                (final BulkResponse response) -> {
+                    final BulkWriteResult result = evaluateBulk(response);
+                    final long duration = Math.max(1, System.currentTimeMillis() - start);
+                    Logger.info("ElasticsearchClient write bulk to index " + indexName + ": " + jsonMapList.size() + " entries, " + result.created.size() + " created, " + result.errors.size() + " errors, " + duration + " ms");
+                    return result;
+                });
+    }
+
+    @Override
+    public CompletableFuture<Long> deleteByQueryAsync(final String indexName, final QueryBuilder queryBuilder) {
+        final Map<String, String> ids = new TreeMap<>();
+        return async("deleteByQuery",
+                client -> client.prepareSearch(indexName).setSearchType(SearchType.QUERY_THEN_FETCH).setScroll(scrollKeepAlive).setQuery(queryBuilder).setSize(100),
+                (final SearchResponse response) -> response)
+                .exceptionally(e -> {
+                    // a missing index has nothing to delete; all other failures, also after the last retry, fail the future
+                    final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (ExceptionsHelper.unwrapCause(cause) instanceof IndexNotFoundException) {
+                        Logger.warn(e);
+                        return null;
+                    }
+                    throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                })
+                .thenCompose(response -> scrollIds(response, ids))
+                .thenCompose(v -> {
+                    if (ids.size() == 0) return CompletableFuture.completedFuture(0L);
+                    return async("deleteBulk", client -> {
+                        final BulkRequestBuilder bulkRequest = client.prepareBulk();
+                        for (final Map.Entry<String, String> id : ids.entrySet()) {
+                            bulkRequest.add(new DeleteRequest().id(id.getKey()).index(indexName).type(id.getValue()));
+                        }
+                        return bulkRequest;
+                    }, (final BulkResponse response) -> (long) ids.size());
+                });
+    }
+
+    /**
+     * accumulate the ids of a scroll; they are not deleted right now to prevent an interference of the delete with the scroll
+     */
+    private CompletableFuture<Void> scrollIds(final SearchResponse response, final Map<String, String> ids) {
+        if (response == null || response.getHits().getHits().length == 0) return CompletableFuture.completedFuture(null);
+        for (final SearchHit hit : response.getHits().getHits()) {
+            ids.put(hit.getId(), hit.getType());
+        }
+        return async("scroll",
+                client -> client.prepareSearchScroll(response.getScrollId()).setScroll(scrollKeepAlive),
+                (final SearchResponse next) -> next)
+                .thenCompose(next -> scrollIds(next, ids));
+    }
+
+    /**
+     * Execute a request with the listener-based transport API. At most grid.elasticsearch.async.maxinflight requests
+     * are executed at the same time, further requests wait in the pending queue. Temporary failures are retried
+     * with an exponential backoff which is scheduled on the retry timer, so no thread is blocked while waiting.
+     * @param name the name of the operation for logging
+     * @param request a function which creates the request from the current client
+     * @param evaluation a function which computes the result from the response; this is called within a client thread
+     * @return a future of the result
+     */
+    private <Response extends ActionResponse, T> CompletableFuture<T> async(
+            final String name, final Function<Client, ActionRequestBuilder<?, Response>> request, final Function<Response, T> evaluation) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        submit(() -> attempt(name, request, evaluation, future, 0));
+        return future;
+    }
+
+    private <Response extends ActionResponse, T> void attempt(
+            final String name, final Function<Client, ActionRequestBuilder<?, Response>> request, final Function<Response, T> evaluation,
+            final CompletableFuture<T> future, final int retry) {
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final ActionListener<Response> listener = new ActionListener<Response>() {
+            @Override
+            public void onResponse(final Response response) {
+                if (!done.compareAndSet(false, true)) return;
+                release();
+                try {
+                    future.complete(evaluation.apply(response));
+                } catch (final RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+            @Override
+            public void onFailure(final Exception e) {
+                if (!done.compareAndSet(false, true)) return;
+                release();
+                final Throwable cause = ExceptionsHelper.unwrapCause(e);
+                if (retry < ASYNC_RETRIES && isTemporary(cause)) {
+                    final long delay = Math.min(ASYNC_BACKOFF_MAX, ASYNC_BACKOFF_MIN << retry);
+                    Logger.info("ElasticsearchClient " + name + " failed with " + cause.getMessage() + ", retry " + (retry + 1) + " in " + delay + " ms");
+                    if (cause instanceof NoNodeAvailableException) reconnect();
+                    retryTimer.schedule(() -> submit(() -> attempt(name, request, evaluation, future, retry + 1)), delay, TimeUnit.MILLISECONDS);
                 } else {
-                    query.explanations.add("");
+                    future.completeExceptionally(cause);
                 }
             }
+        };
+        try {
+            request.apply(this.elasticsearchClient).execute(listener);
+        } catch (final RuntimeException e) {
+            listener.onFailure(e);
+        }
+    }
 
-            // evaluate aggregation
-            // collect results: fields
-            query.aggregations = new HashMap<>();
-            for (final WebMapping field: aggregationFields) {
-                final Terms fieldCounts = response.getAggregations().get(field.getMapping().name());
-                final List<? extends Bucket> buckets = fieldCounts.getBuckets();
-                // aggregate double-tokens (matching lowercase)
-                final Map<String, Long> checkMap = new HashMap<>();
-                for (final Bucket bucket: buckets) {
-                    final String key = bucket.getKeyAsString().trim();
-                    if (key.length() > 0) {
-                        final String k = key.toLowerCase();
-                        final Long v = checkMap.get(k);
-                        checkMap.put(k, v == null ? bucket.getDocCount() : v + bucket.getDocCount());
-                    }
+    private static boolean isTemporary(final Throwable e) {
+        if (e instanceof ClusterBlockException) return ((ClusterBlockException) e).retryable();
+        return e instanceof NoNodeAvailableException || e instanceof IllegalStateException ||
+               e instanceof SearchPhaseExecutionException || e instanceof EsRejectedExecutionException;
+    }
+
+    private void submit(final Runnable task) {
+        this.pending.add(task);
+        drain();
+    }
+
+    private void release() {
+        this.inFlight.release();
+        drain();
+    }
+
+    /**
+     * start pending requests as long as permits are available. A permit which is released concurrently
+     * to an add to the pending queue is always seen by one of both drain calls.
+     * A request which fails synchronously releases its permit within task.run() and calls drain() again;
+     * that nested call returns immediately and the loop of the outer call starts the next request, so the
+     * stack does not grow with the length of the pending queue.
+     */
+    private void drain() {
+        if (this.draining.get().booleanValue()) return;
+        this.draining.set(Boolean.TRUE);
+        try {
+            while (!this.pending.isEmpty() && this.inFlight.tryAcquire()) {
+                final Runnable task = this.pending.poll();
+                if (task == null) {
+                    this.inFlight.release();
+                    continue;
                 }
-                final ArrayList<Map.Entry<String, Long>> list = new ArrayList<>(buckets.size());
-                for (final Bucket bucket: buckets) {
-                    final String key = bucket.getKeyAsString().trim();
-                    if (key.length() > 0) {
-                        final Long v = checkMap.remove(key.toLowerCase());
-                        if (v == null) continue;
-                        list.add(new AbstractMap.SimpleEntry<>(key, v));
-                    }
+                task.run();
+            }
+        } finally {
+            this.draining.set(Boolean.FALSE);
+        }
+    }
+
+    /**
+     * reconnect concurrently because connect() blocks while the cluster is not ready
+     */
+    private void reconnect() {
+        if (!this.reconnecting.compareAndSet(false, true)) return;
+        new Thread() {
+            @Override
+            public void run() {
+                this.setName("reconnect job " + ElasticsearchClient.this.clusterName);
+                try {
+                    connect();
+                } finally {
+                    ElasticsearchClient.this.reconnecting.set(false);
                 }
-                query.aggregations.put(field.getMapping().name(), list);
-                //if (field.equals("place_country")) {
-                // special handling of country aggregation: add the country center as well
-                //}
             }
-            return query;
+        }.start();
+    }
 
-        } catch (NoNodeAvailableException | IllegalStateException | ClusterBlockException | SearchPhaseExecutionException e) {
-            Logger.warn("ElasticsearchClient query failed with " + e.getMessage() + ", retrying attempt " + t + " ...", e);
-            try {Thread.sleep(1000);} catch (final InterruptedException eee) {}
-            connect();
-            continue;
+    private static Map<String, Object> source(final SearchHit hit) {
+        final Map<String, Object> map = hit.getSourceAsMap();
+        if (!map.containsKey("id")) map.put("id", hit.getId());
+        if (!map.containsKey("type")) map.put("type", hit.getType());
+        return map;
+    }
+
+    /**
+     * A list view on the hits of a search response, sized to the returned page.
+     * An element is computed from its hit when it is accessed for the first time, so hits which
+     * are never read are never decoded.
+     */
+    private final static class HitList<T> extends AbstractList<T> {
+
+        private final SearchHit[] hits;
+        private final Function<SearchHit, T> decoder;
+        private final Object[] decoded;
+
+        private HitList(final SearchHit[] hits, final Function<SearchHit, T> decoder) {
+            this.hits = hits;
+            this.decoder = decoder;
+            this.decoded = new Object[hits.length];
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T get(final int index) {
+            Object o = this.decoded[index];
+            if (o == null) {
+                o = this.decoder.apply(this.hits[index]);
+                this.decoded[index] = o;
+            }
+            return (T) o;
+        }
+
+        @Override
+        public int size() {
+            return this.hits.length;
         }
-        return query;
     }
 
     public int aggregationCount(final String indexName, final String aggregationField, final Cons<String, String> field) {
@@ -931,36 +1314,46 @@ public class ElasticsearchClient implements FulltextIndex {
 
     @SafeVarargs
     public final Map<String, Long> aggregation(final String indexName, final String aggregationField, final Cons<String, String>... constraints) {
-        final Map<String, Long> a = new HashMap<>();
         try {
             final QueryBuilder bFilter = constraintQuery(constraints);
-            final SearchRequestBuilder request = this.elasticsearchClient.prepareSearch(indexName)
-                    .setSearchType(SearchType.QUERY_THEN_FETCH)
-                    .setFrom(0)
-                    .setQuery(bFilter);
-            request.addAggregation(AggregationBuilders.terms(aggregationField).field(aggregationField).minDocCount(1).size(1000));
-
-            // Fielddata is disabled on text fields by default.
-            // Set fielddata=true on [user_id_s] in order to load fielddata in memory by uninverting the inverted index.
-            // Note that this can however use significant memory. Alternatively use a keyword field instead.
+            final SearchRequestBuilder request = prepareAggregation(this.elasticsearchClient, indexName, aggregationField, bFilter);
 
             // get response
             final SearchResponse response = request.execute().actionGet();
-            final Aggregations agg = response.getAggregations();
-            final Terms fieldCounts = agg.get(aggregationField);
-            final List<? extends Bucket> buckets = fieldCounts.getBuckets();
-            for (final Bucket bucket: buckets) {
-                final String key = bucket.getKeyAsString().trim();
-                if (key.length() > 0) {
-                    final String k = key.toLowerCase();
-                    final Long v = agg.get(k);
-                    a.put(k, v == null ? bucket.getDocCount() : v + bucket.getDocCount());
-                }
-            }
+            return evaluateAggregation(response, aggregationField);
         } catch (final Exception e) {
             Logger.error(e);
         }
 
+        return new HashMap<>();
+    }
+
+    private static SearchRequestBuilder prepareAggregation(final Client client, final String indexName, final String aggregationField, final QueryBuilder queryBuilder) {
+        final SearchRequestBuilder request = client.prepareSearch(indexName)
+                .setSearchType(SearchType.QUERY_THEN_FETCH)
+                .setFrom(0)
+                .setQuery(queryBuilder);
+        request.addAggregation(AggregationBuilders.terms(aggregationField).field(aggregationField).minDocCount(1).size(1000));
+
+        // Fielddata is disabled on text fields by default.
+        // Set fielddata=true on [user_id_s] in order to load fielddata in memory by uninverting the inverted index.
+        // Note that this can however use significant memory. Alternatively use a keyword field instead.
+        return request;
+    }
+
+    private static Map<String, Long> evaluateAggregation(final SearchResponse response, final String aggregationField) {
+        final Map<String, Long> a = new HashMap<>();
+        final Aggregations agg = response.getAggregations();
+        final Terms fieldCounts = agg.get(aggregationField);
+        final List<? extends Bucket> buckets = fieldCounts.getBuckets();
+        for (final Bucket bucket: buckets) {
+            final String key = bucket.getKeyAsString().trim();
+            if (key.length() > 0) {
+                final String k = key.toLowerCase();
+                final Long v = a.get(k);
+                a.put(k, v == null ? bucket.getDocCount() : v + bucket.getDocCount());
+            }
+        }
         return a;
     }
 
@@ -983,32 +1376,126 @@ public class ElasticsearchClient implements FulltextIndex {
         return consumeAllWithQuery(target, consumer, indexName, bFilter, finalizer, fields);
     }
 
+    /**
+     * Consume all documents which match with a query. The documents are read with a sliced scroll if the result set
+     * is large; the slices are read concurrently but the consumer is called by one slice at a time, so it does not
+     * need to be thread-safe. The order of the documents is not defined.
+     */
     public Progress<Long> consumeAllWithQuery(final long target, final Consumer<Map<String, Object>> consumer, final String indexName, final QueryBuilder queryBuilder, final Runnable finalizer, final String... fields) {
         return new AbstractProgress<Long>() {
+            private long delivered = 0;
             @Override
-            public Long call() {
+            public Long call() throws Exception {
                 this.setTarget(target); // MUST be done first
-                final SearchRequestBuilder request = ElasticsearchClient.this.elasticsearchClient.prepareSearch(indexName)
-                        .setSearchType(SearchType.QUERY_THEN_FETCH)
-                        .setScroll(new TimeValue(60000))
-                        .setQuery(queryBuilder)
-                        .setSize(100);
-                if (fields != null && fields.length > 0) request.setFetchSource(fields, null);
-                SearchResponse scrollResp = request.get();
-                // fetch all documents: loop until result array is complete
-                do {
-                    for (final SearchHit hit: scrollResp.getHits().getHits()) {
-                        consumer.accept(hit.getSourceAsMap());
-                        if (consumer instanceof CountingConsumer) this.setProgress(((CountingConsumer<?>) consumer).getCount());
+                final long hits = scrollAll(indexName, queryBuilder, true, fields, page -> {
+                    // the sources are decoded concurrently within the slice threads
+                    final List<Map<String, Object>> documents = new ArrayList<>(page.length);
+                    for (final SearchHit hit: page) documents.add(hit.getSourceAsMap());
+                    synchronized (this) {
+                        for (final Map<String, Object> document: documents) consumer.accept(document);
+                        this.delivered += documents.size();
+                        this.setProgress((consumer instanceof CountingConsumer) ? ((CountingConsumer<?>) consumer).getCount() : this.delivered);
                     }
-                    scrollResp = ElasticsearchClient.this.elasticsearchClient.prepareSearchScroll(scrollResp.getScrollId()).setScroll(new TimeValue(60000)).execute().actionGet();
-                } while (scrollResp.getHits().getHits().length != 0); // Zero hits mark the end of the scroll and the while loop.
+                });
                 if (finalizer != null) finalizer.run();
-                return (consumer instanceof CountingConsumer) ? ((CountingConsumer<?>) consumer).getCount() : scrollResp.getHits().getTotalHits().value;
+                return (consumer instanceof CountingConsumer) ? ((CountingConsumer<?>) consumer).getCount() : hits;
             }
         };
     }
 
+    /**
+     * compute the number of slices for a sliced scroll. On an index with several shards one slice per shard is best
+     * because elasticsearch maps these slices to the shards directly; otherwise slices are computed from the document
+     * ids, which is only worth the cost if each slice has at least SCROLL_SLICE_DOCUMENTS documents.
+     * @param shards the number of shards or -1 if unknown
+     * @param count the number of documents to be scrolled
+     * @param maxSlices the maximum number of slices
+     * @return the number of slices, 1 for small result sets
+     */
+    static int scrollSlices(final int shards, final long count, final int maxSlices) {
+        final int max = shards > 1 ? Math.min(shards, maxSlices) : maxSlices;
+        return (int) Math.max(1, Math.min(max, count / SCROLL_SLICE_DOCUMENTS));
+    }
+
+    /**
+     * scroll through all documents which match with a query
+     * @param indexName
+     * @param queryBuilder
+     * @param source if true, the source is fetched
+     * @param fields the source fields to be fetched; all fields if this is null or empty
+     * @param pages a consumer for the pages of hits; this is called concurrently from all slices
+     * @return the number of hits
+     * @throws Exception the first exception of a slice; all other slices are stopped then
+     */
+    private long scrollAll(final String indexName, final QueryBuilder queryBuilder, final boolean source, final String[] fields, final Consumer<SearchHit[]> pages) throws Exception {
+        final long count = countInternal(queryBuilder, indexName);
+        final int slices = count < 2 * SCROLL_SLICE_DOCUMENTS ? 1 : scrollSlices(shards(indexName), count, SCROLL_SLICES);
+        final AtomicBoolean abort = new AtomicBoolean(false);
+        if (slices == 1) return scrollSlice(indexName, queryBuilder, source, fields, 0, 1, pages, abort);
+
+        final long start = System.currentTimeMillis();
+        final List<Future<Long>> futures = new ArrayList<>(slices);
+        for (int slice = 0; slice < slices; slice++) {
+            final int id = slice;
+            futures.add(scrollExecutor.submit(() -> {
+                try {
+                    return scrollSlice(indexName, queryBuilder, source, fields, id, slices, pages, abort);
+                } catch (final RuntimeException e) {
+                    abort.set(true);
+                    throw e;
+                }
+            }));
+        }
+        long hits = 0;
+        Exception failure = null;
+        for (final Future<Long> future: futures) try {
+            hits += future.get();
+        } catch (final ExecutionException e) {
+            if (failure == null) failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (final InterruptedException e) {
+            abort.set(true);
+            throw e;
+        }
+        if (failure != null) throw failure;
+        Logger.info("ElasticsearchClient scrolled " + hits + " documents from index " + indexName + " in " + slices + " slices, " + (System.currentTimeMillis() - start) + " ms");
+        return hits;
+    }
+
+    private long scrollSlice(
+            final String indexName, final QueryBuilder queryBuilder, final boolean source, final String[] fields,
+            final int slice, final int slices, final Consumer<SearchHit[]> pages, final AtomicBoolean abort) {
+        final SearchRequestBuilder request = this.elasticsearchClient.prepareSearch(indexName)
+                .setSearchType(SearchType.QUERY_THEN_FETCH)
+                .setScroll(scrollKeepAlive)
+                .setQuery(queryBuilder)
+                .setSize(SCROLL_PAGE_SIZE);
+        if (slices > 1) request.slice(new SliceBuilder(slice, slices));
+        if (!source) request.setFetchSource(false);
+        else if (fields != null && fields.length > 0) request.setFetchSource(fields, null);
+        SearchResponse response = request.get();
+        String scrollId = response.getScrollId();
+        long hits = 0;
+        try {
+            // fetch all documents: loop until result array is complete
+            while (!abort.get()) {
+                final SearchHit[] page = response.getHits().getHits();
+                if (page.length == 0) break; // Zero hits mark the end of the scroll and the while loop.
+                pages.accept(page);
+                hits += page.length;
+                response = this.elasticsearchClient.prepareSearchScroll(scrollId).setScroll(scrollKeepAlive).execute().actionGet();
+                scrollId = response.getScrollId();
+            }
+        } finally {
+            // release the scroll context now instead of waiting for the keep-alive to expire
+            try {
+                this.elasticsearchClient.prepareClearScroll().addScrollId(scrollId).execute();
+            } catch (final RuntimeException e) {
+                Logger.warn("ElasticsearchClient cannot clear scroll", e);
+            }
+        }
+        return hits;
+    }
+
     @SafeVarargs
     private final QueryBuilder constraintQuery(final Cons<String, String>... constraints) {
         if (constraints.length == 0) return QueryBuilders.boolQuery();
@@ -1024,6 +1511,13 @@ public class ElasticsearchClient implements FulltextIndex {
         return QueryBuilders.constantScoreQuery(bFilter);
     }
 
+    /**
+     * Compare the search types on a local cluster: each query is run with QUERY_THEN_FETCH and DFS_QUERY_THEN_FETCH,
+     * and the average latency, the allocated bytes and the number of result positions with a different document are printed.
+     * The allocation per query must not grow with the number of hits, compare a broad and a narrow query.
+     * Finally the time of sequential counts is compared with the same number of asynchronous counts.
+     * Call with the index name and queries as arguments, e.g. "web searchlab yacy"
+     */
     public static void main(final String[] args) {
         try {
             final ElasticsearchClient client = new ElasticsearchClient(new String[]{"localhost:9300"}, "");
@@ -1035,6 +1529,45 @@ public class ElasticsearchClient implements FulltextIndex {
             // upload a schema
             final String mapping = new String(Files.readAllBytes(Paths.get("conf/mappings/web.json")));
             client.setMapping("test", mapping);
+
+            // compare search types
+            final String indexName = args.length > 0 ? args[0] : "test";
+            final int repetitions = 20;
+            final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            System.out.println("index " + indexName + " has " + client.shards(indexName) + " shards, auto policy selects " +
+                    client.searchType(indexName, QueryBuilders.queryStringQuery("test"), Sort.DEFAULT, 10));
+            for (int a = 1; a < args.length; a++) {
+                final QueryBuilder qb = QueryBuilders.queryStringQuery(args[a]);
+                final List<List<Object>> ids = new ArrayList<>();
+                for (final SearchTypePolicy policy: new SearchTypePolicy[] {SearchTypePolicy.QUERY, SearchTypePolicy.DFS}) {
+                    client.setSearchTypePolicy(indexName, policy);
+                    client.query(indexName, qb, Sort.DEFAULT, null, false, 0, 10); // warm-up
+                    final long start = System.nanoTime();
+                    final long allocated = threadBean.getCurrentThreadAllocatedBytes();
+                    FulltextIndex.Query query = null;
+                    for (int i = 0; i < repetitions; i++) query = client.query(indexName, qb, Sort.DEFAULT, null, false, 0, 10);
+                    final long bytes = (threadBean.getCurrentThreadAllocatedBytes() - allocated) / repetitions;
+                    final long time = (System.nanoTime() - start) / repetitions / 1000;
+                    final List<Object> list = new ArrayList<>();
+                    for (final Map<String, Object> map: query.results) list.add(map.get("id"));
+                    ids.add(list);
+                    System.out.println("query '" + args[a] + "', " + policy + ": " + time + " microseconds, " + bytes + " bytes allocated, " + query.hitCount + " hits");
+                }
+                int diff = Math.abs(ids.get(0).size() - ids.get(1).size());
+                for (int i = 0; i < Math.min(ids.get(0).size(), ids.get(1).size()); i++) if (!ids.get(0).get(i).equals(ids.get(1).get(i))) diff++;
+                System.out.println("query '" + args[a] + "': " + diff + " of " + ids.get(0).size() + " positions differ");
+            }
+
+            // compare sequential and concurrent requests
+            final QueryBuilder all = QueryBuilders.matchAllQuery();
+            long start = System.nanoTime();
+            for (int i = 0; i < repetitions; i++) client.count(indexName, all);
+            System.out.println(repetitions + " sequential counts: " + (System.nanoTime() - start) / 1000000 + " milliseconds");
+            start = System.nanoTime();
+            final List<CompletableFuture<Long>> counts = new ArrayList<>();
+            for (int i = 0; i < repetitions; i++) counts.add(client.countAsync(indexName, all));
+            CompletableFuture.allOf(counts.toArray(new CompletableFuture<?>[counts.size()])).join();
+            System.out.println(repetitions + " concurrent counts: " + (System.nanoTime() - start) / 1000000 + " milliseconds");
             client.close();
         } catch (final IOException e) {
             Logger.warn("", e);
@@ -64,6 +64,27 @@ public class IndexDAO {
     // the knownDocumentCount is a map from a given user id to the TimeCount of documents of a given time
     private final static Map<String, TimeCount> knownDocumentCount = new ConcurrentHashMap<>();
 
+    // the materialized document counts per time bucket, maintained by the frequency scheduler
+    public final static IndexHistogram histogram = new IndexHistogram();
+
+    // the index generation is increased whenever this process deletes documents from the web index or starts a crawl
+    private final static AtomicLong indexGeneration = new AtomicLong(0);
+
+    /**
+     * get the index generation; cached search results are valid only for the generation at the time of the search
+     * @return the current index generation
+     */
+    public static long getIndexGeneration() {
+        return indexGeneration.get();
+    }
+
+    /**
+     * announce that the content of the web index was changed
+     */
+    public static void indexChanged() {
+        indexGeneration.incrementAndGet();
+    }
+
     /**
      * get a document count together with the time when that count was retrieved
      * @param user_id the user id of the document count
@@ -104,68 +125,13 @@ public class IndexDAO {
     public static MinuteSeriesTable getIndexDocumentCountHistorgramPerTimeframe(String user_id, final Timeframe timeframe) {
         if (user_id == null || user_id.length() == 0) user_id = "en";
         final long now = System.currentTimeMillis();
-        final long afterTime = now - timeframe.framelength;
-
-        // get list of all documents that have been created in the last 10 minutes
-        final String index_name = System.getProperties().getProperty("grid.elasticsearch.indexName.web", ElasticsearchClient.DEFAULT_INDEXNAME_WEB);
-        final Date fromDate = new Date(afterTime);
-        final String dateField = WebMapping.load_date_dt.getMapping().name(); // like "load_date_dt": "2022-03-30T02:03:03.214Z",
-        final String[] dataFields = new String[] {WebMapping.load_date_dt.getMapping().name()};
-        //final String[] dataFields = new String[] {WebMapping.fresh_date_dt.getMapping().name(), WebMapping.last_modified.getMapping().name(), WebMapping.load_date_dt.getMapping().name()};
-
-        final SimpleDateFormat iso8601MillisParser = DateParser.iso8601MillisParser();
-        final long[] counts = new long[timeframe.stepcount];
-        for (int i = 0; i < timeframe.stepcount; i++) counts[i] = 0L;
-        final AtomicLong count = new AtomicLong(0);
-        final Consumer<Map<String, Object>> consumer = (map) -> {
-            /*
-            for (final Map.Entry<String, Object> entry: map.entrySet()) {
-                if (entry.getKey().endsWith("_dt") || entry.getKey().equals("last_modified")) {
-                    Logger.info(entry.getKey() + ": " + entry.getValue().toString());
-                }
-            }
-             */
-            final String dates = (String) map.get(dateField);
-            try {
-                final Date date = iso8601MillisParser.parse(dates);
-
-                // aggregate statistics about number of indexed documents by one for that indexTime
-                if (date != null) {
-                    // the increment time is a number from 0..599 which represents the time 0:=now/last minute; 599:=oldest == x minutes/days/years in the past
-                    final long datetime = date.getTime(); // milliseconds since epoch
-                    if (datetime >= afterTime && now >= datetime) {
-                        // valid for statistical collection
-                        assert datetime >= afterTime : "date is before required period by " + (afterTime - datetime) + " milliseconds";
-                        assert now > datetime: "datetime is " + (datetime - now) + " milliseconds too large: " + dates;  // the document time must be in the past always
-                        final long pasttime = now - datetime;
-                        final int indexTime = Math.min(timeframe.stepcount - 1, Math.max(0, (int) (pasttime / timeframe.steplength)));
-                        // we increment the count at the incrementTime to reflect
-                        counts[indexTime]++;
-                        assert counts[indexTime] >= 0;
-                    }
-                }
-                count.incrementAndGet();
-            } catch (final Exception e) {
-                Logger.warn("Date parsing error with " + dates, e);
-            }
-        };
-
-        // aggregate the documents to counts per second
-        try {
-            if (user_id.equals("en")) {
-                Searchlab.ec.consumeAllWithCompare(0, consumer, index_name, dateField, fromDate, null,  dataFields).call();
-            } else {
-                Searchlab.ec.consumeAllWithCompare(0, consumer, index_name, WebMapping.user_id_sxt.getMapping().name(), user_id, dateField, fromDate, null, dataFields).call();
-            }
-        } catch (final Exception e) {Logger.warn(e);}
-        Logger.info("CountHistogram for " + timeframe.name() + " from " + fromDate.toString() + " to " + (new Date(now)).toString() + ": " + count.get() + " documents.");
-
+        // until the first backfill of the histogram is done, the counts are computed with a scan of the timeframe
+        final long[] counts = histogram.getWatermark() == 0 ? scanIndexDocumentCounts(user_id, timeframe, now) : histogram.counts(user_id, timeframe, now);
 
         // get a total index count for user: that is used to reconstruct the actual number of index entries from the aggregated number
         final TimeCount tc = getIndexDocumentTimeCount(user_id, now - timeframe.framelength);
-        final long pt = now - tc.time;
-        //assert pt >= 0;
-        final int indexTimeForDocumentCount = (int) (Math.max(0, pt) / timeframe.steplength); // there is a slight chance that tc.time is a bit (just milliseconds) larger than 'now'
+        // the counts are aligned to the buckets of the histogram; there is a slight chance that tc.time is a bit (just milliseconds) larger than 'now'
+        final int indexTimeForDocumentCount = (int) Math.min(timeframe.stepcount - 1, now / timeframe.steplength - Math.min(now, tc.time) / timeframe.steplength);
         assert indexTimeForDocumentCount >= 0;
         assert indexTimeForDocumentCount < timeframe.stepcount;
 
@@ -178,7 +144,7 @@ public class IndexDAO {
         }
         for (int i = indexTimeForDocumentCount + 1; i < timeframe.stepcount; i++) {
             // go backward (SIC!) in time -> index decreases
-            counts[i] = counts[i - 1] - counts[i];
+            counts[i] = Math.max(0, counts[i - 1] - counts[i]); // the counts of re-crawled documents may be too high until the next recount
             assert counts[i] >= 0;
         }
 
@@ -195,6 +161,50 @@ public class IndexDAO {
         return tst;
     }
 
+    /**
+     * count the documents of a user per time bucket with a scan over the load date within the timeframe.
+     * The buckets are aligned like the buckets of the histogram: index 0 is the bucket of now.
+     * @param user_id the user or "en" for all users
+     * @param timeframe
+     * @param now
+     * @return the counts, one for each step of the timeframe
+     */
+    private static long[] scanIndexDocumentCounts(final String user_id, final Timeframe timeframe, final long now) {
+        final long afterTime = now - timeframe.framelength;
+        final String index_name = System.getProperties().getProperty("grid.elasticsearch.indexName.web", ElasticsearchClient.DEFAULT_INDEXNAME_WEB);
+        final Date fromDate = new Date(afterTime);
+        final String dateField = WebMapping.load_date_dt.getMapping().name(); // like "load_date_dt": "2022-03-30T02:03:03.214Z",
+        final String[] dataFields = new String[] {dateField};
+        final SimpleDateFormat iso8601MillisParser = DateParser.iso8601MillisParser();
+        final long[] counts = new long[timeframe.stepcount];
+        final AtomicLong count = new AtomicLong(0);
+        final Consumer<Map<String, Object>> consumer = (map) -> {
+            final String dates = (String) map.get(dateField);
+            try {
+                final Date date = iso8601MillisParser.parse(dates);
+                if (date != null) {
+                    final long datetime = date.getTime(); // milliseconds since epoch
+                    if (datetime >= afterTime && now >= datetime) {
+                        final int indexTime = (int) Math.min(timeframe.stepcount - 1, now / timeframe.steplength - datetime / timeframe.steplength);
+                        counts[indexTime]++;
+                    }
+                }
+                count.incrementAndGet();
+            } catch (final Exception e) {
+                Logger.warn("Date parsing error with " + dates, e);
+            }
+        };
+        try {
+            if (user_id.equals("en")) {
+                Searchlab.ec.consumeAllWithCompare(0, consumer, index_name, dateField, fromDate, null, dataFields).call();
+            } else {
+                Searchlab.ec.consumeAllWithCompare(0, consumer, index_name, WebMapping.user_id_sxt.getMapping().name(), user_id, dateField, fromDate, null, dataFields).call();
+            }
+        } catch (final Exception e) {Logger.warn(e);}
+        Logger.info("CountHistogram for " + timeframe.name() + " from " + fromDate.toString() + " to " + (new Date(now)).toString() + ": " + count.get() + " documents, the index histogram is not built yet.");
+        return counts;
+    }
+
     public static MinuteSeriesTable getCrawlstartHistogramAggregation() {
         // get list of all documents that have been created in the last 10 minutes
         final String index_name = System.getProperties().getProperty("grid.elasticsearch.indexName.crawlstart", ElasticsearchClient.DEFAULT_INDEXNAME_CRAWLSTART);
@@ -227,6 +237,8 @@ public class IndexDAO {
     public final static long deleteIndexDocumentsByUserID(final String user_id) {
         final String index_name = System.getProperties().getProperty("grid.elasticsearch.indexName.web", ElasticsearchClient.DEFAULT_INDEXNAME_WEB);
         final long deleted = Searchlab.ec.delete(index_name, Cons.of(WebMapping.user_id_sxt.getMapping().name(), user_id));
+        indexChanged();
+        histogram.invalidate(user_id);
         return deleted;
     }
 
@@ -252,6 +264,8 @@ public class IndexDAO {
     public final static long deleteIndexDocumentsByDomainName(final String user_id, final String domain_name) {
         final String index_name = System.getProperties().getProperty("grid.elasticsearch.indexName.web", ElasticsearchClient.DEFAULT_INDEXNAME_WEB);
         final long deleted = Searchlab.ec.delete(index_name, Cons.of(WebMapping.user_id_sxt.getMapping().name(), user_id), Cons.of(WebMapping.host_s.getMapping().name(), domain_name.trim()));
+        indexChanged();
+        histogram.invalidate(user_id);
         return deleted;
     }
 
@@ -298,6 +312,8 @@ public class IndexDAO {
     public final static long deleteIndexDocumentsByCollectionName(final String user_id, final String collection_name) {
         final String index_name = System.getProperties().getProperty("grid.elasticsearch.indexName.web", ElasticsearchClient.DEFAULT_INDEXNAME_WEB);
         final long deleted = Searchlab.ec.delete(index_name, Cons.of(WebMapping.user_id_sxt.getMapping().name(), user_id), Cons.of(WebMapping.collection_sxt.getMapping().name(), collection_name.trim()));
+        indexChanged();
+        histogram.invalidate(user_id);
         return deleted;
     }
 
@@ -336,7 +352,10 @@ public class IndexDAO {
     public final static long deleteIndexDocumentsByQuery(final String user_id, final String query) {
         final YaCyQuery yq = new YaCyQuery(query);
         final String index_name = System.getProperties().getProperty("grid.elasticsearch.indexName.web", ElasticsearchClient.DEFAULT_INDEXNAME_WEB);
-        return Searchlab.ec.deleteByQuery(index_name, user_id, yq);
+        final long deleted = Searchlab.ec.deleteByQuery(index_name, user_id, yq);
+        indexChanged();
+        histogram.invalidate(user_id);
+        return deleted;
     }
 
     public final static FulltextIndex.Query query(final String user_id, final YaCyQuery yq, final YaCyQuery postFilter, final Sort sort, final WebMapping highlightField, final int timezoneOffset, final int from, final int resultCount, final int aggregationLimit, final boolean explain, final WebMapping... aggregationFields) {
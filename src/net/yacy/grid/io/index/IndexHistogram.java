@@ -0,0 +1,463 @@
+/**
+ *  IndexHistogram
+ *  Copyright 17.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import eu.searchlab.Searchlab;
+import eu.searchlab.operation.FrequencyTask;
+import eu.searchlab.storage.io.FileIO;
+import eu.searchlab.storage.io.GenericIO;
+import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.tools.DateParser;
+import eu.searchlab.tools.Logger;
+import net.yacy.grid.io.index.IndexDAO.Timeframe;
+
+/**
+ * Materialized document counts of the web index per user and per time bucket, for each Timeframe.
+ * The buckets of a timeframe have the steplength of that timeframe and are aligned to the epoch; each user has a
+ * ring of stepcount buckets per timeframe, so a histogram request only copies these buckets.
+ * The documents of the web index are written by the crawler, not by this process. Therefore check() counts the
+ * documents which were loaded since the last check with a scan over the load date and moves a watermark forward.
+ * A document which is loaded again by a re-crawl gets a new load date and is counted again, but the count in the
+ * bucket of its old load date cannot be subtracted; deletions cannot be subtracted either, because the load dates of
+ * the deleted documents are not known. The buckets of a user are computed again with the next check after
+ * invalidate(), and all buckets including those of ALL_USERS are computed again with a scan of the whole year every
+ * RECOUNT_INTERVAL milliseconds. Between two recounts, the counts of re-crawled documents are too high.
+ * Without a stored state the first check is such a recount, which is the backfill.
+ * The state is written as one segment for each timeframe at most every PERSIST_INTERVAL milliseconds and loaded on
+ * start; the watermark is written with the counts, so documents are neither lost nor counted twice after a restart.
+ */
+public class IndexHistogram implements FrequencyTask {
+
+    public  final static String ALL_USERS = "en";
+    private final static long LAG = 60000; // documents are counted when they are at least this old, so late index writes are not missed
+    private final static long PERSIST_INTERVAL = 600000;
+    private final static long RECOUNT_INTERVAL = 86400000; // a recount is a scan of one year, like one histogram request without this class
+    private final static Timeframe[] TIMEFRAMES = Timeframe.values();
+
+    /**
+     * a ring of counts for consecutive buckets
+     */
+    private final static class Buckets {
+
+        private final long[] counts;
+        private long newest; // the number of the newest bucket, that is time / steplength
+
+        private Buckets(final int stepcount) {
+            this.counts = new long[stepcount];
+            this.newest = -1;
+        }
+
+        private int slot(final long bucket) {
+            return (int) (bucket % this.counts.length);
+        }
+
+        private boolean contains(final long bucket) {
+            return this.newest >= 0 && bucket <= this.newest && bucket > this.newest - this.counts.length;
+        }
+
+        private synchronized void add(final long bucket, final long n) {
+            if (bucket > this.newest) {
+                // move the ring forward and empty the skipped buckets
+                if (this.newest < 0 || bucket - this.newest >= this.counts.length) Arrays.fill(this.counts, 0);
+                else for (long b = this.newest + 1; b <= bucket; b++) this.counts[slot(b)] = 0;
+                this.newest = bucket;
+            }
+            if (contains(bucket)) this.counts[slot(bucket)] += n;
+        }
+
+        private synchronized void addAll(final Buckets other) {
+            for (int i = other.counts.length - 1; i >= 0; i--) {
+                final long b = other.newest - i;
+                if (other.contains(b) && other.counts[other.slot(b)] != 0) add(b, other.counts[other.slot(b)]);
+            }
+        }
+
+        /**
+         * @param bucket the bucket of the current time
+         * @return the counts where index i is the count of bucket - i
+         */
+        private synchronized long[] read(final long bucket) {
+            final long[] c = new long[this.counts.length];
+            for (int i = 0; i < c.length; i++) if (contains(bucket - i)) c[i] = this.counts[slot(bucket - i)];
+            return c;
+        }
+
+        private synchronized JSONObject toJSON() {
+            final JSONArray a = new JSONArray(); // pairs of the distance to the newest bucket and the count, only non-zero counts
+            for (int i = 0; i < this.counts.length; i++) {
+                final long c = this.newest < 0 ? 0 : this.counts[slot(this.newest - i)];
+                if (c != 0) {a.put(i); a.put(c);}
+            }
+            final JSONObject json = new JSONObject(true);
+            json.put("newest", this.newest);
+            json.put("counts", a);
+            return json;
+        }
+
+        private static Buckets fromJSON(final JSONObject json, final int stepcount) {
+            final Buckets buckets = new Buckets(stepcount);
+            final long newest = json.optLong("newest", -1);
+            final JSONArray a = json.optJSONArray("counts");
+            if (newest < 0 || a == null) return buckets;
+            buckets.newest = newest;
+            for (int i = 0; i + 1 < a.length(); i += 2) {
+                final int d = a.optInt(i, -1);
+                if (d >= 0 && d < stepcount) buckets.counts[buckets.slot(newest - d)] = a.optLong(i + 1, 0);
+            }
+            return buckets;
+        }
+    }
+
+    private final Map<String, Buckets[]> users;   // the buckets of each user, indexed by the ordinal of the timeframe
+    private final Set<String> invalidated;        // users whose buckets must be computed again
+    private final AtomicBoolean running;
+    private volatile long watermark;              // all documents loaded until this time are counted; 0 if nothing is counted yet
+    private long recounted;                       // the time of the last recount
+    private long lastWrite;
+    private GenericIO io;
+    private IOPath iop;
+
+    public IndexHistogram() {
+        this.users = new ConcurrentHashMap<>();
+        this.invalidated = ConcurrentHashMap.newKeySet();
+        this.running = new AtomicBoolean(false);
+        this.watermark = 0;
+        this.recounted = 0;
+        this.lastWrite = System.currentTimeMillis();
+        this.io = null;
+        this.iop = null;
+    }
+
+    private static Buckets[] newBuckets() {
+        final Buckets[] b = new Buckets[TIMEFRAMES.length];
+        for (final Timeframe timeframe: TIMEFRAMES) b[timeframe.ordinal()] = new Buckets(timeframe.stepcount);
+        return b;
+    }
+
+    private static void add(final Map<String, Buckets[]> users, final String user_id, final long time) {
+        final Buckets[] b = users.computeIfAbsent(user_id, u -> newBuckets());
+        for (final Timeframe timeframe: TIMEFRAMES) b[timeframe.ordinal()].add(time / timeframe.steplength, 1);
+    }
+
+    /**
+     * count one document
+     * @param time the load time of the document
+     * @param user_ids the users of the document; the document is also counted for ALL_USERS
+     */
+    public void add(final long time, final Collection<String> user_ids) {
+        add(this.users, ALL_USERS, time);
+        for (final String user_id: user_ids) if (!ALL_USERS.equals(user_id)) add(this.users, user_id, time);
+    }
+
+    /**
+     * get the document counts of a user
+     * @param user_id the user or ALL_USERS
+     * @param timeframe
+     * @param now the current time
+     * @return stepcount counts where index 0 is the count of the bucket which contains now and index i the count i steps before
+     */
+    public long[] counts(final String user_id, final Timeframe timeframe, final long now) {
+        final Buckets[] b = this.users.get(user_id);
+        if (b == null) return new long[timeframe.stepcount];
+        return b[timeframe.ordinal()].read(now / timeframe.steplength);
+    }
+
+    /**
+     * the buckets of a user must be computed again because documents of that user were deleted.
+     * The buckets of ALL_USERS are corrected with the next recount.
+     * @param user_id
+     */
+    public void invalidate(final String user_id) {
+        if (user_id != null && user_id.length() > 0 && !ALL_USERS.equals(user_id)) this.invalidated.add(user_id);
+    }
+
+    /**
+     * @return the time until all documents are counted; 0 if the backfill is not done yet
+     */
+    public long getWatermark() {
+        return this.watermark;
+    }
+
+    /**
+     * attach a location for the segments and load the counts from there
+     * @param io
+     * @param iop the folder of the segments; each timeframe has a segment with its name
+     */
+    public void attach(final GenericIO io, final IOPath iop) {
+        this.io = io;
+        this.iop = iop;
+        final Map<String, Buckets[]> loaded = new HashMap<>();
+        long w = -1, r = 0;
+        for (final Timeframe timeframe: TIMEFRAMES) {
+            final IOPath segment = segment(timeframe);
+            if (!this.io.exists(segment)) return;
+            try (final InputStream is = this.io.readGZIP(segment)) {
+                final JSONObject json = new JSONObject(new JSONTokener(new InputStreamReader(is, StandardCharsets.UTF_8)));
+                final long sw = json.optLong("watermark", 0);
+                if (w >= 0 && sw != w) {
+                    Logger.warn("index histogram segments do not have the same watermark, the counts are computed again");
+                    return;
+                }
+                w = sw;
+                r = json.optLong("recounted", 0);
+                final JSONObject u = json.optJSONObject("users");
+                if (u != null) for (final String user_id: u.keySet()) {
+                    final JSONObject b = u.optJSONObject(user_id);
+                    if (b != null) loaded.computeIfAbsent(user_id, k -> newBuckets())[timeframe.ordinal()] = Buckets.fromJSON(b, timeframe.stepcount);
+                }
+            } catch (final IOException | JSONException e) {
+                Logger.warn("cannot load index histogram from " + segment.toString(), e);
+                return;
+            }
+        }
+        this.users.clear();
+        this.users.putAll(loaded);
+        this.watermark = Math.max(0, w);
+        this.recounted = r;
+        Logger.info("loaded index histogram of " + loaded.size() + " users until " + new Date(this.watermark).toString() + " from " + this.iop.toString());
+    }
+
+    private IOPath segment(final Timeframe timeframe) {
+        return this.iop.append("indexhistogram_" + timeframe.name() + ".json.gz");
+    }
+
+    /**
+     * count the documents which were loaded since the last check and compute the buckets of invalidated users again.
+     * Every RECOUNT_INTERVAL milliseconds, and if nothing is counted yet, all buckets are computed again instead.
+     * The counts of a scan are merged only if the scan was successful, so a failed scan is repeated by the next check.
+     */
+    @Override
+    public void check() {
+        if (Searchlab.ec == null) return; // not connected yet
+        if (!this.running.compareAndSet(false, true)) return;
+        try {
+            final String index_name = System.getProperties().getProperty("grid.elasticsearch.indexName.web", ElasticsearchClient.DEFAULT_INDEXNAME_WEB);
+            final long now = System.currentTimeMillis();
+            final long until = now - LAG;
+            boolean changed = false;
+
+            if (this.watermark == 0 || now - this.recounted > RECOUNT_INTERVAL) {
+                // count all documents again; without a watermark this is the backfill
+                final List<String> pending = new ArrayList<>(this.invalidated);
+                final Map<String, Buckets[]> counted = new HashMap<>();
+                if (scan(index_name, null, until - Timeframe.per1year.framelength, until, counted)) {
+                    this.users.putAll(counted);
+                    this.users.keySet().retainAll(counted.keySet());
+                    this.invalidated.removeAll(pending);
+                    this.watermark = until;
+                    this.recounted = now;
+                    Logger.info("index histogram recount of " + counted.size() + " users in " + (System.currentTimeMillis() - now) + " ms");
+                    changed = true;
+                }
+            } else {
+                // compute the invalidated users again up to the watermark
+                for (final String user_id: new ArrayList<>(this.invalidated)) {
+                    this.invalidated.remove(user_id);
+                    final Map<String, Buckets[]> counted = new HashMap<>();
+                    if (!scan(index_name, user_id, this.watermark - Timeframe.per1year.framelength, this.watermark, counted)) {
+                        this.invalidated.add(user_id);
+                        continue;
+                    }
+                    final Buckets[] b = counted.get(user_id);
+                    if (b == null) this.users.remove(user_id); else this.users.put(user_id, b);
+                    changed = true;
+                }
+
+                // count the new documents
+                final Map<String, Buckets[]> counted = new HashMap<>();
+                if (scan(index_name, null, this.watermark, until, counted)) {
+                    counted.forEach((user_id, b) -> {
+                        final Buckets[] target = this.users.computeIfAbsent(user_id, u -> newBuckets());
+                        for (final Timeframe timeframe: TIMEFRAMES) target[timeframe.ordinal()].addAll(b[timeframe.ordinal()]);
+                    });
+                    this.watermark = until;
+                    changed = true;
+                }
+            }
+            if (changed && System.currentTimeMillis() - this.lastWrite > PERSIST_INTERVAL) write();
+        } finally {
+            this.running.set(false);
+        }
+    }
+
+    /**
+     * count the documents of a time range
+     * @param index_name
+     * @param user_id the user of the documents or null for all documents
+     * @param from the start of the range, exclusive
+     * @param until the end of the range, inclusive
+     * @param counted the map where the counts are added; if a user_id is given, only that user is counted
+     * @return true if the scan was successful
+     */
+    private static boolean scan(final String index_name, final String user_id, final long from, final long until, final Map<String, Buckets[]> counted) {
+        final String dateField = WebMapping.load_date_dt.getMapping().name();
+        final String userField = WebMapping.user_id_sxt.getMapping().name();
+        final SimpleDateFormat iso8601MillisParser = DateParser.iso8601MillisParser();
+        final BoolQueryBuilder query = QueryBuilders.boolQuery();
+        query.must(QueryBuilders.constantScoreQuery(QueryBuilders.rangeQuery(dateField).gt(iso8601MillisParser.format(new Date(from))).lte(iso8601MillisParser.format(new Date(until)))));
+        if (user_id != null) query.must(QueryBuilders.constantScoreQuery(QueryBuilders.termQuery(userField, user_id)));
+        final Consumer<Map<String, Object>> consumer = document -> {
+            final long time = parseTime(document.get(dateField), iso8601MillisParser);
+            if (time <= 0) return;
+            if (user_id != null) {
+                add(counted, user_id, time);
+                return;
+            }
+            add(counted, ALL_USERS, time);
+            final Object u = document.get(userField);
+            if (u instanceof String) {
+                if (!ALL_USERS.equals(u)) add(counted, (String) u, time);
+            } else if (u instanceof Collection) {
+                for (final Object o: (Collection<?>) u) if (o != null && !ALL_USERS.equals(o)) add(counted, o.toString(), time);
+            }
+        };
+        try {
+            Searchlab.ec.consumeAllWithQuery(0, consumer, index_name, query, null, dateField, userField).call();
+            return true;
+        } catch (final Exception e) {
+            Logger.warn("index histogram scan failed", e);
+            return false;
+        }
+    }
+
+    /**
+     * parse a date like "2022-03-30T02:03:03.214Z"
+     * @return the time in milliseconds since epoch or -1 if the date cannot be parsed
+     */
+    private static long parseTime(final Object date, final SimpleDateFormat fallback) {
+        if (!(date instanceof String)) return -1;
+        try {
+            return Instant.parse((String) date).toEpochMilli();
+        } catch (final DateTimeParseException e) {
+            try {
+                return fallback.parse((String) date).getTime();
+            } catch (final ParseException ee) {
+                Logger.warn("Date parsing error with " + date);
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * write all segments
+     */
+    public void write() {
+        if (this.io == null || this.watermark == 0) return; // without a watermark the counts would be counted again by the backfill
+        final long w = this.watermark; // the counts may be slightly newer than the watermark only while check() runs, which does not write concurrently
+        for (final Timeframe timeframe: TIMEFRAMES) {
+            final JSONObject u = new JSONObject(true);
+            this.users.forEach((user_id, b) -> u.put(user_id, b[timeframe.ordinal()].toJSON()));
+            final JSONObject json = new JSONObject(true);
+            json.put("watermark", w);
+            json.put("recounted", this.recounted);
+            json.put("users", u);
+            try {
+                this.io.writeGZIP(segment(timeframe), json.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (final IOException e) {
+                Logger.warn("cannot write index histogram to " + segment(timeframe).toString(), e);
+                return;
+            }
+        }
+        this.lastWrite = System.currentTimeMillis();
+    }
+
+    /**
+     * Test the buckets and the segments without an index.
+     * The counts must be the same after a restart and documents outside of the ring must not be counted.
+     */
+    public static void main(final String[] args) {
+        try {
+            final File dir = Files.createTempDirectory("indexhistogram").toFile();
+            final FileIO io = new FileIO(dir);
+            io.makeBucket("test");
+            final IOPath iop = new IOPath("test", "status");
+            new File(new File(dir, "test"), "status").mkdirs();
+            final IndexHistogram histogram = new IndexHistogram();
+            histogram.attach(io, iop);
+
+            final long now = System.currentTimeMillis();
+            long start = System.nanoTime();
+            for (int i = 0; i < 1000000; i++) {
+                final long time = now - (i % 1000) * 60000L; // one document each minute in the last 1000 minutes
+                histogram.add(time, i % 2 == 0 ? Collections.singletonList("alice") : Arrays.asList("alice", "bob"));
+            }
+            histogram.add(now - 2 * Timeframe.per1year.framelength, Collections.singletonList("bob")); // too old
+            System.out.println("1000000 documents counted in " + ((System.nanoTime() - start) / 1000000) + " ms");
+
+            start = System.nanoTime();
+            long[] c = null;
+            for (int i = 0; i < 10000; i++) c = histogram.counts(ALL_USERS, Timeframe.per10hour, now);
+            System.out.println("10000 histogram reads in " + ((System.nanoTime() - start) / 1000000) + " ms");
+            System.out.println("per10hour all: " + Arrays.stream(c).sum() + " (expected 600000), alice: " + Arrays.stream(histogram.counts("alice", Timeframe.per10hour, now)).sum() +
+                    " (expected 600000), bob: " + Arrays.stream(histogram.counts("bob", Timeframe.per10hour, now)).sum() + " (expected 300000)");
+            System.out.println("per1day all: " + Arrays.stream(histogram.counts(ALL_USERS, Timeframe.per1day, now)).sum() + " (expected 1000000)");
+            System.out.println("per1year bob: " + Arrays.stream(histogram.counts("bob", Timeframe.per1year, now)).sum() + " (expected 500000)");
+
+            histogram.watermark = now;
+            histogram.write();
+            final IndexHistogram restarted = new IndexHistogram();
+            restarted.attach(io, iop);
+            boolean same = true;
+            for (final String user_id: new String[] {ALL_USERS, "alice", "bob", "carol"}) {
+                for (final Timeframe timeframe: TIMEFRAMES) {
+                    if (!Arrays.equals(histogram.counts(user_id, timeframe, now), restarted.counts(user_id, timeframe, now))) same = false;
+                }
+            }
+            System.out.println("same counts after restart: " + same);
+
+            // moving the ring forward must drop the old buckets
+            restarted.add(now + 700 * 60000L, Collections.singletonList("alice"));
+            System.out.println("per10hour alice after 700 minutes: " + Arrays.stream(restarted.counts("alice", Timeframe.per10hour, now + 700 * 60000L)).sum() + " (expected 1)");
+        } catch (final IOException e) {
+            e.printStackTrace();
+        }
+        System.exit(0);
+    }
+}
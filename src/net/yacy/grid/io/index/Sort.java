@@ -73,6 +73,13 @@ public class Sort {
         }
     }
 
+    /**
+     * @return true if the results are ordered by their relevance score
+     */
+    public boolean isRelevance() {
+        return this.option == Option.RELEVANCE;
+    }
+
     public SearchRequestBuilder sort(SearchRequestBuilder request) {
         if (this.option == Option.DATE) {
             return request.addSort(WebMapping.last_modified.getMapping().name(), this.direction);
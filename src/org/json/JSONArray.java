@@ -22,10 +22,13 @@
  * - fixed "statement unnecessary nested" warnings
  * - fixed raw type declarations
  * - added initializer with capacity and trimToSize to reduce memory usage
+ * - added write(Writer, int) to stream the encoding to a writer
  */
 
 package org.json;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -651,6 +654,26 @@ public class JSONArray implements Iterable<Object> {
         return stringer.toString();
     }
 
+    /**
+     * Encodes this array to a writer. The encoding is passed to the writer in
+     * chunks, so large documents are never held completely in memory.
+     *
+     * @param writer the target writer; it is flushed but not closed.
+     * @param indentSpaces the number of spaces to indent for each level of
+     *     nesting, or 0 for a compact encoding.
+     * @throws IOException if the writer fails or the array cannot be encoded
+     */
+    public void write(final Writer writer, final int indentSpaces) throws IOException {
+        final JSONStringer stringer = indentSpaces > 0 ? new JSONStringer(indentSpaces, writer) : new JSONStringer(writer);
+        try {
+            this.writeTo(stringer);
+            stringer.flush();
+        } catch (final JSONException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getMessage());
+        }
+    }
+
     void writeTo(final JSONStringer stringer) throws JSONException {
         stringer.array();
         for (final Object value : this.values) {
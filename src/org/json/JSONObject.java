@@ -25,10 +25,13 @@
  * - added deprecated flag to has() an get() methods (see comment in code)
  * - inlined opt() where appropriate
  * - removed unnecessary 'throws JSONException' where possible
+ * - added write(Writer, int) to stream the encoding to a writer
  */
 
 package org.json;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -806,6 +809,26 @@ public class JSONObject {
         }
     }
 
+    /**
+     * Encodes this object to a writer. The encoding is passed to the writer in
+     * chunks, so large documents are never held completely in memory.
+     *
+     * @param writer the target writer; it is flushed but not closed.
+     * @param indentSpaces the number of spaces to indent for each level of
+     *     nesting, or 0 for a compact encoding.
+     * @throws IOException if the writer fails or the object cannot be encoded
+     */
+    public void write(final Writer writer, final int indentSpaces) throws IOException {
+        final JSONStringer stringer = indentSpaces > 0 ? new JSONStringer(indentSpaces, writer) : new JSONStringer(writer);
+        try {
+            this.writeTo(stringer);
+            stringer.flush();
+        } catch (final JSONException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getMessage());
+        }
+    }
+
     void writeTo(final JSONStringer stringer) throws JSONException {
         stringer.object();
         for (final Map.Entry<String, Object> entry : this.nameValuePairs.entrySet()) {
@@ -19,10 +19,13 @@
  * https://android.googlesource.com/platform/libcore/+/refs/heads/master/json/src/main/java/org/json
  * and slightly modified (by mc@yacy.net):
  * - removed dependency from other libraries (i.e. android.compat.annotation)
+ * - added an optional sink writer to stream large documents without holding them in memory
  */
 
 package org.json;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -70,6 +73,15 @@ public class JSONStringer {
     /** The output data, containing at most one top-level array or object. */
     final StringBuilder out = new StringBuilder();
 
+    /** The size of the output data which is collected before it is written to the sink. */
+    private static final int SINK_CHUNK_SIZE = 8192;
+
+    /**
+     * An optional writer which receives the output data in chunks, or null if
+     * the output is collected completely in {@link #out}.
+     */
+    private final Writer sink;
+
     /**
      * Lexical scoping elements within this stringer, necessary to insert the
      * appropriate separator characters (ie. commas and colons) and to detect
@@ -128,12 +140,72 @@ public class JSONStringer {
 
     public JSONStringer() {
         indent = null;
+        sink = null;
     }
 
     JSONStringer(int indentSpaces) {
         char[] indentChars = new char[indentSpaces];
         Arrays.fill(indentChars, ' ');
         indent = new String(indentChars);
+        sink = null;
+    }
+
+    /**
+     * Creates a stringer which writes a compact encoding to the given writer.
+     * The output is passed to the writer in chunks while values are added;
+     * {@link #flush} must be called after the top-level value is complete.
+     */
+    public JSONStringer(Writer sink) {
+        indent = null;
+        this.sink = sink;
+    }
+
+    /**
+     * Creates a stringer which writes a human readable encoding to the given
+     * writer. The output is passed to the writer in chunks while values are
+     * added; {@link #flush} must be called after the top-level value is complete.
+     *
+     * @param indentSpaces the number of spaces to indent for each level of
+     *     nesting.
+     */
+    public JSONStringer(int indentSpaces, Writer sink) {
+        char[] indentChars = new char[indentSpaces];
+        Arrays.fill(indentChars, ' ');
+        indent = new String(indentChars);
+        this.sink = sink;
+    }
+
+    /**
+     * Writes the remaining output data to the sink writer and flushes it.
+     * Does nothing if this stringer has no sink.
+     */
+    public void flush() throws JSONException {
+        if (sink == null) {
+            return;
+        }
+        drain(0);
+        try {
+            sink.flush();
+        } catch (IOException e) {
+            throw new JSONException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the output data to the sink writer if it is larger than the given
+     * size. The output is only appended and never revised, so it can be passed
+     * to the sink at any time.
+     */
+    private void drain(int minSize) throws JSONException {
+        if (sink == null || out.length() == 0 || out.length() < minSize) {
+            return;
+        }
+        try {
+            sink.write(out.toString());
+        } catch (IOException e) {
+            throw new JSONException(e.getMessage(), e);
+        }
+        out.setLength(0);
     }
 
     /**
@@ -388,6 +460,7 @@ public class JSONStringer {
      * adjusts the stack to expect the key's value.
      */
     private void beforeKey() throws JSONException {
+        drain(SINK_CHUNK_SIZE);
         Scope context = peek();
         if (context == Scope.NONEMPTY_OBJECT) { // first in object
             out.append(',');
@@ -407,6 +480,7 @@ public class JSONStringer {
         if (stack.isEmpty()) {
             return;
         }
+        drain(SINK_CHUNK_SIZE);
 
         Scope context = peek();
         if (context == Scope.EMPTY_ARRAY) { // first in array